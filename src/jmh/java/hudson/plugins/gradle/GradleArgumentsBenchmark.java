@@ -0,0 +1,105 @@
+package hudson.plugins.gradle;
+
+import hudson.EnvVars;
+import hudson.util.ArgumentListBuilder;
+import hudson.util.VariableResolver;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the cost of assembling the arguments of a Gradle step for one build.
+ *
+ * Each benchmark operation normalizes the switches and tasks and adds the configured properties and all build
+ * parameters as system and project properties, like a parameterized job with both "pass all" options. The
+ * {@code legacy} benchmark runs the former implementation, which expands and parses the configuration on every
+ * build, for comparison.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GradleArgumentsBenchmark {
+
+    @Param({"10", "300"})
+    public int parameterCount;
+
+    private final Set<String> sensitiveVariables = Collections.emptySet();
+
+    private String switches;
+    private String tasks;
+    private String systemProperties;
+    private String projectProperties;
+    private EnvVars env;
+    private Map<String, String> buildVariables;
+    private GradleArguments arguments;
+
+    @Setup
+    public void setUp() throws IOException {
+        env = new EnvVars();
+        buildVariables = new LinkedHashMap<String, String>();
+        StringBuilder properties = new StringBuilder();
+        for (int i = 0; i < parameterCount; i++) {
+            buildVariables.put("PARAM_" + i, "value of parameter " + i);
+            properties.append("prop").append(i).append("=${PARAM_").append(i).append("}\n");
+        }
+        env.putAll(buildVariables);
+        env.put("BRANCH", "master");
+        switches = "--info\n--stacktrace\t--continue -Pbranch=$BRANCH\n--parallel";
+        tasks = "clean\nbuild\n:app:publish -Ptag=${BRANCH}";
+        systemProperties = properties.toString();
+        projectProperties = properties.toString();
+        arguments = new GradleArguments(switches, tasks, systemProperties, projectProperties);
+    }
+
+    @Benchmark
+    public ArgumentListBuilder assembleArguments() throws IOException {
+        if (!arguments.isFor(switches, tasks, systemProperties, projectProperties)) {
+            throw new IllegalStateException();
+        }
+        String normalizedSwitches = arguments.getSwitches(env);
+        String normalizedTasks = arguments.getTasks(env);
+        ArgumentListBuilder options = new ArgumentListBuilder();
+        PassedProperties passedProperties = new PassedProperties(sensitiveVariables);
+        passedProperties.addSystemProperties(arguments.getSystemProperties(env));
+        passedProperties.addSystemProperties(buildVariables);
+        passedProperties.addProjectProperties(arguments.getProjectProperties(env));
+        passedProperties.addProjectProperties(buildVariables);
+        passedProperties.addTo(options);
+        options.addTokenized(normalizedSwitches);
+        options.addTokenized(normalizedTasks);
+        return options;
+    }
+
+    @Benchmark
+    public ArgumentListBuilder legacyAssembleArguments() throws IOException {
+        VariableResolver<String> resolver = new VariableResolver.ByMap<String>(env);
+        String normalizedSwitches = env.expand(switches.replaceAll("[\t\r\n]+", " "));
+        String normalizedTasks = env.expand(tasks.replaceAll("[\t\r\n]+", " "));
+        ArgumentListBuilder options = new ArgumentListBuilder();
+        options.addKeyValuePairsFromPropertyString("-D", systemProperties, resolver, sensitiveVariables);
+        options.addKeyValuePairs("-D", buildVariables, sensitiveVariables);
+        options.addKeyValuePairsFromPropertyString("-P", projectProperties, resolver, sensitiveVariables);
+        options.addKeyValuePairs("-P", buildVariables, sensitiveVariables);
+        options.addTokenized(normalizedSwitches);
+        options.addTokenized(normalizedTasks);
+        return options;
+    }
+}
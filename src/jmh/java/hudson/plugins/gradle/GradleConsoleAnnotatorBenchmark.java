@@ -0,0 +1,70 @@
+package hudson.plugins.gradle;
+
+import org.apache.commons.io.output.NullOutputStream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how fast {@link GradleConsoleAnnotator} processes console output.
+ *
+ * Every benchmark operation writes a single line, so the throughput is reported in lines per second and the
+ * {@code gc.alloc.rate.norm} metric of the gc profiler is the number of bytes allocated per line.
+ *
+ * A new annotator is created each time the log starts over, like for each build, so that the recorded tasks don't
+ * grow without bound. Its creation is part of the measurement, spread over the lines of the log. With
+ * {@code recordTasks=false} the tasks are not recorded, like in builds run through the Tooling API.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GradleConsoleAnnotatorBenchmark {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    @Param
+    public GradleLogs log;
+
+    @Param({"true", "false"})
+    public boolean recordTasks;
+
+    private byte[][] lines;
+    private int next;
+    private GradleConsoleAnnotator annotator;
+
+    @Setup
+    public void setUp() {
+        lines = log.lines();
+        newAnnotator();
+    }
+
+    private void newAnnotator() {
+        annotator = new GradleConsoleAnnotator(NullOutputStream.NULL_OUTPUT_STREAM, UTF_8);
+        annotator.setRecordTasks(recordTasks);
+    }
+
+    @Benchmark
+    public void annotateLine() throws IOException {
+        byte[] line = lines[next];
+        annotator.write(line, 0, line.length);
+        if (++next == lines.length) {
+            next = 0;
+            newAnnotator();
+        }
+    }
+}
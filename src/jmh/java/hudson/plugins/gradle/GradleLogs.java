@@ -0,0 +1,123 @@
+package hudson.plugins.gradle;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Synthetic Gradle console logs used as benchmark input.
+ */
+public enum GradleLogs {
+
+    /**
+     * A large multi-project build with 10k tasks, most of them up-to-date or from the cache.
+     */
+    TASKS_10K {
+        @Override
+        void generate(List<String> lines) {
+            String[] statuses = {"", " UP-TO-DATE", " FROM-CACHE", " NO-SOURCE", " SKIPPED", ""};
+            for (int i = 0; i < 10000; i++) {
+                String task = ":project" + (i / 20) + ":" + TASK_NAMES[i % TASK_NAMES.length];
+                lines.add(task + statuses[i % statuses.length]);
+                if (i % 7 == 0) {
+                    lines.add("Note: Some input files use unchecked or unsafe operations.");
+                }
+            }
+            outcome(lines);
+        }
+    },
+
+    /**
+     * A build run with {@code --info}, where task headers are drowned in logging noise.
+     */
+    INFO {
+        @Override
+        void generate(List<String> lines) {
+            for (int i = 0; i < 2000; i++) {
+                String task = ":project" + (i / 20) + ":" + TASK_NAMES[i % TASK_NAMES.length];
+                lines.add("Selected primary task 'build' from project " + task);
+                lines.add("Putting task artifact state for task '" + task + "' into context took 0.0 secs.");
+                lines.add("Skipping task '" + task + "' as it is up-to-date (took 0.001 secs).");
+                lines.add("Resolving dependency configuration 'compileClasspath' for project " + i / 20);
+                lines.add("Executing task '" + task + "' (up-to-date check took 0.002 secs) due to:");
+                lines.add("  Output property 'destinationDir' file /home/jenkins/workspace/job/project" + i / 20
+                        + "/build/classes/java/main has changed.");
+                lines.add(task + (i % 3 == 0 ? " UP-TO-DATE" : ""));
+                lines.add(":" + TASK_NAMES[i % TASK_NAMES.length] + " (Thread[Task worker for ':',5,main]) completed."
+                        + " Took 0.123 secs.");
+            }
+            outcome(lines);
+        }
+    },
+
+    /**
+     * A failing test run which prints long stack traces.
+     */
+    STACK_TRACES {
+        @Override
+        void generate(List<String> lines) {
+            for (int i = 0; i < 500; i++) {
+                lines.add(":project" + i + ":test");
+                lines.add("");
+                lines.add("org.example.project" + i + ".SomeTest > someMethod FAILED");
+                lines.add("    java.lang.AssertionError: expected:<1> but was:<2>");
+                for (int frame = 0; frame < 40; frame++) {
+                    lines.add("        at org.example.project" + i + ".SomeClass.method" + frame
+                            + "(SomeClass.java:" + (100 + frame) + ")");
+                }
+                lines.add("        ... 42 more");
+            }
+            lines.add("");
+            lines.add("FAILURE: Build failed with an exception.");
+            lines.add("");
+            lines.add("* What went wrong:");
+            lines.add("Execution failed for task ':project0:test'.");
+            lines.add("> There were failing tests. See the report at: file:///tmp/index.html");
+            lines.add("");
+            lines.add("BUILD FAILED");
+            lines.add("");
+            lines.add("Total time: 12 mins 1.234 secs");
+        }
+    };
+
+    private static final String[] TASK_NAMES = {
+            "compileJava", "processResources", "classes", "jar", "compileTestJava",
+            "processTestResources", "testClasses", "test", "check", "assemble", "build"
+    };
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    abstract void generate(List<String> lines);
+
+    /**
+     * The log as separate lines, each terminated by a line feed.
+     */
+    public byte[][] lines() {
+        List<String> lines = new ArrayList<String>();
+        generate(lines);
+        byte[][] result = new byte[lines.size()][];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = (lines.get(i) + "\n").getBytes(UTF_8);
+        }
+        return result;
+    }
+
+    /**
+     * The log as separate lines without line terminators.
+     */
+    public String[] text() {
+        List<String> lines = new ArrayList<String>();
+        generate(lines);
+        return lines.toArray(new String[lines.size()]);
+    }
+
+    private static void outcome(List<String> lines) {
+        lines.add("");
+        lines.add("Publishing build scan...");
+        lines.add("https://gradle.com/s/abcdefghijklm");
+        lines.add("");
+        lines.add("BUILD SUCCESSFUL");
+        lines.add("");
+        lines.add("Total time: 3 mins 25.123 secs");
+    }
+}
@@ -0,0 +1,137 @@
+package hudson.plugins.gradle;
+
+import hudson.MarkupText;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * Measures the cost of rendering annotated console rows.
+ *
+ * The console page creates a {@link MarkupText} for each line carrying a note, lets the note annotate it and
+ * renders the result. Each benchmark operation renders a single row.
+ *
+ * The {@code legacy} benchmarks run the former regex and {@code contains} based implementations of the notes
+ * for comparison.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GradleNoteBenchmark {
+
+    @Param
+    public GradleLogs log;
+
+    private final GradleTaskNote taskNote = new GradleTaskNote();
+    private final GradleOutcomeNote outcomeNote = new GradleOutcomeNote();
+    private final Object context = new Object();
+
+    private String[] taskRows;
+    private String[] outcomeRows;
+    private int nextTask;
+    private int nextOutcome;
+
+    @Setup
+    public void setUp() {
+        GradleTaskNote.ENABLED = true;
+        List<String> tasks = new ArrayList<String>();
+        List<String> outcomes = new ArrayList<String>();
+        for (String line : log.text()) {
+            // the same lines GradleConsoleAnnotator puts the notes on
+            if (line.startsWith(":")) {
+                tasks.add(line);
+            }
+            if (line.equals("BUILD SUCCESSFUL") || line.equals("BUILD FAILED")) {
+                outcomes.add(line);
+            }
+        }
+        taskRows = tasks.toArray(new String[tasks.size()]);
+        outcomeRows = outcomes.toArray(new String[outcomes.size()]);
+    }
+
+    @Benchmark
+    public String renderTaskRow() {
+        MarkupText text = new MarkupText(taskRows[nextTask]);
+        taskNote.annotate(context, text, 0);
+        if (++nextTask == taskRows.length) {
+            nextTask = 0;
+        }
+        return text.toString(true);
+    }
+
+    @Benchmark
+    public String renderOutcomeRow() {
+        MarkupText text = new MarkupText(outcomeRows[nextOutcome]);
+        outcomeNote.annotate(context, text, 0);
+        if (++nextOutcome == outcomeRows.length) {
+            nextOutcome = 0;
+        }
+        return text.toString(true);
+    }
+
+    @Benchmark
+    public String legacyRenderTaskRow() {
+        MarkupText text = new MarkupText(taskRows[nextTask]);
+        legacyAnnotateTask(text);
+        if (++nextTask == taskRows.length) {
+            nextTask = 0;
+        }
+        return text.toString(true);
+    }
+
+    @Benchmark
+    public String legacyRenderOutcomeRow() {
+        MarkupText text = new MarkupText(outcomeRows[nextOutcome]);
+        legacyAnnotateOutcome(text);
+        if (++nextOutcome == outcomeRows.length) {
+            nextOutcome = 0;
+        }
+        return text.toString(true);
+    }
+
+    private static final Collection<String> LEGACY_PROGRESS_STATUSES = Arrays.asList(
+            "UP-TO-DATE", "SKIPPED", "FROM-CACHE", "NO-SOURCE");
+
+    private static void legacyAnnotateTask(MarkupText text) {
+        MarkupText.SubText t = text.findToken(Pattern.compile("^:([^:]\\S*)(\\s*)(\\S*)"));
+        if (t == null) {
+            return;
+        }
+        String task = t.group(1);
+        String delimiterSpace = t.group(2);
+        String progressStatus = t.group(3);
+        if (task != null && !task.isEmpty()) {
+            t.addMarkup(1, task.length() + 1, "<b class=gradle-task>", "</b>");
+        }
+        if (progressStatus != null && !progressStatus.isEmpty()
+                && LEGACY_PROGRESS_STATUSES.contains(progressStatus)) {
+            t.addMarkup(task.length() + delimiterSpace.length() + 1,
+                    text.length(), "<span class=gradle-task-progress-status>", "</span>");
+        }
+    }
+
+    private static void legacyAnnotateOutcome(MarkupText text) {
+        if (text.getText().contains("FAIL"))
+            text.addMarkup(0, text.length(), "<span class=gradle-outcome-failure>", "</span>");
+        if (text.getText().contains("SUCCESS"))
+            text.addMarkup(0, text.length(), "<span class=gradle-outcome-success>", "</span>");
+    }
+}
@@ -0,0 +1,345 @@
+package hudson.plugins.gradle;
+
+import hudson.FilePath;
+import hudson.Util;
+import hudson.XmlFile;
+import hudson.model.AbstractBuild;
+import hudson.model.Result;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import hudson.scm.ChangeLogSet;
+import hudson.util.XStream2;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Restricts the unqualified tasks of a build, like {@code build}, to the projects affected by the changes since the
+ * last successful build and the projects depending on them, so that a project which failed is built again until it
+ * succeeds.
+ *
+ * The changed files are mapped to projects with the project directories and project dependencies of an earlier
+ * build, which are recorded by an init script while Gradle configures the build, so that no additional Gradle
+ * invocation is needed. Only builds which run all tasks as configured and configure all projects record the map.
+ * The changed paths are taken to be relative to the workspace. All tasks are run as configured if the project map
+ * may be out of date, e.g. because a build script changed, or if a change cannot be attributed to a subproject.
+ */
+public class AffectedProjects {
+
+    /** The most previous builds searched for the last successful build, before all projects are built. */
+    static int MAX_BUILDS = Integer.getInteger(AffectedProjects.class.getName() + ".maxBuilds", 20);
+
+    private static final XStream2 XSTREAM = new XStream2();
+
+    static {
+        XSTREAM.alias("gradle-project-map", ProjectMap.class);
+        XSTREAM.alias("project", ProjectInfo.class);
+    }
+
+    private final XmlFile file;
+    private final FilePath workspace;
+    private final FilePath initScript;
+    private final FilePath output;
+    /** Whether the build runs all tasks as configured, so that it may record the projects. */
+    private boolean unrestricted;
+
+    private AffectedProjects(XmlFile file, FilePath workspace, FilePath initScript, FilePath output) {
+        this.file = file;
+        this.workspace = workspace;
+        this.initScript = initScript;
+        this.output = output;
+    }
+
+    /**
+     * Writes the init script recording the projects of the build.
+     *
+     * @param tasks the tasks of the build, before they are restricted to the affected projects
+     */
+    public static AffectedProjects prepare(Run<?, ?> build, FilePath workspace, String tasks)
+            throws IOException, InterruptedException {
+        XmlFile file = new XmlFile(XSTREAM, new File(build.getParent().getRootDir(), "gradle-project-map.xml"));
+        FilePath tmp = InitScripts.tempDir(workspace);
+        tmp.mkdirs();
+        FilePath output = tmp.createTempFile("gradle-projects", ".txt");
+        FilePath initScript = InitScripts.write(workspace, "gradle-projects",
+                initScript(unqualifiedTasks(tasks), output.getRemote()));
+        return new AffectedProjects(file, workspace, initScript, output);
+    }
+
+    public FilePath getInitScript() {
+        return initScript;
+    }
+
+    /**
+     * Restricts the unqualified tasks of {@code tasks} to the projects affected by the changes since the last
+     * successful build before {@code build}, or returns {@code tasks} if all projects may be affected.
+     */
+    public String rewrite(String tasks, Run<?, ?> build, TaskListener listener) throws IOException {
+        GradleLogger gradleLogger = new GradleLogger(listener);
+        List<String> changedPaths = changedPathsSinceLastSuccess(build);
+        Rewrite rewrite = changedPaths == null
+                ? Rewrite.fallback("there is no successful build among the last " + MAX_BUILDS + " builds.")
+                : rewrite(tasks, file.exists() ? (ProjectMap) file.read() : null, changedPaths);
+        if (rewrite.tasks == null) {
+            gradleLogger.info("Running the tasks in all projects, since " + rewrite.fallbackReason);
+            unrestricted = true;
+            return tasks;
+        }
+        gradleLogger.info("Running only the tasks of the projects affected by " + changedPaths.size()
+                + " files changed since the last successful build: " + rewrite.tasks);
+        return rewrite.tasks;
+    }
+
+    /**
+     * The paths changed by {@code build} and the builds since the last successful build, or {@code null} if there is
+     * no successful build among the {@link #MAX_BUILDS} previous builds.
+     */
+    static List<String> changedPathsSinceLastSuccess(Run<?, ?> build) {
+        List<String> changedPaths = new ArrayList<String>();
+        Run<?, ?> run = build;
+        for (int i = 0; i <= MAX_BUILDS && run != null; i++) {
+            // Builds which are still running have no result yet, so their changes are included
+            if (run != build && run.getResult() == Result.SUCCESS) {
+                return changedPaths;
+            }
+            if (run instanceof AbstractBuild) {
+                for (ChangeLogSet.Entry entry : ((AbstractBuild<?, ?>) run).getChangeSet()) {
+                    changedPaths.addAll(entry.getAffectedPaths());
+                }
+            }
+            run = run.getPreviousBuild();
+        }
+        return null;
+    }
+
+    /**
+     * Records the projects of the build for the next builds, unless the tasks were restricted, and removes the
+     * init script.
+     */
+    public void finish(TaskListener listener) throws InterruptedException {
+        try {
+            // The init script writes nothing if projects are configured on demand
+            if (unrestricted && output.exists() && output.length() > 0) {
+                file.write(parse(output.readToString(), workspace.getRemote()));
+            }
+            output.delete();
+            initScript.delete();
+        } catch (IOException e) {
+            new GradleLogger(listener).error("Failed to record the projects of the build: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Maps the changed paths, relative to the workspace, to the projects of {@code map}.
+     */
+    static Rewrite rewrite(String tasks, ProjectMap map, Collection<String> changedPaths) {
+        if (map == null) {
+            return Rewrite.fallback("no projects have been recorded yet.");
+        }
+        if (changedPaths.isEmpty()) {
+            return Rewrite.fallback("the build has no changes.");
+        }
+        List<String> requested = unqualifiedTasks(tasks);
+        for (String task : requested) {
+            if (!map.tasks.contains(task)) {
+                return Rewrite.fallback("the task '" + task + "' has not been recorded for the projects.");
+            }
+        }
+
+        Set<String> affected = new TreeSet<String>();
+        for (String path : changedPaths) {
+            String normalized = path.replace('\\', '/');
+            if (isBuildLogic(normalized)) {
+                return Rewrite.fallback("the build logic changed in " + path + ".");
+            }
+            ProjectInfo project = map.findProject(normalized);
+            if (project == null || project.path.equals(":")) {
+                return Rewrite.fallback(path + " does not belong to a subproject.");
+            }
+            affected.add(project.path);
+        }
+        addDependents(map, affected);
+
+        List<String> rewritten = new ArrayList<String>();
+        boolean projectTasks = false;
+        String[] tokens = Util.tokenize(tasks);
+        for (int i = 0; i < tokens.length; i++) {
+            String task = tokens[i];
+            if (!isUnqualifiedTask(tokens, i)) {
+                rewritten.add(task);
+                continue;
+            }
+            for (String projectPath : affected) {
+                if (map.getProject(projectPath).tasks.contains(task)) {
+                    rewritten.add(projectPath + ":" + task);
+                    projectTasks = true;
+                }
+            }
+        }
+        if (!projectTasks) {
+            // Gradle would run the default tasks instead
+            return Rewrite.fallback("none of the affected projects " + affected + " has the tasks " + requested + ".");
+        }
+        return new Rewrite(Util.join(rewritten, " "), null);
+    }
+
+    private static void addDependents(ProjectMap map, Set<String> affected) {
+        boolean added = true;
+        while (added) {
+            added = false;
+            for (ProjectInfo project : map.projects) {
+                if (!affected.contains(project.path) && !Collections.disjoint(project.dependencies, affected)) {
+                    affected.add(project.path);
+                    added = true;
+                }
+            }
+        }
+    }
+
+    /**
+     * Changes to build scripts, properties or {@code buildSrc} may change the projects or their dependencies.
+     */
+    private static boolean isBuildLogic(String path) {
+        String name = path.substring(path.lastIndexOf('/') + 1);
+        return name.endsWith(".gradle") || name.endsWith(".gradle.kts") || name.equals("gradle.properties")
+                || path.startsWith("buildSrc/") || path.startsWith("gradle/") || path.contains("/buildSrc/");
+    }
+
+    /**
+     * The tasks without a project path. Switches and tasks of a specific project are kept as they are.
+     */
+    static List<String> unqualifiedTasks(String tasks) {
+        List<String> unqualified = new ArrayList<String>();
+        String[] tokens = Util.tokenize(Util.fixNull(tasks));
+        for (int i = 0; i < tokens.length; i++) {
+            if (isUnqualifiedTask(tokens, i) && !unqualified.contains(tokens[i])) {
+                unqualified.add(tokens[i]);
+            }
+        }
+        return unqualified;
+    }
+
+    private static boolean isUnqualifiedTask(String[] tokens, int index) {
+        String token = tokens[index];
+        if (token.startsWith("-") || token.indexOf(':') >= 0) {
+            return false;
+        }
+        // The excluded tasks apply to all projects
+        return index == 0 || !(tokens[index - 1].equals("-x") || tokens[index - 1].equals("--exclude-task"));
+    }
+
+    static String initScript(List<String> tasks, String output) {
+        StringBuilder requested = new StringBuilder();
+        for (String task : tasks) {
+            requested.append(requested.length() == 0 ? "" : ", ").append(InitScripts.quote(task));
+        }
+        return "// Records the projects of the build, generated by the Jenkins Gradle plugin\n"
+                + "def requestedTasks = [" + requested + "]\n"
+                + "gradle.projectsEvaluated { g ->\n"
+                + "    if (g.startParameter.configureOnDemand) {\n"
+                + "        return\n"
+                + "    }\n"
+                + "    def lines = g.rootProject.allprojects.collect { p ->\n"
+                + "        def dependencies = new TreeSet()\n"
+                + "        p.configurations.each { c ->\n"
+                + "            c.dependencies.withType(ProjectDependency).each { dependencies << it.dependencyProject.path }\n"
+                + "        }\n"
+                + "        def tasks = requestedTasks.findAll { p.tasks.findByName(it) != null }\n"
+                + "        [p.path, p.projectDir.absolutePath, dependencies.join(','), tasks.join(',')].join('\\t')\n"
+                + "    }\n"
+                + "    lines.add(0, requestedTasks.join(','))\n"
+                + "    new File(" + InitScripts.quote(output) + ").setText(lines.join('\\n') + '\\n', 'UTF-8')\n"
+                + "}\n";
+    }
+
+    /**
+     * Parses the output of the init script. The first line lists the queried tasks, the other lines the path,
+     * directory, project dependencies and tasks of each project.
+     */
+    static ProjectMap parse(String output, String workspace) {
+        String[] lines = output.split("\n");
+        ProjectMap map = new ProjectMap();
+        map.tasks.addAll(split(lines[0]));
+        String root = workspace.replace('\\', '/');
+        for (int i = 1; i < lines.length; i++) {
+            String[] fields = lines[i].split("\t", -1);
+            if (fields.length < 4) {
+                continue;
+            }
+            ProjectInfo project = new ProjectInfo();
+            project.path = fields[0];
+            String dir = fields[1].replace('\\', '/');
+            project.dir = dir.equals(root) ? "" : dir.startsWith(root + "/") ? dir.substring(root.length() + 1) : null;
+            project.dependencies.addAll(split(fields[2]));
+            project.tasks.addAll(split(fields[3]));
+            map.projects.add(project);
+        }
+        return map;
+    }
+
+    private static List<String> split(String value) {
+        return value.isEmpty() ? new ArrayList<String>() : Arrays.asList(value.trim().split(","));
+    }
+
+    /**
+     * The tasks restricted to the affected projects, or the reason why all projects may be affected.
+     */
+    static final class Rewrite {
+        final String tasks;
+        final String fallbackReason;
+
+        private Rewrite(String tasks, String fallbackReason) {
+            this.tasks = tasks;
+            this.fallbackReason = fallbackReason;
+        }
+
+        static Rewrite fallback(String reason) {
+            return new Rewrite(null, reason);
+        }
+    }
+
+    static final class ProjectMap {
+        /** The unqualified tasks which have been looked up in the projects. */
+        private Set<String> tasks = new LinkedHashSet<String>();
+        private List<ProjectInfo> projects = new ArrayList<ProjectInfo>();
+
+        ProjectInfo getProject(String path) {
+            for (ProjectInfo project : projects) {
+                if (project.path.equals(path)) {
+                    return project;
+                }
+            }
+            return null;
+        }
+
+        /**
+         * The project with the longest directory containing the workspace relative {@code file}.
+         */
+        ProjectInfo findProject(String file) {
+            ProjectInfo found = null;
+            for (ProjectInfo project : projects) {
+                if (project.dir != null && (project.dir.isEmpty() || file.startsWith(project.dir + "/"))
+                        && (found == null || project.dir.length() > found.dir.length())) {
+                    found = project;
+                }
+            }
+            return found;
+        }
+    }
+
+    static final class ProjectInfo {
+        private String path;
+        /** The project directory relative to the workspace, or {@code null} if it is outside of the workspace. */
+        private String dir;
+        private Set<String> dependencies = new TreeSet<String>();
+        private Set<String> tasks = new TreeSet<String>();
+    }
+}
@@ -0,0 +1,69 @@
+package hudson.plugins.gradle;
+
+import hudson.Launcher;
+import hudson.model.TaskListener;
+import hudson.remoting.VirtualChannel;
+import hudson.util.ArgumentListBuilder;
+import jenkins.MasterToSlaveFileCallable;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Launches Gradle on the node of its working directory and annotates the console output there.
+ *
+ * Only the annotated output and the {@link BuildSummary} travel back over the remoting channel, so the Jenkins
+ * master does not scan the output of builds running on agents.
+ */
+public class AgentBuild extends MasterToSlaveFileCallable<BuildSummary> {
+
+    private static final long serialVersionUID = 1L;
+
+    private final List<String> cmds;
+    private final boolean[] masks;
+    private final Map<String, String> env;
+    private final TaskListener listener;
+    private final String charset;
+    private final long logOffset;
+    private final List<String> maskedValues;
+    private final int step;
+
+    /**
+     * @param logOffset the number of bytes in the build log before the Gradle output starts, or -1 if not known
+     * @param maskedValues the values to replace by {@code ****} in the output
+     * @param step the number of the step in the {@link TaskExecutions} of the build, see
+     *             {@link TaskExecutions#reserveStep()}
+     */
+    public AgentBuild(ArgumentListBuilder args, Map<String, String> env, TaskListener listener, Charset charset,
+                      long logOffset, List<String> maskedValues, int step) {
+        this.cmds = args.toList();
+        this.masks = args.toMaskArray();
+        this.env = env;
+        this.listener = listener;
+        this.charset = charset.name();
+        this.logOffset = logOffset;
+        this.maskedValues = new ArrayList<String>(maskedValues);
+        this.step = step;
+    }
+
+    @Override
+    public BuildSummary invoke(File dir, VirtualChannel channel) throws IOException, InterruptedException {
+        GradleConsoleAnnotator gca = new GradleConsoleAnnotator(listener.getLogger(), Charset.forName(charset), logOffset,
+                new TaskExecutions().newRecorder(step));
+        gca.setMaskedValues(maskedValues);
+        int r;
+        try {
+            // Interrupting the build interrupts this thread, which kills the process
+            r = new Launcher.LocalLauncher(listener).launch().cmds(cmds).masks(masks).envs(env).stdout(gca)
+                    .pwd(dir).join();
+        } finally {
+            gca.finish();
+            listener.getLogger().flush();
+        }
+        return new BuildSummary(r == 0, gca);
+    }
+}
@@ -0,0 +1,217 @@
+package hudson.plugins.gradle;
+
+import hudson.FilePath;
+import hudson.model.Computer;
+import hudson.model.Node;
+import hudson.model.TaskListener;
+import hudson.remoting.VirtualChannel;
+import jenkins.MasterToSlaveFileCallable;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Serializable;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.Scanner;
+
+/**
+ * Derives {@code --max-workers} and the heap of the Gradle daemon from the capacity of the node, shared by the
+ * builds running on it at the same time.
+ *
+ * Each busy executor of the node gets an equal share of the CPUs and of the memory. The daemon gets half of the
+ * memory share as heap, leaving the rest to the worker processes and to the operating system. Values given in the
+ * switches, the system properties or a {@code gradle.properties} file of the build or of the Gradle user home are
+ * kept.
+ */
+public final class AutoSizing {
+
+    static final String MAX_WORKERS = "--max-workers";
+    static final String WORKERS_PROPERTY = "org.gradle.workers.max";
+    static final String JVM_ARGS_PROPERTY = "org.gradle.jvmargs";
+
+    /** Lower bound of the derived heap of the daemon, in megabytes. */
+    static int MIN_HEAP_MB = Integer.getInteger(AutoSizing.class.getName() + ".minHeapMb", 256);
+    /** Upper bound of the derived heap of the daemon, in megabytes. */
+    static int MAX_HEAP_MB = Integer.getInteger(AutoSizing.class.getName() + ".maxHeapMb", 4096);
+
+    private AutoSizing() {
+    }
+
+    /**
+     * Returns the switches sizing the build on {@code node}, which are not already given in {@code arguments}.
+     *
+     * @param projectDir the root directory of the build
+     * @param gradleUserHome the Gradle user home of the build, or {@code null} for the default
+     */
+    public static List<String> switchesFor(Node node, FilePath projectDir, String gradleUserHome, List<String> arguments,
+                                           TaskListener listener) throws IOException, InterruptedException {
+        GradleLogger gradleLogger = new GradleLogger(listener);
+        Computer computer = node.toComputer();
+        if (computer == null) {
+            gradleLogger.info("Not sizing the build, since the node " + node.getDisplayName() + " is offline.");
+            return new ArrayList<String>();
+        }
+        Capacity capacity = projectDir.act(new QueryCapacity(gradleUserHome));
+        int busyExecutors = Math.max(1, computer.countBusy());
+
+        List<String> switches = new ArrayList<String>();
+        StringBuilder reasoning = new StringBuilder("Sizing the build for ")
+                .append(capacity.cpus).append(" CPUs and ").append(capacity.totalMemoryMb).append(" MB of memory (")
+                .append(capacity.availableMemoryMb).append(" MB available) on ").append(node.getDisplayName())
+                .append(", shared by ").append(busyExecutors).append(" busy executors: ");
+
+        String workersSource = findWorkers(arguments, capacity.properties);
+        if (workersSource != null) {
+            reasoning.append("max workers given by ").append(workersSource);
+        } else {
+            int workers = maxWorkers(capacity.cpus, busyExecutors);
+            switches.add(MAX_WORKERS + "=" + workers);
+            reasoning.append(workers).append(" max workers");
+        }
+        reasoning.append(", ");
+
+        String jvmArgsSource = findJvmArgs(arguments, capacity.properties);
+        if (jvmArgsSource != null) {
+            reasoning.append("JVM arguments given by ").append(jvmArgsSource);
+        } else if (capacity.totalMemoryMb <= 0) {
+            reasoning.append("JVM arguments not changed, since the memory of the node is unknown");
+        } else {
+            int heapMb = heapMb(capacity.totalMemoryMb, capacity.availableMemoryMb, busyExecutors);
+            switches.add("-D" + JVM_ARGS_PROPERTY + "=-Xmx" + heapMb + "m");
+            reasoning.append(heapMb).append(" MB daemon heap");
+        }
+        gradleLogger.info(reasoning.append('.').toString());
+        return switches;
+    }
+
+    static int maxWorkers(int cpus, int busyExecutors) {
+        return Math.max(1, cpus / busyExecutors);
+    }
+
+    static int heapMb(long totalMemoryMb, long availableMemoryMb, int busyExecutors) {
+        long share = totalMemoryMb / busyExecutors;
+        if (availableMemoryMb > 0) {
+            // Don't count on memory which other processes already use
+            share = Math.min(share, availableMemoryMb);
+        }
+        return (int) Math.max(MIN_HEAP_MB, Math.min(MAX_HEAP_MB, share / 2));
+    }
+
+    /**
+     * Returns where the maximum number of workers is given, or {@code null} if it is not given.
+     */
+    static String findWorkers(List<String> arguments, Properties properties) {
+        for (String argument : arguments) {
+            if (argument.equals(MAX_WORKERS) || argument.startsWith(MAX_WORKERS + "=")
+                    || argument.startsWith("-D" + WORKERS_PROPERTY + "=")) {
+                return argument;
+            }
+        }
+        return properties.containsKey(WORKERS_PROPERTY) ? "gradle.properties" : null;
+    }
+
+    /**
+     * Returns where the JVM arguments of the daemon are given, or {@code null} if they are not given.
+     */
+    static String findJvmArgs(List<String> arguments, Properties properties) {
+        for (String argument : arguments) {
+            if (argument.startsWith("-D" + JVM_ARGS_PROPERTY + "=")) {
+                return "-D" + JVM_ARGS_PROPERTY;
+            }
+        }
+        return properties.containsKey(JVM_ARGS_PROPERTY) ? "gradle.properties" : null;
+    }
+
+    static final class Capacity implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        int cpus;
+        long totalMemoryMb;
+        long availableMemoryMb;
+        /** The sizing properties from the {@code gradle.properties} files of the build. */
+        Properties properties = new Properties();
+    }
+
+    /**
+     * Reads the CPUs and memory of the node, and the sizing properties of the build.
+     */
+    static final class QueryCapacity extends MasterToSlaveFileCallable<Capacity> {
+        private static final long serialVersionUID = 1L;
+
+        private final String gradleUserHome;
+
+        QueryCapacity(String gradleUserHome) {
+            this.gradleUserHome = gradleUserHome;
+        }
+
+        @Override
+        public Capacity invoke(File projectDir, VirtualChannel channel) throws IOException, InterruptedException {
+            Capacity capacity = new Capacity();
+            capacity.cpus = Runtime.getRuntime().availableProcessors();
+            readMemory(capacity);
+            File userHome = gradleUserHome != null ? new File(gradleUserHome)
+                    : new File(System.getProperty("user.home"), ".gradle");
+            readSizingProperties(new File(projectDir, "gradle.properties"), capacity.properties);
+            readSizingProperties(new File(userHome, "gradle.properties"), capacity.properties);
+            return capacity;
+        }
+
+        private static void readMemory(Capacity capacity) throws IOException {
+            File meminfo = new File("/proc/meminfo");
+            if (meminfo.isFile()) {
+                Scanner scanner = new Scanner(meminfo, "UTF-8");
+                try {
+                    while (scanner.hasNextLine()) {
+                        String[] fields = scanner.nextLine().split("\\s+");
+                        if (fields[0].equals("MemTotal:")) {
+                            capacity.totalMemoryMb = Long.parseLong(fields[1]) / 1024;
+                        } else if (fields[0].equals("MemAvailable:")) {
+                            capacity.availableMemoryMb = Long.parseLong(fields[1]) / 1024;
+                        }
+                    }
+                } finally {
+                    scanner.close();
+                }
+                return;
+            }
+            // Not part of the standard API, but available in all common JVMs
+            OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+            capacity.totalMemoryMb = invokeLong(os, "getTotalPhysicalMemorySize") / (1024 * 1024);
+            capacity.availableMemoryMb = invokeLong(os, "getFreePhysicalMemorySize") / (1024 * 1024);
+        }
+
+        private static long invokeLong(Object target, String method) {
+            try {
+                Method getter = target.getClass().getMethod(method);
+                getter.setAccessible(true);
+                return ((Number) getter.invoke(target)).longValue();
+            } catch (Exception e) {
+                return 0;
+            }
+        }
+
+        private static void readSizingProperties(File file, Properties properties) throws IOException {
+            if (!file.isFile()) {
+                return;
+            }
+            Properties all = new Properties();
+            InputStream in = new FileInputStream(file);
+            try {
+                all.load(in);
+            } finally {
+                in.close();
+            }
+            for (String key : new String[]{WORKERS_PROPERTY, JVM_ARGS_PROPERTY}) {
+                if (all.containsKey(key)) {
+                    properties.setProperty(key, all.getProperty(key));
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,216 @@
+package hudson.plugins.gradle;
+
+import hudson.Extension;
+import hudson.EnvVars;
+import hudson.FilePath;
+import hudson.Util;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import hudson.model.UnprotectedRootAction;
+import hudson.util.ArgumentListBuilder;
+import jenkins.model.Jenkins;
+import org.apache.commons.io.IOUtils;
+import org.kohsuke.stapler.StaplerRequest;
+import org.kohsuke.stapler.StaplerResponse;
+
+import javax.servlet.http.HttpServletResponse;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.SecureRandom;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Serves a Gradle build cache from the Jenkins master, so that builds on different agents and in different
+ * workspaces share their task outputs.
+ *
+ * The cache implements the protocol of Gradle's {@code HttpBuildCache}: entries are loaded with {@code GET} and
+ * stored with {@code PUT} at {@code gradle-build-cache/<token>/<key>}. The secret token in the path stands in for
+ * credentials, since basic authentication would be taken for a Jenkins login. Each Gradle step gets its own token,
+ * which is masked in the console and revoked when the step ends. Builds of pull requests, which may run untrusted
+ * code, can only load entries, so that they cannot change the outputs other builds get from the cache. Builds are
+ * configured to use the cache by an init script, unless their settings configure a remote build cache themselves.
+ *
+ * The size of the cache is capped by the system property
+ * {@code hudson.plugins.gradle.BuildCacheAction.maxSizeMb}, 5 GB by default. The cache directory can be changed with
+ * {@code hudson.plugins.gradle.BuildCacheAction.dir}.
+ */
+@Extension
+public class BuildCacheAction implements UnprotectedRootAction {
+
+    static final String URL_NAME = "gradle-build-cache";
+
+    private static final String DIR = System.getProperty(BuildCacheAction.class.getName() + ".dir");
+    private static final long MAX_SIZE_MB = Long.getLong(BuildCacheAction.class.getName() + ".maxSizeMb", 5 * 1024);
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    /** The grants of the running Gradle steps, by token. */
+    private static final ConcurrentMap<String, Grant> GRANTS = new ConcurrentHashMap<String, Grant>();
+
+    private BuildCacheStore store;
+
+    @Override
+    public String getIconFileName() {
+        return null;
+    }
+
+    @Override
+    public String getDisplayName() {
+        return "Gradle Build Cache";
+    }
+
+    @Override
+    public String getUrlName() {
+        return URL_NAME;
+    }
+
+    private synchronized BuildCacheStore getStore() {
+        if (store == null) {
+            File dir = DIR != null ? new File(DIR) : new File(Jenkins.getInstance().getRootDir(), "caches/gradle-build-cache");
+            store = new BuildCacheStore(dir, MAX_SIZE_MB * 1024 * 1024);
+        }
+        return store;
+    }
+
+    /**
+     * Loads or stores the entry at {@code <token>/<key>}.
+     */
+    public void doDynamic(StaplerRequest req, StaplerResponse rsp) throws IOException {
+        String[] path = req.getRestOfPath().replaceFirst("^/", "").split("/");
+        Grant grant = path.length == 2 ? GRANTS.get(path[0]) : null;
+        if (grant == null || !grant.build.isBuilding()) {
+            rsp.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+        String key = path[1];
+        if (!BuildCacheStore.isValidKey(key)) {
+            rsp.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+
+        String method = req.getMethod();
+        if (method.equals("GET")) {
+            InputStream in = getStore().open(key);
+            if (in == null) {
+                rsp.sendError(HttpServletResponse.SC_NOT_FOUND);
+                return;
+            }
+            try {
+                rsp.setContentType("application/octet-stream");
+                OutputStream out = rsp.getOutputStream();
+                IOUtils.copy(in, out);
+                out.flush();
+            } finally {
+                in.close();
+            }
+        } else if (method.equals("PUT")) {
+            if (!grant.push) {
+                rsp.sendError(HttpServletResponse.SC_FORBIDDEN);
+            } else if (getStore().store(key, req.getInputStream())) {
+                rsp.setStatus(HttpServletResponse.SC_CREATED);
+            } else {
+                rsp.sendError(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE);
+            }
+        } else {
+            rsp.sendError(HttpServletResponse.SC_METHOD_NOT_ALLOWED);
+        }
+    }
+
+    /**
+     * Grants the Gradle step of {@code build} access to the cache, writes the init script configuring the cache and
+     * adds it to {@code options}.
+     *
+     * @return the grant, to be revoked by {@link Grant#finish()} when the step ends, or {@code null} if the URL of
+     * Jenkins is not configured
+     */
+    public static Grant prepare(Run<?, ?> build, FilePath workspace, EnvVars env, ArgumentListBuilder options,
+                                TaskListener listener) throws IOException, InterruptedException {
+        GradleLogger gradleLogger = new GradleLogger(listener);
+        String rootUrl = Jenkins.getInstance().getRootUrl();
+        if (rootUrl == null) {
+            gradleLogger.info("Not using the build cache of Jenkins, since the Jenkins URL is not configured.");
+            return null;
+        }
+        // Set by the branch sources for builds of pull requests
+        boolean push = env.get("CHANGE_ID") == null;
+        byte[] random = new byte[32];
+        RANDOM.nextBytes(random);
+        Grant grant = new Grant(Util.toHexString(random), build, push);
+        grant.initScript = InitScripts.write(workspace, "gradle-build-cache",
+                initScript(rootUrl + URL_NAME + "/" + grant.token + "/", push));
+        GRANTS.put(grant.token, grant);
+        options.add("--init-script", grant.initScript.getRemote());
+
+        String access = push ? "" : " without storing entries, since the build is a pull request";
+        if (isCachingGiven(options)) {
+            gradleLogger.info("Configuring the build cache of Jenkins" + access
+                    + ". It is enabled or disabled by the switches.");
+        } else {
+            gradleLogger.info("Enabling the build cache of Jenkins" + access + ".");
+            options.add("-Dorg.gradle.caching=true");
+        }
+        return grant;
+    }
+
+    static boolean isCachingGiven(ArgumentListBuilder options) {
+        for (String argument : options.toList()) {
+            if (argument.equals("--build-cache") || argument.equals("--no-build-cache")
+                    || argument.startsWith("-Dorg.gradle.caching=")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    static String initScript(String url, boolean push) {
+        return "// Configures the build cache of Jenkins, generated by the Jenkins Gradle plugin\n"
+                + "import org.gradle.util.GradleVersion\n"
+                + "if (GradleVersion.current() >= GradleVersion.version('3.5')) {\n"
+                + "    gradle.settingsEvaluated { settings ->\n"
+                + "        if (settings.buildCache.remote == null) {\n"
+                + "            settings.buildCache.remote(HttpBuildCache) {\n"
+                + "                url = " + InitScripts.quote(url) + "\n"
+                + "                push = " + push + "\n"
+                + "                if (hasProperty('allowInsecureProtocol')) {\n"
+                + "                    allowInsecureProtocol = true\n"
+                + "                }\n"
+                + "            }\n"
+                + "        }\n"
+                + "    }\n"
+                + "}\n";
+    }
+
+    /**
+     * The access of one Gradle step to the cache.
+     */
+    public static final class Grant {
+        private final String token;
+        private final Run<?, ?> build;
+        private final boolean push;
+        private FilePath initScript;
+
+        Grant(String token, Run<?, ?> build, boolean push) {
+            this.token = token;
+            this.build = build;
+            this.push = push;
+        }
+
+        /**
+         * The token in the URL of the cache, which must not show up in the console.
+         */
+        public String getToken() {
+            return token;
+        }
+
+        /**
+         * Revokes the access and deletes the init script.
+         */
+        public void finish() throws IOException, InterruptedException {
+            GRANTS.remove(token);
+            initScript.delete();
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package hudson.plugins.gradle;
+
+import org.apache.commons.io.IOUtils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * The entries of the Gradle build cache served by {@link BuildCacheAction}, one file per cache key.
+ *
+ * The least recently used entries are deleted when the entries exceed the size cap. The time an entry was last used
+ * is kept as the modification time of its file, so the order survives restarts.
+ */
+public class BuildCacheStore {
+
+    private static final Pattern KEY = Pattern.compile("[0-9a-f]{8,128}");
+
+    private final File dir;
+    private final long maxBytes;
+
+    /** The sizes of the entries, from the least to the most recently used, or {@code null} before the first use. */
+    private LinkedHashMap<String, Long> entries;
+    private long totalBytes;
+
+    public BuildCacheStore(File dir, long maxBytes) {
+        this.dir = dir;
+        this.maxBytes = maxBytes;
+    }
+
+    public static boolean isValidKey(String key) {
+        return KEY.matcher(key).matches();
+    }
+
+    /**
+     * Opens the entry of {@code key}, or returns {@code null} if there is none.
+     */
+    public synchronized InputStream open(String key) throws IOException {
+        load();
+        if (!entries.containsKey(key)) {
+            return null;
+        }
+        File file = new File(dir, key);
+        try {
+            InputStream in = new FileInputStream(file);
+            file.setLastModified(System.currentTimeMillis());
+            // Marks the entry as the most recently used
+            entries.get(key);
+            return in;
+        } catch (FileNotFoundException e) {
+            // Deleted outside of Jenkins
+            totalBytes -= entries.remove(key);
+            return null;
+        }
+    }
+
+    /**
+     * Stores the entry of {@code key}, replacing an existing entry.
+     *
+     * @return {@code false} if the entry is larger than the size cap and was not stored
+     */
+    public boolean store(String key, InputStream in) throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Failed to create " + dir);
+        }
+        // Written outside of the lock, so that slow uploads don't block other builds
+        File partial = File.createTempFile(key, ".part", dir);
+        long size;
+        try {
+            OutputStream out = new FileOutputStream(partial);
+            try {
+                size = IOUtils.copyLarge(in, out, 0, maxBytes + 1);
+            } finally {
+                out.close();
+            }
+            if (size > maxBytes) {
+                return false;
+            }
+            synchronized (this) {
+                load();
+                File file = new File(dir, key);
+                if (file.exists() && !file.delete()) {
+                    throw new IOException("Failed to replace " + file);
+                }
+                if (!partial.renameTo(file)) {
+                    throw new IOException("Failed to rename " + partial + " to " + file);
+                }
+                Long previous = entries.remove(key);
+                totalBytes += size - (previous == null ? 0 : previous);
+                entries.put(key, size);
+                evict();
+            }
+            return true;
+        } finally {
+            if (partial.exists() && !partial.delete()) {
+                partial.deleteOnExit();
+            }
+        }
+    }
+
+    public synchronized long getTotalBytes() {
+        load();
+        return totalBytes;
+    }
+
+    private void evict() {
+        Iterator<Map.Entry<String, Long>> iterator = entries.entrySet().iterator();
+        while (totalBytes > maxBytes && iterator.hasNext()) {
+            Map.Entry<String, Long> entry = iterator.next();
+            File file = new File(dir, entry.getKey());
+            // An entry which is being read cannot be deleted on Windows, and is retried on the next eviction
+            if (file.delete() || !file.exists()) {
+                totalBytes -= entry.getValue();
+                iterator.remove();
+            }
+        }
+    }
+
+    private void load() {
+        if (entries != null) {
+            return;
+        }
+        entries = new LinkedHashMap<String, Long>(16, 0.75f, true);
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                long difference = a.lastModified() - b.lastModified();
+                return difference < 0 ? -1 : difference > 0 ? 1 : 0;
+            }
+        });
+        for (File file : files) {
+            if (isValidKey(file.getName())) {
+                entries.put(file.getName(), file.length());
+                totalBytes += file.length();
+            } else if (file.getName().endsWith(".part")
+                    && file.lastModified() < System.currentTimeMillis() - TimeUnit.DAYS.toMillis(1)) {
+                // Left over from an interrupted upload
+                file.delete();
+            }
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package hudson.plugins.gradle;
+
+import hudson.model.Run;
+import jenkins.model.RunAction2;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Shows the parts of the build log which explain why a Gradle step failed, e.g. the failed tasks and the
+ * {@code * What went wrong:} blocks.
+ *
+ * The parts are located by the {@link FailureIndex} recorded while the log was written, so only these parts of
+ * the log are read, however long it is.
+ */
+public class BuildFailureAction implements RunAction2 {
+
+    private static final int MAX_EXCERPT_SIZE = 64 * 1024;
+
+    private final FailureIndex failureIndex;
+    private transient Run<?, ?> run;
+
+    public BuildFailureAction(FailureIndex failureIndex) {
+        this.failureIndex = failureIndex;
+    }
+
+    @Override
+    public String getIconFileName() {
+        return "error.png";
+    }
+
+    @Override
+    public String getDisplayName() {
+        return "Gradle Failure";
+    }
+
+    @Override
+    public String getUrlName() {
+        return "gradleFailure";
+    }
+
+    @Override
+    public void onAttached(Run<?, ?> run) {
+        this.run = run;
+    }
+
+    @Override
+    public void onLoad(Run<?, ?> run) {
+        this.run = run;
+    }
+
+    public Run<?, ?> getRun() {
+        return run;
+    }
+
+    /**
+     * Adds the parts of the log recorded for another Gradle step of the build.
+     */
+    public void merge(FailureIndex other) {
+        failureIndex.addAll(other);
+    }
+
+    /**
+     * The first failed task, or {@code null} if no task failed, e.g. because the build script is broken.
+     */
+    public Excerpt getFirstFailedTask() throws IOException {
+        for (int i = 0; i < failureIndex.size(); i++) {
+            if (failureIndex.getKind(i) == FailureIndex.Kind.FAILED_TASK) {
+                return read(i);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Reads all recorded parts of the log, or returns an empty list if the log cannot be read in parts.
+     */
+    public List<Excerpt> getExcerpts() throws IOException {
+        List<Excerpt> excerpts = new ArrayList<Excerpt>();
+        for (int i = 0; i < failureIndex.size(); i++) {
+            Excerpt excerpt = read(i);
+            if (excerpt == null) {
+                break;
+            }
+            excerpts.add(excerpt);
+        }
+        return excerpts;
+    }
+
+    private Excerpt read(int index) throws IOException {
+        long start = failureIndex.getStart(index);
+        int length = (int) Math.min(MAX_EXCERPT_SIZE, Math.max(0, failureIndex.getEnd(index) - start));
+        TaskExecutionAction.LogRegion region = TaskExecutionAction.LogRegion.read(run, start, length);
+        return region == null ? null : new Excerpt(failureIndex.getKind(index), region);
+    }
+
+    /**
+     * A part of the log explaining the failure.
+     */
+    public static final class Excerpt {
+        private final FailureIndex.Kind kind;
+        private final TaskExecutionAction.LogRegion region;
+
+        Excerpt(FailureIndex.Kind kind, TaskExecutionAction.LogRegion region) {
+            this.kind = kind;
+            this.region = region;
+        }
+
+        public FailureIndex.Kind getKind() {
+            return kind;
+        }
+
+        public long getStart() {
+            return region.getStart();
+        }
+
+        public String getHtml() {
+            return region.getHtml();
+        }
+    }
+}
@@ -2,11 +2,26 @@ package hudson.plugins.gradle;
 
 import hudson.model.Action;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Links to the build scans published by the Gradle steps of a build.
+ */
 public class BuildScanAction implements Action {
+    private List<BuildScan> scans = new ArrayList<BuildScan>();
+    /** The only scan recorded by older versions of the plugin. */
+    @Deprecated
     private String scanUrl;
 
+    public BuildScanAction(String step, List<String> scanUrls) {
+        addAll(step, scanUrls);
+    }
+
+    @Deprecated
     public BuildScanAction(String scanUrl) {
-        this.scanUrl = scanUrl;
+        this(null, Collections.singletonList(scanUrl));
     }
 
     @Override
@@ -24,7 +39,58 @@ public class BuildScanAction implements Action {
         return null;
     }
 
-    public String getScanUrl() {
-        return scanUrl;
+    /**
+     * Adds the scans published by another Gradle step of the same build.
+     */
+    public synchronized void addAll(String step, List<String> scanUrls) {
+        for (String url : scanUrls) {
+            scans.add(new BuildScan(url, step));
+        }
+    }
+
+    public synchronized List<BuildScan> getScans() {
+        return new ArrayList<BuildScan>(scans);
+    }
+
+    /**
+     * The URL of the first build scan.
+     */
+    public synchronized String getScanUrl() {
+        return scans.isEmpty() ? null : scans.get(0).getUrl();
+    }
+
+    private Object readResolve() {
+        if (scans == null) {
+            scans = new ArrayList<BuildScan>();
+            if (scanUrl != null) {
+                scans.add(new BuildScan(scanUrl, null));
+                scanUrl = null;
+            }
+        }
+        return this;
+    }
+
+    /**
+     * A build scan, together with the Gradle step which published it.
+     */
+    public static final class BuildScan {
+        private final String url;
+        private final String step;
+
+        public BuildScan(String url, String step) {
+            this.url = url;
+            this.step = step;
+        }
+
+        public String getUrl() {
+            return url;
+        }
+
+        /**
+         * Describes the step which published the scan, or {@code null} if unknown.
+         */
+        public String getStep() {
+            return step;
+        }
     }
 }
@@ -0,0 +1,56 @@
+package hudson.plugins.gradle;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * What the plugin learned about a single Gradle invocation.
+ */
+public class BuildSummary implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final boolean success;
+    private final List<String> scanUrls;
+    private final TaskExecutions taskExecutions;
+    private final TaskOutcomeCounts taskOutcomeCounts;
+    private final FailureIndex failureIndex;
+
+    public BuildSummary(boolean success, List<String> scanUrls, TaskExecutions taskExecutions,
+                        TaskOutcomeCounts taskOutcomeCounts, FailureIndex failureIndex) {
+        this.success = success;
+        this.scanUrls = new ArrayList<String>(scanUrls);
+        this.taskExecutions = taskExecutions;
+        this.taskOutcomeCounts = taskOutcomeCounts;
+        this.failureIndex = failureIndex;
+    }
+
+    /**
+     * Summarizes the output seen by {@code annotator}.
+     */
+    public BuildSummary(boolean success, GradleConsoleAnnotator annotator) {
+        this(success, annotator.getScanUrls(), annotator.getTaskExecutions(), annotator.getTaskOutcomeCounts(),
+                annotator.getFailureIndex());
+    }
+
+    public boolean isSuccess() {
+        return success;
+    }
+
+    public List<String> getScanUrls() {
+        return scanUrls;
+    }
+
+    public TaskExecutions getTaskExecutions() {
+        return taskExecutions;
+    }
+
+    public TaskOutcomeCounts getTaskOutcomeCounts() {
+        return taskOutcomeCounts;
+    }
+
+    public FailureIndex getFailureIndex() {
+        return failureIndex;
+    }
+}
@@ -0,0 +1,198 @@
+package hudson.plugins.gradle;
+
+import hudson.EnvVars;
+import hudson.FilePath;
+import hudson.model.Executor;
+import hudson.model.Node;
+import hudson.model.OneOffExecutor;
+import hudson.model.TaskListener;
+import hudson.remoting.VirtualChannel;
+import jenkins.MasterToSlaveFileCallable;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Gives each executor of a node its own Gradle user home, seeded with a read-only dependency cache shared by all
+ * executors of the node through {@code GRADLE_RO_DEP_CACHE}.
+ *
+ * Builds don't lock each other out of a shared Gradle user home this way, and still find most dependencies without
+ * downloading them. The seed is copied from the {@code caches/modules-2} directory of the user home of a successful
+ * build, when the newest seed is older than {@link #REFRESH_HOURS}. Seeds are never changed once written: each copy
+ * is a new generation, and builds use the newest complete generation when they start. The two newest generations
+ * are kept, so that a generation is only deleted after running builds had a full refresh interval to finish.
+ */
+public class DependencyCacheSeed {
+
+    /** Hours after which the seed is copied again from a successful build. */
+    static long REFRESH_HOURS = Long.getLong(DependencyCacheSeed.class.getName() + ".refreshHours", 24);
+
+    static final String ENV_VAR = "GRADLE_RO_DEP_CACHE";
+
+    private static final String COMPLETE = ".complete";
+    private static final int KEPT_GENERATIONS = 2;
+
+    /** Seed directories being refreshed, by path on the node. */
+    private static final ConcurrentMap<String, Boolean> REFRESHING = new ConcurrentHashMap<String, Boolean>();
+
+    private final String nodeName;
+    private final FilePath seeds;
+    private final FilePath userHome;
+    private final long generation;
+
+    private DependencyCacheSeed(String nodeName, FilePath seeds, FilePath userHome, long generation) {
+        this.nodeName = nodeName;
+        this.seeds = seeds;
+        this.userHome = userHome;
+        this.generation = generation;
+    }
+
+    /**
+     * Points {@code GRADLE_USER_HOME} at the home of the current executor and {@code GRADLE_RO_DEP_CACHE} at the
+     * newest seed of the node.
+     *
+     * @return the seed to refresh after the build, or {@code null} if it is not refreshed by the plugin
+     */
+    public static DependencyCacheSeed prepare(Node node, FilePath workspace, EnvVars env, TaskListener listener)
+            throws IOException, InterruptedException {
+        GradleLogger gradleLogger = new GradleLogger(listener);
+        FilePath root = node != null ? node.getRootPath() : null;
+        if (root == null) {
+            gradleLogger.info("Not using the dependency cache of the node, since the node is offline.");
+            return null;
+        }
+
+        Executor executor = Executor.currentExecutor();
+        FilePath userHome;
+        if (executor != null && !(executor instanceof OneOffExecutor)) {
+            userHome = root.child("caches/gradle-user-homes/executor-" + executor.getNumber());
+        } else {
+            // The workspace is locked by the build as well
+            userHome = InitScripts.tempDir(workspace).child("gradle-user-home");
+        }
+        env.put("GRADLE_USER_HOME", userHome.getRemote());
+
+        if (env.get(ENV_VAR) != null) {
+            gradleLogger.info("Using the Gradle user home " + userHome.getRemote() + " with the read-only dependency"
+                    + " cache " + env.get(ENV_VAR) + " given by " + ENV_VAR + ".");
+            return null;
+        }
+        FilePath seeds = root.child("caches/gradle-ro-dep-cache");
+        long generation = seeds.act(new FindGeneration());
+        if (generation > 0) {
+            env.put(ENV_VAR, seeds.child(Long.toString(generation)).getRemote());
+            gradleLogger.info("Using the Gradle user home " + userHome.getRemote() + " with the read-only dependency"
+                    + " cache " + env.get(ENV_VAR) + ".");
+        } else {
+            gradleLogger.info("Using the Gradle user home " + userHome.getRemote() + ". The read-only dependency cache"
+                    + " of the node will be seeded by the first successful build.");
+        }
+        return new DependencyCacheSeed(node.getNodeName(), seeds, userHome, generation);
+    }
+
+    /**
+     * Copies the dependency cache of the build into a new seed, if the build succeeded and the seed is due.
+     */
+    public void finish(boolean success, TaskListener listener) throws InterruptedException {
+        long now = System.currentTimeMillis();
+        if (!success || now - generation < TimeUnit.HOURS.toMillis(REFRESH_HOURS)) {
+            return;
+        }
+        String key = nodeName + ":" + seeds.getRemote();
+        if (REFRESHING.putIfAbsent(key, Boolean.TRUE) != null) {
+            return;
+        }
+        GradleLogger gradleLogger = new GradleLogger(listener);
+        try {
+            // Another build may have refreshed the seed since this build started
+            long newest = seeds.act(new FindGeneration());
+            FilePath modules = userHome.child("caches/modules-2");
+            if (now - newest < TimeUnit.HOURS.toMillis(REFRESH_HOURS) || !modules.isDirectory()) {
+                return;
+            }
+            FilePath target = seeds.child(Long.toString(now));
+            gradleLogger.info("Refreshing the read-only dependency cache of the node in " + target.getRemote() + ".");
+            // Lock files and the cleanup state of the writable cache must not be part of the read-only cache
+            modules.copyRecursiveTo("**/*", "**/*.lock,**/gc.properties", target.child("modules-2"));
+            target.child(COMPLETE).touch(now);
+            seeds.act(new DeleteOldGenerations(KEPT_GENERATIONS));
+        } catch (IOException e) {
+            gradleLogger.error("Failed to refresh the read-only dependency cache: " + e.getMessage());
+        } finally {
+            REFRESHING.remove(key);
+        }
+    }
+
+    /**
+     * Returns the generations in the seed directory, oldest first.
+     */
+    static long[] generations(File seeds) {
+        String[] names = seeds.list();
+        if (names == null) {
+            return new long[0];
+        }
+        long[] generations = new long[names.length];
+        int count = 0;
+        for (String name : names) {
+            try {
+                generations[count] = Long.parseLong(name);
+                count++;
+            } catch (NumberFormatException e) {
+                // Not a generation
+            }
+        }
+        generations = Arrays.copyOf(generations, count);
+        Arrays.sort(generations);
+        return generations;
+    }
+
+    /**
+     * Finds the newest complete generation, or returns 0 if there is none.
+     */
+    static final class FindGeneration extends MasterToSlaveFileCallable<Long> {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public Long invoke(File seeds, VirtualChannel channel) {
+            long[] generations = generations(seeds);
+            for (int i = generations.length - 1; i >= 0; i--) {
+                if (new File(seeds, generations[i] + "/" + COMPLETE).isFile()) {
+                    return generations[i];
+                }
+            }
+            return 0L;
+        }
+    }
+
+    /**
+     * Deletes all but the newest complete generations, and incomplete generations left by failed refreshes.
+     */
+    static final class DeleteOldGenerations extends MasterToSlaveFileCallable<Void> {
+        private static final long serialVersionUID = 1L;
+
+        private final int kept;
+
+        DeleteOldGenerations(int kept) {
+            this.kept = kept;
+        }
+
+        @Override
+        public Void invoke(File seeds, VirtualChannel channel) throws IOException, InterruptedException {
+            long[] generations = generations(seeds);
+            int complete = 0;
+            for (int i = generations.length - 1; i >= 0; i--) {
+                File dir = new File(seeds, Long.toString(generations[i]));
+                if (new File(dir, COMPLETE).isFile() && complete < kept) {
+                    complete++;
+                } else {
+                    new FilePath(dir).deleteRecursive();
+                }
+            }
+            return null;
+        }
+    }
+}
@@ -0,0 +1,239 @@
+package hudson.plugins.gradle;
+
+import hudson.ProxyConfiguration;
+import hudson.Util;
+import jenkins.model.Jenkins;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.NullOutputStream;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Keeps the Gradle distribution archives downloaded by {@link GradleInstaller} on the Jenkins master, so that each
+ * archive is downloaded only once, however many agents install it.
+ *
+ * Concurrent requests for the same archive share a single download. An interrupted download is resumed from where
+ * it stopped, if the server supports range requests. An archive only enters the cache once it has the length announced
+ * by the server and the SHA-256 checksum published next to it, if any. The cache directory can be changed with the system property
+ * {@code hudson.plugins.gradle.DistributionArchiveCache.dir}, e.g. to a directory which is also used as a mirror.
+ */
+public class DistributionArchiveCache {
+
+    private static final String DIR = System.getProperty(DistributionArchiveCache.class.getName() + ".dir");
+
+    private static final DistributionArchiveCache INSTANCE = new DistributionArchiveCache();
+
+    /** Downloads in progress, by URL. */
+    private final ConcurrentMap<String, FutureTask<File>> downloads = new ConcurrentHashMap<String, FutureTask<File>>();
+
+    public static DistributionArchiveCache get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Returns the archive downloaded from {@code url}, downloading it first if it is not in the cache.
+     */
+    public File fetch(final String url, final GradleLogger gradleLogger) throws IOException, InterruptedException {
+        final File archive = archiveFor(url);
+        if (archive.isFile()) {
+            return archive;
+        }
+
+        FutureTask<File> download = new FutureTask<File>(new Callable<File>() {
+            @Override
+            public File call() throws IOException {
+                download(new URL(url), archive, gradleLogger);
+                return archive;
+            }
+        });
+        FutureTask<File> existing = downloads.putIfAbsent(url, download);
+        if (existing != null) {
+            gradleLogger.info("Waiting for the download of " + url + " by another installation.");
+            download = existing;
+        } else {
+            try {
+                download.run();
+            } finally {
+                downloads.remove(url, download);
+            }
+        }
+
+        try {
+            return download.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Failed to download " + url, e.getCause());
+        }
+    }
+
+    File archiveFor(String url) {
+        File dir = DIR != null ? new File(DIR) : new File(Jenkins.getInstance().getRootDir(), "caches/gradle-distributions");
+        String name = url.substring(url.lastIndexOf('/') + 1);
+        return new File(dir, Util.getDigestOf(url).substring(0, 12) + "-" + name);
+    }
+
+    /**
+     * Downloads {@code url} to {@code archive}, continuing a previous partial download if possible.
+     */
+    static void download(URL url, File archive, GradleLogger gradleLogger) throws IOException {
+        File dir = archive.getParentFile();
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Failed to create " + dir);
+        }
+        File partial = new File(dir, archive.getName() + ".part");
+        long offset = partial.length();
+
+        URLConnection connection = ProxyConfiguration.open(url);
+        if (offset > 0 && connection instanceof HttpURLConnection) {
+            connection.setRequestProperty("Range", "bytes=" + offset + "-");
+        }
+        boolean append = false;
+        long expectedLength = connection instanceof HttpURLConnection ? connection.getContentLengthLong() : -1;
+        if (connection instanceof HttpURLConnection) {
+            int status = ((HttpURLConnection) connection).getResponseCode();
+            if (status == HttpURLConnection.HTTP_PARTIAL) {
+                long[] range = parseContentRange(connection.getHeaderField("Content-Range"));
+                if (range == null || range[0] != offset) {
+                    // Not the rest of the partial download
+                    ((HttpURLConnection) connection).disconnect();
+                    delete(partial);
+                    download(url, archive, gradleLogger);
+                    return;
+                }
+                append = true;
+                expectedLength = range[1] >= 0 ? range[1] : expectedLength >= 0 ? offset + expectedLength : -1;
+            } else if (status == 416) {
+                // Requested range not satisfiable: the partial download is unusable
+                ((HttpURLConnection) connection).disconnect();
+                delete(partial);
+                download(url, archive, gradleLogger);
+                return;
+            } else if (status >= 400) {
+                throw new IOException("Failed to download " + url + ": HTTP " + status);
+            }
+        }
+        gradleLogger.info(append ? "Resuming the download of " + url + " at " + offset + " bytes."
+                : "Downloading " + url + " to the cache of the master.");
+
+        InputStream in = connection.getInputStream();
+        try {
+            OutputStream out = new FileOutputStream(partial, append);
+            try {
+                IOUtils.copy(in, out);
+            } finally {
+                out.close();
+            }
+        } finally {
+            in.close();
+        }
+
+        long length = partial.length();
+        if (expectedLength >= 0 && length != expectedLength) {
+            if (length > expectedLength) {
+                delete(partial);
+                throw new IOException("Downloaded " + length + " bytes of " + url + " instead of " + expectedLength);
+            }
+            // The connection ended early, the next attempt resumes the download
+            throw new IOException("Downloaded only " + length + " of " + expectedLength + " bytes of " + url);
+        }
+        String checksum = readChecksum(new URL(url + ".sha256"));
+        if (checksum == null) {
+            gradleLogger.info("No checksum is published for " + url + ", only its length has been verified.");
+        } else {
+            String actual = sha256(partial);
+            if (!actual.equalsIgnoreCase(checksum)) {
+                delete(partial);
+                throw new IOException("The SHA-256 checksum of " + url + " is " + actual + " instead of " + checksum);
+            }
+        }
+        if (!partial.renameTo(archive)) {
+            throw new IOException("Failed to rename " + partial + " to " + archive);
+        }
+    }
+
+    /**
+     * Parses a {@code Content-Range} header like {@code bytes 100-199/200} into its first byte and the total
+     * length, which is -1 if unknown. Returns {@code null} if the header is missing or invalid.
+     */
+    static long[] parseContentRange(String contentRange) {
+        if (contentRange == null || !contentRange.startsWith("bytes ")) {
+            return null;
+        }
+        int dash = contentRange.indexOf('-');
+        int slash = contentRange.indexOf('/');
+        if (dash < 0 || slash < dash) {
+            return null;
+        }
+        try {
+            long start = Long.parseLong(contentRange.substring("bytes ".length(), dash).trim());
+            String total = contentRange.substring(slash + 1).trim();
+            return new long[] {start, total.equals("*") ? -1 : Long.parseLong(total)};
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Reads the checksum published at {@code url}, like {@code services.gradle.org} does next to each distribution.
+     * Returns {@code null} if there is none.
+     */
+    private static String readChecksum(URL url) {
+        try {
+            URLConnection connection = ProxyConfiguration.open(url);
+            if (connection instanceof HttpURLConnection
+                    && ((HttpURLConnection) connection).getResponseCode() != HttpURLConnection.HTTP_OK) {
+                ((HttpURLConnection) connection).disconnect();
+                return null;
+            }
+            InputStream in = connection.getInputStream();
+            try {
+                String[] text = IOUtils.toString(in, "US-ASCII").trim().split("\\s+");
+                return text[0].isEmpty() ? null : text[0];
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static String sha256(File file) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+        InputStream in = new DigestInputStream(new FileInputStream(file), digest);
+        try {
+            IOUtils.copy(in, new NullOutputStream());
+        } finally {
+            in.close();
+        }
+        return Util.toHexString(digest.digest());
+    }
+
+    private static void delete(File file) throws IOException {
+        if (file.exists() && !file.delete()) {
+            throw new IOException("Failed to delete " + file);
+        }
+    }
+}
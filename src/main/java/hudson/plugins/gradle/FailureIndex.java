@@ -0,0 +1,97 @@
+package hudson.plugins.gradle;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * The parts of the build log which explain why a Gradle build failed, as byte ranges of the log.
+ *
+ * These are the headers of failed tasks, the {@code * What went wrong:} blocks and the {@code BUILD FAILED} lines.
+ */
+public class FailureIndex implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    public enum Kind {
+        FAILED_TASK("Failed task"),
+        WHAT_WENT_WRONG("What went wrong"),
+        OUTCOME("Outcome");
+
+        private final String displayName;
+
+        Kind(String displayName) {
+            this.displayName = displayName;
+        }
+
+        public String getDisplayName() {
+            return displayName;
+        }
+    }
+
+    private static final Kind[] KINDS = Kind.values();
+
+    private byte[] kinds = new byte[0];
+    private long[] starts = new long[0];
+    private long[] ends = new long[0];
+    private int size;
+
+    /**
+     * Records the part of the log in {@code [start, end)}.
+     */
+    public synchronized void add(Kind kind, long start, long end) {
+        if (size == kinds.length) {
+            int capacity = Math.max(4, size * 2);
+            kinds = Arrays.copyOf(kinds, capacity);
+            starts = Arrays.copyOf(starts, capacity);
+            ends = Arrays.copyOf(ends, capacity);
+        }
+        kinds[size] = (byte) kind.ordinal();
+        starts[size] = start;
+        ends[size] = end;
+        size++;
+    }
+
+    /**
+     * Appends all parts recorded in {@code other}, e.g. by another Gradle step of the same build.
+     */
+    public synchronized void addAll(FailureIndex other) {
+        synchronized (other) {
+            for (int i = 0; i < other.size; i++) {
+                add(other.getKind(i), other.starts[i], other.ends[i]);
+            }
+        }
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    public synchronized Kind getKind(int index) {
+        return KINDS[kinds[checkIndex(index)]];
+    }
+
+    public synchronized long getStart(int index) {
+        return starts[checkIndex(index)];
+    }
+
+    public synchronized long getEnd(int index) {
+        return ends[checkIndex(index)];
+    }
+
+    private int checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+        return index;
+    }
+
+    private synchronized Object writeReplace() {
+        // Don't persist or transfer unused capacity
+        FailureIndex trimmed = new FailureIndex();
+        trimmed.kinds = Arrays.copyOf(kinds, size);
+        trimmed.starts = Arrays.copyOf(starts, size);
+        trimmed.ends = Arrays.copyOf(ends, size);
+        trimmed.size = size;
+        return trimmed;
+    }
+}
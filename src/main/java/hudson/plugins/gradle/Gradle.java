@@ -2,6 +2,7 @@ package hudson.plugins.gradle;
 
 import com.google.common.base.Joiner;
 import com.google.common.collect.ImmutableList;
+import hudson.AbortException;
 import hudson.CopyOnWrite;
 import hudson.EnvVars;
 import hudson.Extension;
@@ -13,12 +14,18 @@ import hudson.model.AbstractProject;
 import hudson.model.BuildListener;
 import hudson.model.Computer;
 import hudson.model.Node;
+import hudson.model.ParameterValue;
+import hudson.model.ParametersAction;
 import hudson.model.Result;
+import hudson.model.Run;
+import hudson.model.TaskListener;
 import hudson.tasks.BuildStepDescriptor;
 import hudson.tasks.Builder;
 import hudson.tools.ToolInstallation;
 import hudson.util.ArgumentListBuilder;
-import hudson.util.VariableResolver;
+import hudson.util.VersionNumber;
+import jenkins.model.Jenkins;
+import jenkins.tasks.SimpleBuildStep;
 import org.apache.commons.lang.StringUtils;
 import org.jenkinsci.Symbol;
 import org.jenkinsci.lib.dryrun.DryRun;
@@ -26,16 +33,28 @@ import org.kohsuke.stapler.DataBoundConstructor;
 import org.kohsuke.stapler.DataBoundSetter;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
 
 /**
+ * Runs Gradle in a freestyle build, or as a step of a Pipeline.
+ *
  * @author Gregory Boissinot
  */
-public class Gradle extends Builder implements DryRun {
+public class Gradle extends Builder implements DryRun, SimpleBuildStep {
+
+    /**
+     * Launch Gradle and annotate its console output on the node running the build, instead of annotating
+     * the output on the master. Not used when the launcher is decorated, e.g. to run inside a container, nor when
+     * the agent can't encode console notes.
+     */
+    static boolean ANNOTATE_ON_AGENT = Boolean.getBoolean(Gradle.class.getName() + ".annotateOnAgent");
 
     private String switches;
     private String tasks;
@@ -45,16 +64,28 @@ public class Gradle extends Builder implements DryRun {
     private boolean useWrapper;
     private boolean makeExecutable;
     private boolean useWorkspaceAsHome;
+    private boolean useDaemonPool;
+    private boolean useToolingApi;
     private String wrapperLocation;
+    private boolean onlyAffectedProjects;
+    private boolean recordResourceUsage;
+    private boolean autoSize;
+    private boolean useBuildCache;
+    private boolean useSeededDependencyCache;
+    private int shardCount;
+    private String shardIndex;
     private transient Boolean passAsProperties;
     private String systemProperties;
     private boolean passAllAsSystemProperties;
 
     private String projectProperties;
     private boolean passAllAsProjectProperties;
+    private boolean passPropertiesInFile;
 
     private transient boolean fromRootBuildScriptDir;
 
+    private transient volatile GradleArguments arguments;
+
     @DataBoundConstructor
     public Gradle() {
     }
@@ -139,6 +170,106 @@ public class Gradle extends Builder implements DryRun {
         this.useWorkspaceAsHome = useWorkspaceAsHome;
     }
 
+    @SuppressWarnings("unused")
+    public boolean isUseDaemonPool() {
+        return useDaemonPool;
+    }
+
+    @DataBoundSetter
+    public void setUseDaemonPool(boolean useDaemonPool) {
+        this.useDaemonPool = useDaemonPool;
+    }
+
+    @SuppressWarnings("unused")
+    public boolean isUseToolingApi() {
+        return useToolingApi;
+    }
+
+    @DataBoundSetter
+    public void setUseToolingApi(boolean useToolingApi) {
+        this.useToolingApi = useToolingApi;
+    }
+
+    @SuppressWarnings("unused")
+    public boolean isOnlyAffectedProjects() {
+        return onlyAffectedProjects;
+    }
+
+    @DataBoundSetter
+    public void setOnlyAffectedProjects(boolean onlyAffectedProjects) {
+        this.onlyAffectedProjects = onlyAffectedProjects;
+    }
+
+    @SuppressWarnings("unused")
+    public boolean isRecordResourceUsage() {
+        return recordResourceUsage;
+    }
+
+    @DataBoundSetter
+    public void setRecordResourceUsage(boolean recordResourceUsage) {
+        this.recordResourceUsage = recordResourceUsage;
+    }
+
+    @SuppressWarnings("unused")
+    public boolean isAutoSize() {
+        return autoSize;
+    }
+
+    @DataBoundSetter
+    public void setAutoSize(boolean autoSize) {
+        this.autoSize = autoSize;
+    }
+
+    @SuppressWarnings("unused")
+    public boolean isUseBuildCache() {
+        return useBuildCache;
+    }
+
+    @DataBoundSetter
+    public void setUseBuildCache(boolean useBuildCache) {
+        this.useBuildCache = useBuildCache;
+    }
+
+    @SuppressWarnings("unused")
+    public boolean isUseSeededDependencyCache() {
+        return useSeededDependencyCache;
+    }
+
+    @DataBoundSetter
+    public void setUseSeededDependencyCache(boolean useSeededDependencyCache) {
+        this.useSeededDependencyCache = useSeededDependencyCache;
+    }
+
+    @SuppressWarnings("unused")
+    public boolean isPassPropertiesInFile() {
+        return passPropertiesInFile;
+    }
+
+    @DataBoundSetter
+    public void setPassPropertiesInFile(boolean passPropertiesInFile) {
+        this.passPropertiesInFile = passPropertiesInFile;
+    }
+
+    @SuppressWarnings("unused")
+    public int getShardCount() {
+        return shardCount;
+    }
+
+    @DataBoundSetter
+    public void setShardCount(int shardCount) {
+        this.shardCount = shardCount;
+    }
+
+    @SuppressWarnings("unused")
+    public String getShardIndex() {
+        return shardIndex;
+    }
+
+    @DataBoundSetter
+    public void setShardIndex(String shardIndex) {
+        this.shardIndex = Util.fixEmptyAndTrim(shardIndex);
+    }
+
     @SuppressWarnings("unused")
     public String getWrapperLocation() {
         return wrapperLocation;
@@ -194,45 +325,51 @@ public class Gradle extends Builder implements DryRun {
         return null;
     }
 
-    /** Turns a null string into a blanck string. */
-    private static String null2Blank(String input) {
-        return input != null ? input : "";
-    }
-
-    /** Appends text to a possibly null string. */
-    private static String append(String input, String textToAppend) {
-        if (StringUtils.isBlank(input)) {
-            return null2Blank(textToAppend);
-        }
-        if (StringUtils.isBlank(textToAppend)) {
-            return null2Blank(input);
-        }
-        return input + " " + textToAppend;
-    }
-
     @Override
     public boolean performDryRun(AbstractBuild<?, ?> build, Launcher launcher, BuildListener listener) throws InterruptedException, IOException {
-        return performTask(true, build, launcher, listener);
+        return recordResult(build, performTask(true, build, build.getWorkspace(), launcher, listener));
     }
 
     @Override
     public boolean perform(AbstractBuild<?, ?> build, Launcher launcher, BuildListener listener)
             throws InterruptedException, IOException {
-        return performTask(false, build, launcher, listener);
+        return recordResult(build, performTask(false, build, build.getWorkspace(), launcher, listener));
     }
 
-    private boolean performTask(boolean dryRun, AbstractBuild<?, ?> build, Launcher launcher, BuildListener listener)
+    /**
+     * Sets the result of a build which runs the step as a {@link Builder}. As a {@link SimpleBuildStep}, the step
+     * fails by throwing an exception, so that Pipelines can catch the failure.
+     */
+    private static boolean recordResult(AbstractBuild<?, ?> build, boolean success) {
+        // if the build is successful then set it as success otherwise as a failure.
+        build.setResult(success ? Result.SUCCESS : Result.FAILURE);
+        return success;
+    }
+
+    /**
+     * Runs the build as a Pipeline step, which fails if the Gradle build fails.
+     */
+    @Override
+    public void perform(Run<?, ?> build, FilePath workspace, Launcher launcher, TaskListener listener)
             throws InterruptedException, IOException {
+        if (!performTask(false, build, workspace, launcher, listener)) {
+            throw new AbortException("Gradle build failed");
+        }
+    }
+
+    private boolean performTask(boolean dryRun, Run<?, ?> build, FilePath workspace, Launcher launcher,
+                                TaskListener listener) throws InterruptedException, IOException {
 
         GradleLogger gradleLogger = new GradleLogger(listener);
         gradleLogger.info("Launching build.");
 
         EnvVars env = build.getEnvironment(listener);
-        env.overrideAll(build.getBuildVariables());
-        final VariableResolver<String> resolver = new VariableResolver.ByMap<>(env);
+        Map<String, String> buildVariables = getBuildVariables(build);
+        env.overrideAll(buildVariables);
+        GradleArguments arguments = getArguments();
 
         //Switches
-        String normalizedSwitches = getNormalized(switches, env, "GRADLE_EXT_SWITCHES");
+        String normalizedSwitches = arguments.getSwitches(env);
 
         //Add dry-run switch if needed
         if (dryRun) {
@@ -240,157 +377,582 @@ public class Gradle extends Builder implements DryRun {
         }
 
         //Tasks
-        String normalizedTasks = getNormalized(tasks, env, "GRADLE_EXT_TASKS");
+        String normalizedTasks = arguments.getTasks(env);
+
+        FilePath moduleRoot = getModuleRoot(build, workspace);
+        FilePath normalizedRootBuildScriptDir = getNormalizedRootBuildScriptDir(moduleRoot, env);
+
+        if (useWorkspaceAsHome && workspace != null) {
+            // Make user home relative to the workspace, so that files aren't shared between builds
+            env.put("GRADLE_USER_HOME", workspace.getRemote());
+        }
+
+        //Options, i.e. all arguments except for the tasks
+        Set<String> sensitiveVars = getSensitiveBuildVariables(build);
+        ArgumentListBuilder options = new ArgumentListBuilder();
+        PassedProperties passedProperties = new PassedProperties(sensitiveVars);
+        DependencyCacheSeed dependencyCacheSeed = null;
+        TestShard testShard = null;
+        AffectedProjects affectedProjects = null;
+        BuildCacheAction.Grant buildCacheGrant = null;
+        ResourceMonitor resourceMonitor = null;
+        boolean success = false;
+        // Everything prepared for the build is cleaned up, even if preparing another part fails
+        try {
+            if (useSeededDependencyCache && workspace != null) {
+                // Replaces a user home in the workspace, which would not share the dependency cache
+                dependencyCacheSeed = DependencyCacheSeed.prepare(getNode(workspace), workspace, env, listener);
+            }
+
+            passedProperties.addSystemProperties(arguments.getSystemProperties(env));
+            if (isPassAllAsSystemProperties()) {
+                passedProperties.addSystemProperties(buildVariables);
+            }
+            passedProperties.addProjectProperties(arguments.getProjectProperties(env));
+            if (isPassAllAsProjectProperties()) {
+                passedProperties.addProjectProperties(buildVariables);
+            }
+            if (passPropertiesInFile && workspace != null) {
+                passedProperties.writeTo(workspace, options);
+            } else {
+                passedProperties.addTo(options);
+            }
+            options.addTokenized(normalizedSwitches);
+            if (StringUtils.isNotBlank(buildFile)) {
+                String buildFileNormalized = env.expand(buildFile.trim());
+                options.add("-b");
+                options.add(buildFileNormalized);
+            }
+
+            FilePath rootLauncher;
+            if (normalizedRootBuildScriptDir != null) {
+                rootLauncher = normalizedRootBuildScriptDir;
+            } else {
+                rootLauncher = workspace;
+            }
+
+            //Not call from an Executor
+            if (rootLauncher == null && build instanceof AbstractBuild) {
+                rootLauncher = ((AbstractBuild<?, ?>) build).getProject().getSomeWorkspace();
+            }
 
-        FilePath normalizedRootBuildScriptDir = getNormalizedRootBuildScriptDir(build, env);
+            if (autoSize && rootLauncher != null) {
+                Node node = getNode(rootLauncher);
+                if (node == null) {
+                    gradleLogger.info("Not sizing the build, since the build does not run on a node.");
+                } else {
+                    for (String sizing : AutoSizing.switchesFor(node, rootLauncher, env.get("GRADLE_USER_HOME"),
+                            options.toList(), listener)) {
+                        options.add(sizing);
+                        // The daemon pool keys the daemons by the JVM arguments in the switches
+                        normalizedSwitches = normalizedSwitches + " " + sizing;
+                    }
+                }
+            }
+
+            if (shardCount > 1) {
+                int index = parseShardIndex(env.expand(Util.fixNull(shardIndex)));
+                if (index < 0 || index >= shardCount) {
+                    listener.fatalError("The test shard index must be a number from 0 to %d, but is '%s'.",
+                            shardCount - 1, shardIndex);
+                    return false;
+                }
+                testShard = TestShard.prepare(build, workspace, rootLauncher, shardCount, index, listener);
+                options.add("--init-script", testShard.getInitScript().getRemote());
+            }
+
+            if (onlyAffectedProjects && workspace != null) {
+                affectedProjects = AffectedProjects.prepare(build, workspace, normalizedTasks);
+                normalizedTasks = affectedProjects.rewrite(normalizedTasks, build, listener);
+                options.add("--init-script", affectedProjects.getInitScript().getRemote());
+            }
+
+            // Values which must not show up in the console
+            List<String> maskedValues = new ArrayList<String>();
+            if (useBuildCache && workspace != null) {
+                buildCacheGrant = BuildCacheAction.prepare(build, workspace, env, options, listener);
+                if (buildCacheGrant != null) {
+                    maskedValues.add(buildCacheGrant.getToken());
+                }
+            }
+
+            if (recordResourceUsage && rootLauncher != null) {
+                resourceMonitor = ResourceMonitor.start(rootLauncher.getChannel(), env);
+            }
+
+            boolean toolingApi = useToolingApi;
+            if (toolingApi && launcher instanceof Launcher.DecoratedLauncher) {
+                // The Tooling API build runs in the JVM of the node, where the decorations would not apply
+                gradleLogger.info("Not using the Gradle Tooling API, since the build is launched through a decorated"
+                        + " launcher, e.g. to run inside a container.");
+                toolingApi = false;
+            }
+            if (toolingApi) {
+                success = performToolingApiBuild(build, launcher, listener, env, options, normalizedTasks,
+                        moduleRoot, normalizedRootBuildScriptDir, rootLauncher, maskedValues);
+            } else {
+                success = performLauncherBuild(build, launcher, listener, env, options, normalizedSwitches,
+                        normalizedTasks, moduleRoot, normalizedRootBuildScriptDir, rootLauncher, maskedValues);
+            }
+            return success;
+        } finally {
+            try {
+                if (testShard != null) {
+                    testShard.finish(listener);
+                }
+                if (affectedProjects != null) {
+                    affectedProjects.finish(listener);
+                }
+                if (buildCacheGrant != null) {
+                    buildCacheGrant.finish();
+                }
+                if (resourceMonitor != null) {
+                    addResourceUsage(build, resourceMonitor.stop(), listener);
+                }
+                if (dependencyCacheSeed != null) {
+                    dependencyCacheSeed.finish(success, listener);
+                }
+            } finally {
+                // The generated files may contain sensitive values
+                passedProperties.delete();
+            }
+        }
+    }
+
+    private static int parseShardIndex(String value) {
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private boolean performLauncherBuild(Run<?, ?> build, Launcher launcher, TaskListener listener,
+                                         EnvVars env, ArgumentListBuilder options, String normalizedSwitches,
+                                         String normalizedTasks, FilePath moduleRoot,
+                                         FilePath normalizedRootBuildScriptDir, FilePath rootLauncher,
+                                         List<String> maskedValues)
+            throws IOException, InterruptedException {
+        GradleLogger gradleLogger = new GradleLogger(listener);
 
         //Build arguments
         ArgumentListBuilder args = new ArgumentListBuilder();
         if (useWrapper) {
-            FilePath gradleWrapperFile = findGradleWrapper(normalizedRootBuildScriptDir, build, launcher, listener, env);
+            FilePath gradleWrapperFile = findGradleWrapper(normalizedRootBuildScriptDir, moduleRoot, launcher, listener,
+                    env, makeExecutable);
             if (gradleWrapperFile == null) {
                 return false;
             }
-            if (makeExecutable) {
-                gradleWrapperFile.chmod(0755);
-            }
+            prepareWrapperDistribution(gradleWrapperFile, env, listener);
             args.add(gradleWrapperFile.getRemote());
         } else {
             //Look for a gradle installation
             GradleInstallation ai = getGradle();
             if (ai != null) {
-                Computer computer = Computer.currentComputer();
-                Node node = computer != null ? computer.getNode() : null;
-                if (node != null) {
-                    ai = ai.forNode(node, listener);
-                    ai = ai.forEnvironment(env);
-                    String exe = ai.getExecutable(launcher);
-                    if (exe == null) {
-                        gradleLogger.error("Can't retrieve the Gradle executable.");
-                        return false;
-                    }
-                    env.put("GRADLE_HOME", ai.getHome());
-                    args.add(exe);
-                } else {
-                    gradleLogger.error("Not in a build node.");
+                ai = forCurrentNode(ai, rootLauncher, env, listener);
+                if (ai == null) {
+                    return false;
+                }
+                String exe = GradleInstallationCache.get().getExecutable(ai, getNode(rootLauncher), launcher);
+                if (exe == null) {
+                    gradleLogger.error("Can't retrieve the Gradle executable.");
                     return false;
                 }
+                env.put("GRADLE_HOME", ai.getHome());
+                args.add(exe);
             } else {
                 //No gradle installation either, fall back to simple command
                 args.add(launcher.isUnix() ? GradleInstallation.UNIX_GRADLE_COMMAND : GradleInstallation.WINDOWS_GRADLE_COMMAND);
             }
         }
 
-
-        Set<String> sensitiveVars = build.getSensitiveBuildVariables();
-        args.addKeyValuePairsFromPropertyString("-D", getSystemProperties(), resolver, sensitiveVars);
-        if (isPassAllAsSystemProperties()) {
-            args.addKeyValuePairs("-D", build.getBuildVariables(), sensitiveVars);
-        }
-        args.addKeyValuePairsFromPropertyString("-P", getProjectProperties(), resolver, sensitiveVars);
-        if (isPassAllAsProjectProperties()) {
-            args.addKeyValuePairs("-P", build.getBuildVariables(), sensitiveVars);
-        }
-        args.addTokenized(normalizedSwitches);
+        addAll(args, options);
         args.addTokenized(normalizedTasks);
-        if (StringUtils.isNotBlank(buildFile)) {
-            String buildFileNormalized = env.expand(buildFile.trim());
-            args.add("-b");
-            args.add(buildFileNormalized);
-        }
 
-        final FilePath workspace = build.getWorkspace();
-        if (useWorkspaceAsHome && workspace != null) {
-            // Make user home relative to the workspace, so that files aren't shared between builds
-            env.put("GRADLE_USER_HOME", workspace.getRemote());
+        GradleDaemonPool.Lease daemonLease = null;
+        if (useDaemonPool) {
+            daemonLease = leaseDaemons(args.toList().get(0), normalizedSwitches, rootLauncher, launcher, env, listener);
+            if (daemonLease != null) {
+                for (String daemonSwitch : daemonLease.getSwitches()) {
+                    args.add(daemonSwitch);
+                }
+            }
         }
 
         if (!launcher.isUnix()) {
             args = args.toWindowsCommand();
         }
 
-        FilePath rootLauncher;
-        if (normalizedRootBuildScriptDir != null) {
-            rootLauncher = normalizedRootBuildScriptDir;
-        } else {
-            rootLauncher = build.getWorkspace();
-        }
-
-        //Not call from an Executor
-        if (rootLauncher == null) {
-            rootLauncher = build.getProject().getSomeWorkspace();
-        }
-
         try {
-            GradleConsoleAnnotator gca = new GradleConsoleAnnotator(
-                    listener.getLogger(), build.getCharset());
-            int r;
+            long logOffset = logOffset(build, listener);
+            BuildSummary summary;
             try {
-                r = launcher.launch().cmds(args).envs(env).stdout(gca)
-                        .pwd(rootLauncher).join();
+                if (ANNOTATE_ON_AGENT && !(launcher instanceof Launcher.DecoratedLauncher)
+                        && canEncodeNotesOn(rootLauncher)) {
+                    int step = getTaskExecutionAction(build).getTaskExecutions().reserveStep();
+                    summary = rootLauncher.act(new AgentBuild(args, env, listener, build.getCharset(), logOffset,
+                            maskedValues, step));
+                } else {
+                    // Tasks appear in the outline of the build while it is running
+                    GradleConsoleAnnotator gca = new GradleConsoleAnnotator(listener.getLogger(), build.getCharset(),
+                            logOffset, getTaskExecutionAction(build).getTaskExecutions());
+                    gca.setMaskedValues(maskedValues);
+                    int r;
+                    try {
+                        r = launcher.launch().cmds(args).envs(env).stdout(gca)
+                                .pwd(rootLauncher).join();
+                    } finally {
+                        gca.finish();
+                    }
+                    summary = new BuildSummary(r == 0, gca);
+                }
             } finally {
-                gca.forceEol();
+                if (daemonLease != null) {
+                    daemonLease.release();
+                }
             }
-            boolean success = r == 0;
-            // if the build is successful then set it as success otherwise as a failure.
-            build.setResult(Result.SUCCESS);
-            if (!success) {
-                build.setResult(Result.FAILURE);
+            return recordBuild(build, describeStep(normalizedTasks), summary);
+        } catch (IOException e) {
+            Util.displayIOException(e, listener);
+            e.printStackTrace(listener.fatalError("command execution failed"));
+            return false;
+        }
+    }
+
+    private boolean performToolingApiBuild(Run<?, ?> build, Launcher launcher, TaskListener listener,
+                                           EnvVars env, ArgumentListBuilder options, String normalizedTasks,
+                                           FilePath moduleRoot, FilePath normalizedRootBuildScriptDir,
+                                           FilePath rootLauncher, List<String> maskedValues)
+            throws IOException, InterruptedException {
+        if (rootLauncher == null) {
+            listener.fatalError("The Gradle Tooling API needs a workspace to run the build in.");
+            return false;
+        }
+        GradleLogger gradleLogger = new GradleLogger(listener);
+        String gradleHome = null;
+        String wrapperDir = null;
+        if (useWrapper) {
+            // The Tooling API does not run the wrapper script
+            FilePath gradleWrapperFile = findGradleWrapper(normalizedRootBuildScriptDir, moduleRoot, launcher, listener,
+                    env, false);
+            if (gradleWrapperFile == null) {
+                return false;
             }
-            String scanUrl = gca.getScanUrl();
-            if (StringUtils.isNotEmpty(scanUrl)) {
-                build.addAction(new BuildScanAction(scanUrl));
+            prepareWrapperDistribution(gradleWrapperFile, env, listener);
+            wrapperDir = gradleWrapperFile.getParent().getRemote();
+        } else {
+            GradleInstallation ai = getGradle();
+            if (ai != null) {
+                ai = forCurrentNode(ai, rootLauncher, env, listener);
+                if (ai == null) {
+                    return false;
+                }
+                gradleHome = ai.getHome();
+                env.put("GRADLE_HOME", gradleHome);
             }
-            return success;
+        }
+        if (useDaemonPool) {
+            gradleLogger.info("Not using the Gradle daemon pool, since the Tooling API manages its own daemons.");
+        }
+
+        List<String> taskList = Arrays.asList(Util.tokenize(normalizedTasks));
+        gradleLogger.info("Running Gradle through the Tooling API in " + rootLauncher.getRemote()
+                + " with tasks " + taskList + " and arguments " + toMaskedString(options));
+        try {
+            int step = getTaskExecutionAction(build).getTaskExecutions().reserveStep();
+            BuildSummary summary = rootLauncher.act(new ToolingApiBuild(gradleHome, wrapperDir, env, options.toList(),
+                    taskList, listener, build.getCharset(), logOffset(build, listener), maskedValues,
+                    canEncodeNotesOn(rootLauncher), step));
+            return recordBuild(build, describeStep(normalizedTasks), summary);
         } catch (IOException e) {
             Util.displayIOException(e, listener);
-            e.printStackTrace(listener.fatalError("command execution failed"));
-            build.setResult(Result.FAILURE);
+            e.printStackTrace(listener.fatalError("Gradle Tooling API execution failed"));
             return false;
         }
     }
 
-    private FilePath findGradleWrapper(FilePath normalizedRootBuildScriptDir, AbstractBuild<?, ?> build, Launcher launcher, BuildListener listener, EnvVars env) throws IOException, InterruptedException {
-        List<FilePath> possibleWrapperLocations = getPossibleWrapperLocations(build, launcher, env, normalizedRootBuildScriptDir);
-        String execName = (launcher.isUnix()) ? GradleInstallation.UNIX_GRADLE_WRAPPER_COMMAND : GradleInstallation.WINDOWS_GRADLE_WRAPPER_COMMAND;
-        FilePath gradleWrapperFile = null;
-        for (FilePath possibleWrapperLocation : possibleWrapperLocations) {
-            final FilePath possibleGradleWrapperFile = new FilePath(possibleWrapperLocation, execName);
-            if (possibleGradleWrapperFile.exists()) {
-                gradleWrapperFile = possibleGradleWrapperFile;
-                break;
+    /**
+     * The number of bytes in the build log before the output of the step, or -1 if the output does not go straight
+     * to the end of the log, like in the parallel branches of a Pipeline.
+     */
+    private static long logOffset(Run<?, ?> build, TaskListener listener) throws IOException {
+        if (!(build instanceof AbstractBuild)) {
+            return -1;
+        }
+        listener.getLogger().flush();
+        return build.getLogFile().length();
+    }
+
+    /**
+     * Whether console notes encoded on the node of the given path are shown in the build log. Since Jenkins 2.44
+     * and 2.32.2, notes carry a MAC made with a key which only exists on the master (SECURITY-382).
+     */
+    static boolean canEncodeNotesOn(FilePath path) {
+        return !path.isRemote() || !isSigningNotes(Jenkins.getVersion());
+    }
+
+    static boolean isSigningNotes(VersionNumber version) {
+        if (version == null) {
+            return true;
+        }
+        // SECURITY-382 was also fixed in 2.32.2, the LTS line before 2.44
+        return !version.isOlderThan(new VersionNumber("2.44"))
+                || !version.isOlderThan(new VersionNumber("2.32.2")) && version.isOlderThan(new VersionNumber("2.33"));
+    }
+
+    private static void prepareWrapperDistribution(FilePath gradleWrapperFile, EnvVars env, TaskListener listener)
+            throws InterruptedException {
+        if (!WrapperDistributionCache.ENABLED) {
+            return;
+        }
+        Node node = getNode(gradleWrapperFile);
+        if (node != null) {
+            WrapperDistributionCache.provision(node, gradleWrapperFile.getParent(), env.get("GRADLE_USER_HOME"), listener);
+        }
+    }
+
+    /**
+     * Resolves the installation for the node the build runs on, or returns {@code null} if there is no such node.
+     */
+    private static GradleInstallation forCurrentNode(GradleInstallation ai, FilePath rootLauncher, EnvVars env,
+                                                     TaskListener listener) throws IOException, InterruptedException {
+        Node node = getNode(rootLauncher);
+        if (node == null) {
+            new GradleLogger(listener).error("Not in a build node.");
+            return null;
+        }
+        return GradleInstallationCache.get().forNode(ai, node, listener).forEnvironment(env);
+    }
+
+    /**
+     * The node the build runs on. Pipeline steps don't run on an executor thread, so their node is found by the
+     * workspace.
+     */
+    private static Node getNode(FilePath workspace) {
+        Computer computer = Computer.currentComputer();
+        if (computer == null && workspace != null) {
+            computer = workspace.toComputer();
+        }
+        return computer != null ? computer.getNode() : null;
+    }
+
+    private static Map<String, String> getBuildVariables(Run<?, ?> build) {
+        if (build instanceof AbstractBuild) {
+            return ((AbstractBuild<?, ?>) build).getBuildVariables();
+        }
+        Map<String, String> variables = new HashMap<String, String>();
+        ParametersAction parameters = build.getAction(ParametersAction.class);
+        if (parameters != null) {
+            for (ParameterValue parameter : parameters) {
+                Object value = parameter.getValue();
+                if (value != null) {
+                    variables.put(parameter.getName(), value.toString());
+                }
+            }
+        }
+        return variables;
+    }
+
+    private static Set<String> getSensitiveBuildVariables(Run<?, ?> build) {
+        if (build instanceof AbstractBuild) {
+            return ((AbstractBuild<?, ?>) build).getSensitiveBuildVariables();
+        }
+        Set<String> variables = new HashSet<String>();
+        ParametersAction parameters = build.getAction(ParametersAction.class);
+        if (parameters != null) {
+            for (ParameterValue parameter : parameters) {
+                if (parameter.isSensitive()) {
+                    variables.add(parameter.getName());
+                }
+            }
+        }
+        return variables;
+    }
+
+    private static FilePath getModuleRoot(Run<?, ?> build, FilePath workspace) {
+        return build instanceof AbstractBuild ? ((AbstractBuild<?, ?>) build).getModuleRoot() : workspace;
+    }
+
+    private static void addAll(ArgumentListBuilder args, ArgumentListBuilder other) {
+        List<String> values = other.toList();
+        boolean[] masks = other.toMaskArray();
+        for (int i = 0; i < values.size(); i++) {
+            args.add(values.get(i), masks[i]);
+        }
+    }
+
+    private static String toMaskedString(ArgumentListBuilder args) {
+        List<String> values = args.toList();
+        boolean[] masks = args.toMaskArray();
+        StringBuilder buf = new StringBuilder();
+        for (int i = 0; i < values.size(); i++) {
+            if (i > 0) {
+                buf.append(' ');
+            }
+            buf.append(masks[i] ? "********" : values.get(i));
+        }
+        return buf.toString();
+    }
+
+    private static String describeStep(String normalizedTasks) {
+        String tasks = normalizedTasks.trim();
+        return tasks.isEmpty() ? "default tasks" : tasks;
+    }
+
+    private static boolean recordBuild(Run<?, ?> build, String step, BuildSummary summary) {
+        addBuildScans(build, step, summary.getScanUrls());
+        addTaskExecutions(build, summary.getTaskExecutions());
+        addTaskOutcomeCounts(build, summary.getTaskOutcomeCounts());
+        addFailureIndex(build, summary.getFailureIndex());
+        return summary.isSuccess();
+    }
+
+    private GradleDaemonPool.Lease leaseDaemons(String executable, String normalizedSwitches, FilePath rootLauncher,
+                                                Launcher launcher, EnvVars env, TaskListener listener)
+            throws IOException, InterruptedException {
+        GradleLogger gradleLogger = new GradleLogger(listener);
+        if (Arrays.asList(Util.tokenize(normalizedSwitches)).contains("--no-daemon")) {
+            gradleLogger.info("Not using the Gradle daemon pool, since the daemon is disabled by --no-daemon.");
+            return null;
+        }
+        Node node = getNode(rootLauncher);
+        if (node == null) {
+            gradleLogger.info("Not using the Gradle daemon pool, since the build does not run on a node.");
+            return null;
+        }
+        return GradleDaemonPool.get().lease(node, launcher, executable, normalizedSwitches, env, listener);
+    }
+
+    private static void addBuildScans(Run<?, ?> build, String step, List<String> scanUrls) {
+        if (scanUrls.isEmpty()) {
+            return;
+        }
+        synchronized (build) {
+            BuildScanAction action = build.getAction(BuildScanAction.class);
+            if (action == null) {
+                build.addAction(new BuildScanAction(step, scanUrls));
+            } else {
+                action.addAll(step, scanUrls);
+            }
+        }
+    }
+
+    private static TaskExecutionAction getTaskExecutionAction(Run<?, ?> build) {
+        synchronized (build) {
+            TaskExecutionAction action = build.getAction(TaskExecutionAction.class);
+            if (action == null) {
+                action = new TaskExecutionAction(new TaskExecutions());
+                build.addAction(action);
             }
+            return action;
         }
-        if (gradleWrapperFile == null) {
+    }
+
+    private static void addTaskExecutions(Run<?, ?> build, TaskExecutions taskExecutions) {
+        synchronized (build) {
+            TaskExecutionAction action = build.getAction(TaskExecutionAction.class);
+            if (action == null) {
+                if (taskExecutions.size() > 0) {
+                    build.addAction(new TaskExecutionAction(taskExecutions));
+                }
+            } else {
+                if (action.getTaskExecutions() != taskExecutions) {
+                    // Recorded on the node running the build, in a step numbered by the action
+                    action.getTaskExecutions().addAll(taskExecutions);
+                }
+                if (action.getTaskExecutions().size() == 0) {
+                    // No task has been executed
+                    build.getActions().remove(action);
+                }
+            }
+        }
+    }
+
+    private static void addTaskOutcomeCounts(Run<?, ?> build, TaskOutcomeCounts counts) {
+        if (counts.getTotal() == 0) {
+            return;
+        }
+        synchronized (build) {
+            TaskOutcomeAction action = build.getAction(TaskOutcomeAction.class);
+            if (action == null) {
+                build.addAction(new TaskOutcomeAction(counts));
+            } else {
+                action.getCounts().addAll(counts);
+            }
+        }
+    }
+
+    private static void addFailureIndex(Run<?, ?> build, FailureIndex failureIndex) {
+        if (failureIndex.size() == 0) {
+            return;
+        }
+        synchronized (build) {
+            BuildFailureAction action = build.getAction(BuildFailureAction.class);
+            if (action == null) {
+                build.addAction(new BuildFailureAction(failureIndex));
+            } else {
+                action.merge(failureIndex);
+            }
+        }
+    }
+
+    private static void addResourceUsage(Run<?, ?> build, ResourceUsage usage, TaskListener listener) {
+        if (usage == null) {
+            new GradleLogger(listener).info("Not recording the resource usage, since the node does not provide /proc.");
+            return;
+        }
+        if (usage.size() == 0) {
+            return;
+        }
+        synchronized (build) {
+            ResourceUsageAction action = build.getAction(ResourceUsageAction.class);
+            if (action == null) {
+                build.addAction(new ResourceUsageAction(usage));
+            } else {
+                action.getUsage().addAll(usage);
+            }
+        }
+    }
+
+    private FilePath findGradleWrapper(FilePath normalizedRootBuildScriptDir, FilePath moduleRoot, Launcher launcher,
+                                       TaskListener listener, EnvVars env, boolean makeExecutable) throws IOException, InterruptedException {
+        List<FilePath> possibleWrapperLocations = getPossibleWrapperLocations(moduleRoot, env, normalizedRootBuildScriptDir);
+        String execName = (launcher.isUnix()) ? GradleInstallation.UNIX_GRADLE_WRAPPER_COMMAND : GradleInstallation.WINDOWS_GRADLE_WRAPPER_COMMAND;
+        // A single round trip to the node, probing all locations
+        GradleWrapper wrapper = GradleWrapper.find(possibleWrapperLocations, execName, makeExecutable);
+        if (wrapper == null) {
             listener.fatalError("The Gradle wrapper has not been found in these directories: %s", Joiner.on(", ").join(possibleWrapperLocations));
+            return null;
         }
-        return gradleWrapperFile;
+        if (wrapper.getGradleVersion() != null) {
+            new GradleLogger(listener).info("Using the Gradle wrapper " + wrapper.getRemote() + " with Gradle " + wrapper.getGradleVersion() + ".");
+        }
+        return new FilePath(possibleWrapperLocations.get(0).getChannel(), wrapper.getRemote());
     }
 
-    private FilePath getNormalizedRootBuildScriptDir(AbstractBuild<?, ?> build, EnvVars env) {
+    private FilePath getNormalizedRootBuildScriptDir(FilePath moduleRoot, EnvVars env) {
         FilePath normalizedRootBuildScriptDir = null;
         if (rootBuildScriptDir != null && rootBuildScriptDir.trim().length() != 0) {
-            String rootBuildScriptNormalized = replaceWhitespaceBySpace(rootBuildScriptDir.trim());
+            String rootBuildScriptNormalized = GradleArguments.replaceWhitespaceBySpace(rootBuildScriptDir.trim());
             rootBuildScriptNormalized = env.expand(rootBuildScriptNormalized.trim());
-            normalizedRootBuildScriptDir = new FilePath(build.getModuleRoot(), rootBuildScriptNormalized);
+            normalizedRootBuildScriptDir = new FilePath(moduleRoot, rootBuildScriptNormalized);
         }
         return normalizedRootBuildScriptDir;
     }
 
-    private String getNormalized(String args, EnvVars env, String contributingEnvironmentVariable) {
-        String extraArgs = env.get(contributingEnvironmentVariable);
-        String normalizedArgs = append(args, extraArgs);
-        normalizedArgs = replaceWhitespaceBySpace(normalizedArgs);
-        normalizedArgs = env.expand(normalizedArgs);
-        return normalizedArgs;
-    }
-
-    private String replaceWhitespaceBySpace(String argument) {
-        return argument.replaceAll("[\t\r\n]+", " ");
+    /**
+     * The switches, tasks and properties of the configuration, which are parsed again only when it changes.
+     */
+    private GradleArguments getArguments() throws IOException {
+        GradleArguments current = arguments;
+        if (current == null || !current.isFor(switches, tasks, systemProperties, projectProperties)) {
+            current = new GradleArguments(switches, tasks, systemProperties, projectProperties);
+            arguments = current;
+        }
+        return current;
     }
 
-    private List<FilePath> getPossibleWrapperLocations(AbstractBuild<?, ?> build, Launcher launcher, EnvVars env, FilePath normalizedRootBuildScriptDir) throws IOException, InterruptedException {
-        FilePath moduleRoot = build.getModuleRoot();
+    private List<FilePath> getPossibleWrapperLocations(FilePath moduleRoot, EnvVars env, FilePath normalizedRootBuildScriptDir) throws IOException, InterruptedException {
         if (wrapperLocation != null && wrapperLocation.trim().length() != 0) {
             // Override with provided relative path to gradlew
             String wrapperLocationNormalized = wrapperLocation.trim().replaceAll("[\t\r\n]+", "");
@@ -473,6 +1035,7 @@ public class Gradle extends Builder implements DryRun {
 
         public void setInstallations(GradleInstallation... installations) {
             this.installations = installations;
+            GradleInstallationCache.get().invalidate();
             save();
         }
     }
@@ -0,0 +1,225 @@
+package hudson.plugins.gradle;
+
+import hudson.EnvVars;
+import hudson.Util;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The switches, tasks and properties of a {@link Gradle} step, parsed once per configuration, so that a build only
+ * substitutes the variables.
+ *
+ * Variables are substituted like {@link EnvVars#expand(String)} does: {@code $VAR} and {@code ${VAR}} are replaced by
+ * their values, unknown variables are kept and {@code $$} stands for {@code $}. Substituted values are not expanded
+ * again. Properties are parsed before their variables are substituted, so a value containing a line break stays a
+ * single property.
+ */
+final class GradleArguments {
+
+    private final String switches;
+    private final String tasks;
+    private final String systemProperties;
+    private final String projectProperties;
+
+    private final Template switchesTemplate;
+    private final Template tasksTemplate;
+    private final List<Template[]> systemPropertyTemplates;
+    private final List<Template[]> projectPropertyTemplates;
+
+    GradleArguments(String switches, String tasks, String systemProperties, String projectProperties)
+            throws IOException {
+        this.switches = switches;
+        this.tasks = tasks;
+        this.systemProperties = systemProperties;
+        this.projectProperties = projectProperties;
+        this.switchesTemplate = Template.parse(replaceWhitespaceBySpace(Util.fixNull(switches)));
+        this.tasksTemplate = Template.parse(replaceWhitespaceBySpace(Util.fixNull(tasks)));
+        this.systemPropertyTemplates = parseProperties(systemProperties);
+        this.projectPropertyTemplates = parseProperties(projectProperties);
+    }
+
+    /**
+     * Whether the arguments have been parsed from the given configuration.
+     */
+    boolean isFor(String switches, String tasks, String systemProperties, String projectProperties) {
+        return equal(this.switches, switches) && equal(this.tasks, tasks)
+                && equal(this.systemProperties, systemProperties) && equal(this.projectProperties, projectProperties);
+    }
+
+    String getSwitches(EnvVars env) {
+        return normalize(switchesTemplate, env, "GRADLE_EXT_SWITCHES");
+    }
+
+    String getTasks(EnvVars env) {
+        return normalize(tasksTemplate, env, "GRADLE_EXT_TASKS");
+    }
+
+    /**
+     * The system properties with their variables substituted.
+     */
+    Map<String, String> getSystemProperties(EnvVars env) {
+        return expandProperties(systemPropertyTemplates, env);
+    }
+
+    /**
+     * The project properties with their variables substituted.
+     */
+    Map<String, String> getProjectProperties(EnvVars env) {
+        return expandProperties(projectPropertyTemplates, env);
+    }
+
+    private static String normalize(Template template, EnvVars env, String contributingEnvironmentVariable) {
+        String expanded = template.expand(env);
+        String extraArgs = env.get(contributingEnvironmentVariable);
+        if (extraArgs == null || extraArgs.trim().isEmpty()) {
+            return expanded;
+        }
+        String extra = Template.parse(replaceWhitespaceBySpace(extraArgs)).expand(env);
+        return expanded.trim().isEmpty() ? extra : expanded + " " + extra;
+    }
+
+    private static List<Template[]> parseProperties(String properties) throws IOException {
+        if (properties == null) {
+            return Collections.emptyList();
+        }
+        List<Template[]> templates = new ArrayList<Template[]>();
+        for (Map.Entry<Object, Object> entry : Util.loadProperties(properties).entrySet()) {
+            templates.add(new Template[]{Template.parse((String) entry.getKey()), Template.parse((String) entry.getValue())});
+        }
+        return templates;
+    }
+
+    private static Map<String, String> expandProperties(List<Template[]> templates, EnvVars env) {
+        Map<String, String> properties = new LinkedHashMap<String, String>();
+        for (Template[] property : templates) {
+            properties.put(property[0].expand(env), property[1].expand(env));
+        }
+        return properties;
+    }
+
+    /**
+     * Replaces tabs and line breaks by spaces, without a regex.
+     */
+    static String replaceWhitespaceBySpace(String argument) {
+        StringBuilder replaced = null;
+        boolean inRun = false;
+        for (int i = 0; i < argument.length(); i++) {
+            char c = argument.charAt(i);
+            boolean whitespace = c == '\t' || c == '\r' || c == '\n';
+            if (whitespace && replaced == null) {
+                replaced = new StringBuilder(argument.length()).append(argument, 0, i);
+            }
+            if (replaced != null) {
+                if (!whitespace) {
+                    replaced.append(c);
+                } else if (!inRun) {
+                    replaced.append(' ');
+                }
+            }
+            inRun = whitespace;
+        }
+        return replaced == null ? argument : replaced.toString();
+    }
+
+    private static boolean equal(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    /**
+     * A text split into literal parts and variables.
+     */
+    static final class Template {
+
+        /** Literal texts at even and variables, as written, at odd indexes. */
+        private final String[] parts;
+        /** The names of the variables at odd indexes. */
+        private final String[] names;
+        /** The length of the text without the variables, to size the result. */
+        private final int literalLength;
+
+        private Template(String[] parts, String[] names) {
+            this.parts = parts;
+            this.names = names;
+            int length = 0;
+            for (int i = 0; i < parts.length; i += 2) {
+                length += parts[i].length();
+            }
+            this.literalLength = length;
+        }
+
+        static Template parse(String text) {
+            List<String> parts = new ArrayList<String>();
+            List<String> names = new ArrayList<String>();
+            StringBuilder literal = new StringBuilder();
+            int i = 0;
+            while (i < text.length()) {
+                char c = text.charAt(i);
+                if (c != '$' || i + 1 == text.length()) {
+                    literal.append(c);
+                    i++;
+                    continue;
+                }
+                char next = text.charAt(i + 1);
+                int end = i + 1;
+                String name = null;
+                if (next == '$') {
+                    literal.append('$');
+                    i += 2;
+                    continue;
+                } else if (next == '{') {
+                    end = i + 2;
+                    while (end < text.length() && (isNameChar(text.charAt(end)) || text.charAt(end) == '.')) {
+                        end++;
+                    }
+                    if (end > i + 2 && end < text.length() && text.charAt(end) == '}') {
+                        name = text.substring(i + 2, end);
+                        end++;
+                    }
+                } else {
+                    while (end < text.length() && isNameChar(text.charAt(end))) {
+                        end++;
+                    }
+                    if (end > i + 1) {
+                        name = text.substring(i + 1, end);
+                    }
+                }
+                if (name == null) {
+                    literal.append(c);
+                    i++;
+                    continue;
+                }
+                parts.add(literal.toString());
+                names.add(null);
+                literal.setLength(0);
+                parts.add(text.substring(i, end));
+                names.add(name);
+                i = end;
+            }
+            parts.add(literal.toString());
+            names.add(null);
+            return new Template(parts.toArray(new String[parts.size()]), names.toArray(new String[names.size()]));
+        }
+
+        private static boolean isNameChar(char c) {
+            return c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c >= '0' && c <= '9' || c == '_';
+        }
+
+        String expand(Map<String, String> variables) {
+            if (parts.length == 1) {
+                return parts[0];
+            }
+            StringBuilder expanded = new StringBuilder(literalLength + 16 * (parts.length / 2));
+            for (int i = 0; i < parts.length; i++) {
+                String value = i % 2 == 0 ? null : variables.get(names[i]);
+                // Unknown variables are kept as written
+                expanded.append(value != null ? value : parts[i]);
+            }
+            return expanded.toString();
+        }
+    }
+}
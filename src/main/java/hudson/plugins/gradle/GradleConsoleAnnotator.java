@@ -1,54 +1,327 @@
 package hudson.plugins.gradle;
 
 import hudson.console.LineTransformationOutputStream;
+import org.apache.commons.io.output.CountingOutputStream;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
-import java.util.regex.Pattern;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
 
 /**
+ * Annotates the Gradle console output.
+ *
+ * Lines are matched on their raw bytes, which is equivalent to matching the decoded text for any ASCII-compatible
+ * charset. Apart from task names, only the build scan URL following a build scan marker is decoded.
+ * The tasks seen in the output are recorded as {@link TaskExecutions} and {@link TaskOutcomeCounts}, and the
+ * parts of the output explaining a build failure as {@link FailureIndex}. Secrets given by
+ * {@link #setMaskedValues(Collection)} are replaced by {@code ****} before a line is matched or written.
+ *
  * @author ikikko
  * @see <a href="https://github.com/jenkinsci/ant-plugin/blob/master/src/main/java/hudson/tasks/_ant/AntConsoleAnnotator.java">AntConsoleAnnotator</a>
  */
 public class GradleConsoleAnnotator extends LineTransformationOutputStream {
 
-    private static final Pattern BUILD_SCAN_REGEX = Pattern.compile("Publishing (build scan|build information)\\.\\.\\.");
+    private static final byte[] BUILD_SUCCESSFUL = ascii("BUILD SUCCESSFUL");
+    private static final byte[] BUILD_FAILED = ascii("BUILD FAILED");
+    private static final byte[] TASK_FAILED = ascii(" FAILED");
+    private static final byte[] WHAT_WENT_WRONG = ascii("* What went wrong:");
+    private static final byte[] PUBLISHING_BUILD_SCAN = ascii("Publishing build scan...");
+    private static final byte[] PUBLISHING_BUILD_INFORMATION = ascii("Publishing build information...");
+    private static final byte[] HTTP = ascii("http://");
+    private static final byte[] HTTPS = ascii("https://");
+    private static final byte[] MASK = ascii("****");
 
-    private final OutputStream out;
+    private final CountingOutputStream out;
     private final Charset charset;
+    private final long logOffset;
+    private final TaskExecutions.Recorder taskRecorder;
+    private final TaskOutcomeCounts taskOutcomeCounts = new TaskOutcomeCounts();
+    private boolean recordTasks = true;
+    private boolean writeNotes = true;
+    private byte[][] maskedValues = new byte[0][];
     private boolean nextLineIsBuildScan;
-    private String scanUrl;
+    private final List<String> scanUrls = new ArrayList<String>();
+    private final FailureIndex failureIndex = new FailureIndex();
+    /** The log position of the {@code * What went wrong:} block being written, or -1. */
+    private long whatWentWrongStart = -1;
 
     public GradleConsoleAnnotator(OutputStream out, Charset charset) {
-        this.out = out;
+        this(out, charset, 0);
+    }
+
+    /**
+     * @param logOffset the number of bytes in the build log before the Gradle output starts, or -1 if the output
+     *                  does not go straight to the end of the log, in which case no failures are indexed
+     */
+    public GradleConsoleAnnotator(OutputStream out, Charset charset, long logOffset) {
+        this(out, charset, logOffset, new TaskExecutions());
+    }
+
+    /**
+     * @param logOffset the number of bytes in the build log before the Gradle output starts, or -1
+     * @param taskExecutions where to record the tasks while they run, e.g. those shown by a running build, next to
+     *                       those of other steps
+     */
+    public GradleConsoleAnnotator(OutputStream out, Charset charset, long logOffset, TaskExecutions taskExecutions) {
+        this(out, charset, logOffset, taskExecutions.newRecorder());
+    }
+
+    /**
+     * @param logOffset the number of bytes in the build log before the Gradle output starts, or -1
+     * @param taskRecorder where to record the tasks, e.g. for a step numbered on the Jenkins master
+     */
+    public GradleConsoleAnnotator(OutputStream out, Charset charset, long logOffset,
+                                  TaskExecutions.Recorder taskRecorder) {
+        this.out = new CountingOutputStream(out);
         this.charset = charset;
+        this.logOffset = logOffset;
+        this.taskRecorder = taskRecorder;
     }
 
     @Override
     protected void eol(byte[] b, int len) throws IOException {
-        String line = charset.decode(ByteBuffer.wrap(b, 0, len)).toString();
-
+        if (maskedValues.length > 0) {
+            byte[] masked = mask(b, len);
+            if (masked != null) {
+                b = masked;
+                len = masked.length;
+            }
+        }
         // trim off CR/LF from the end
-        line = trimEOL(line);
+        int lineLength = trimEOL(b, len);
+        long lineStart = getLogPosition();
+        boolean failedTask = false;
 
-        if (line.startsWith(":"))
+        if (lineLength > 0 && b[0] == ':') {
+            String anchor = recordTasks ? recordTask(b, lineLength) : null;
+            failedTask = endsWith(b, lineLength, TASK_FAILED);
             // put the annotation
-            new GradleTaskNote().encodeTo(out);
+            if (writeNotes) {
+                new GradleTaskNote(anchor).encodeTo(out);
+            }
+        }
 
-        if (line.equals("BUILD SUCCESSFUL") || line.equals("BUILD FAILED"))
-            new GradleOutcomeNote().encodeTo(out);
+        boolean buildFailed = lineEquals(b, lineLength, BUILD_FAILED);
+        if (buildFailed || lineEquals(b, lineLength, BUILD_SUCCESSFUL)) {
+            if (writeNotes) {
+                new GradleOutcomeNote().encodeTo(out);
+            }
+            taskRecorder.finish(System.currentTimeMillis());
+        }
+
+        // The block ends with the next section, like "* Try:", or with the outcome
+        if (whatWentWrongStart >= 0 && (buildFailed || lineLength > 1 && b[0] == '*' && b[1] == ' ')) {
+            failureIndex.add(FailureIndex.Kind.WHAT_WENT_WRONG, whatWentWrongStart, lineStart);
+            whatWentWrongStart = -1;
+        }
+        if (lineStart >= 0 && lineEquals(b, lineLength, WHAT_WENT_WRONG)) {
+            whatWentWrongStart = lineStart;
+        }
 
         if (nextLineIsBuildScan) {
-            scanUrl = line;
+            if (isScanUrl(b, lineLength)) {
+                scanUrls.add(charset.decode(ByteBuffer.wrap(b, 0, lineLength)).toString());
+            }
             nextLineIsBuildScan = false;
         }
-        if (BUILD_SCAN_REGEX.matcher(line).matches()) {
+        if (lineEquals(b, lineLength, PUBLISHING_BUILD_SCAN) || lineEquals(b, lineLength, PUBLISHING_BUILD_INFORMATION)) {
             nextLineIsBuildScan = true;
         }
 
         out.write(b, 0, len);
+
+        if (lineStart < 0) {
+            return;
+        }
+        if (failedTask) {
+            failureIndex.add(FailureIndex.Kind.FAILED_TASK, lineStart, getLogPosition());
+        }
+        if (buildFailed) {
+            failureIndex.add(FailureIndex.Kind.OUTCOME, lineStart, getLogPosition());
+        }
+    }
+
+    /**
+     * Records a task header of the form {@code :path[ STATUS]}, and returns the anchor of the task, or {@code null} if
+     * the line is no task header.
+     */
+    private String recordTask(byte[] b, int len) {
+        int nameEnd = 1;
+        while (nameEnd < len && !isWhitespace(b[nameEnd])) {
+            nameEnd++;
+        }
+        if (nameEnd == 1 || b[1] == ':') {
+            return null;
+        }
+        int statusStart = nameEnd;
+        while (statusStart < len && isWhitespace(b[statusStart])) {
+            statusStart++;
+        }
+        int statusEnd = statusStart;
+        while (statusEnd < len && !isWhitespace(b[statusEnd])) {
+            statusEnd++;
+        }
+        String name = new String(b, 1, nameEnd - 1, charset);
+        TaskOutcome outcome = TaskOutcome.forProgressStatus(b, statusStart, statusEnd);
+        taskOutcomeCounts.increment(outcome);
+        return taskRecorder.taskStarted(name, outcome, System.currentTimeMillis(), getLogPosition());
+    }
+
+    /**
+     * Turns off recording the task headers seen in the output, for builds which report their tasks otherwise.
+     */
+    public void setRecordTasks(boolean recordTasks) {
+        this.recordTasks = recordTasks;
+    }
+
+    /**
+     * Turns off the console notes, for output annotated where notes can't be encoded, see
+     * {@link Gradle#canEncodeNotesOn(hudson.FilePath)}. The tasks and failures are recorded all the same.
+     */
+    public void setWriteNotes(boolean writeNotes) {
+        this.writeNotes = writeNotes;
+    }
+
+    /**
+     * Replaces the given values, like the token of the build cache in its URL, by {@code ****} in the output.
+     */
+    public void setMaskedValues(Collection<String> values) {
+        List<byte[]> encoded = new ArrayList<byte[]>();
+        for (String value : values) {
+            if (!value.isEmpty()) {
+                encoded.add(value.getBytes(charset));
+            }
+        }
+        maskedValues = encoded.toArray(new byte[encoded.size()][]);
+    }
+
+    /**
+     * Returns the line with the masked values replaced, or {@code null} if it contains none of them.
+     */
+    private byte[] mask(byte[] b, int len) {
+        ByteArrayOutputStream masked = null;
+        int written = 0;
+        int i = 0;
+        while (i < len) {
+            byte[] value = valueAt(b, len, i);
+            if (value == null) {
+                i++;
+                continue;
+            }
+            if (masked == null) {
+                masked = new ByteArrayOutputStream(len);
+            }
+            masked.write(b, written, i - written);
+            masked.write(MASK, 0, MASK.length);
+            i += value.length;
+            written = i;
+        }
+        if (masked == null) {
+            return null;
+        }
+        masked.write(b, written, len - written);
+        return masked.toByteArray();
+    }
+
+    private byte[] valueAt(byte[] b, int len, int start) {
+        values:
+        for (byte[] value : maskedValues) {
+            if (len - start < value.length) {
+                continue;
+            }
+            for (int i = 0; i < value.length; i++) {
+                if (b[start + i] != value[i]) {
+                    continue values;
+                }
+            }
+            return value;
+        }
+        return null;
+    }
+
+    /**
+     * The position in the build log up to which output has been written, or -1 if it is not known.
+     */
+    long getLogPosition() {
+        return logOffset < 0 ? -1 : logOffset + out.getByteCount();
+    }
+
+    /**
+     * Build scans are published to a URL like {@code https://gradle.com/s/<id>}, which is printed on a line of its own
+     * after the build scan marker.
+     */
+    private static boolean isScanUrl(byte[] b, int len) {
+        int start = startsWith(b, len, HTTPS) ? HTTPS.length : startsWith(b, len, HTTP) ? HTTP.length : -1;
+        if (start < 0) {
+            return false;
+        }
+        int lastSlash = -1;
+        for (int i = start; i < len; i++) {
+            if (isWhitespace(b[i])) {
+                return false;
+            }
+            if (b[i] == '/') {
+                lastSlash = i;
+            }
+        }
+        // The path ends with /s/<id>, after a non-empty host
+        return lastSlash > start + 2 && lastSlash < len - 1 && b[lastSlash - 1] == 's' && b[lastSlash - 2] == '/';
+    }
+
+    private static boolean endsWith(byte[] b, int len, byte[] suffix) {
+        if (len < suffix.length) {
+            return false;
+        }
+        for (int i = 0; i < suffix.length; i++) {
+            if (b[len - suffix.length + i] != suffix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean startsWith(byte[] b, int len, byte[] prefix) {
+        if (len < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (b[i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\t';
+    }
+
+    private static int trimEOL(byte[] b, int len) {
+        while (len > 0 && (b[len - 1] == '\n' || b[len - 1] == '\r')) {
+            len--;
+        }
+        return len;
+    }
+
+    private static boolean lineEquals(byte[] b, int len, byte[] expected) {
+        if (len != expected.length) {
+            return false;
+        }
+        for (int i = 0; i < len; i++) {
+            if (b[i] != expected[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static byte[] ascii(String text) {
+        return text.getBytes(Charset.forName("US-ASCII"));
     }
 
     @Override
@@ -57,7 +330,55 @@ public class GradleConsoleAnnotator extends LineTransformationOutputStream {
         out.close();
     }
 
+    /**
+     * The URL of the first build scan, like {@link BuildScanAction#getScanUrl()}, or {@code null} if no build scan has
+     * been published.
+     */
     public String getScanUrl() {
-        return scanUrl;
+        return scanUrls.isEmpty() ? null : scanUrls.get(0);
+    }
+
+    /**
+     * The URLs of all build scans, in the order in which they were published.
+     */
+    public List<String> getScanUrls() {
+        return scanUrls;
+    }
+
+    public TaskExecutions getTaskExecutions() {
+        return taskRecorder.getTaskExecutions();
+    }
+
+    /**
+     * Where the tasks of this build are recorded, for builds which report their tasks otherwise.
+     */
+    public TaskExecutions.Recorder getTaskRecorder() {
+        return taskRecorder;
+    }
+
+    public TaskOutcomeCounts getTaskOutcomeCounts() {
+        return taskOutcomeCounts;
+    }
+
+    /**
+     * Annotates the last line, even without a line break, and ends what Gradle left open: a
+     * {@code * What went wrong:} block still being written ends at the current position, and the running tasks end
+     * now.
+     */
+    public void finish() throws IOException {
+        forceEol();
+        if (whatWentWrongStart >= 0) {
+            failureIndex.add(FailureIndex.Kind.WHAT_WENT_WRONG, whatWentWrongStart, getLogPosition());
+            whatWentWrongStart = -1;
+        }
+        taskRecorder.finish(System.currentTimeMillis());
+    }
+
+    /**
+     * The parts of the log explaining a build failure, complete once {@link #finish()} has been called. Empty if the
+     * position of the output in the log is not known.
+     */
+    public FailureIndex getFailureIndex() {
+        return failureIndex;
     }
 }
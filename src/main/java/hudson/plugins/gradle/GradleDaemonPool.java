@@ -0,0 +1,231 @@
+package hudson.plugins.gradle;
+
+import hudson.EnvVars;
+import hudson.FilePath;
+import hudson.Launcher;
+import hudson.Util;
+import hudson.model.Node;
+import hudson.model.TaskListener;
+import hudson.util.ArgumentListBuilder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Keeps a bounded pool of warm Gradle daemons on each node.
+ *
+ * Builds using the pool run Gradle with the daemon enabled and with a daemon registry which is shared by all
+ * builds on the node using the same Gradle executable, JVM arguments and {@code GRADLE_USER_HOME}. Gradle then
+ * connects to an idle, compatible daemon from that registry instead of starting a new JVM.
+ * Daemons stop by themselves after the idle timeout. When a node holds more daemons or more daemon heap than
+ * allowed, the least recently used daemons which are not busy are stopped before the next build starts.
+ */
+public class GradleDaemonPool {
+
+    private static final Logger LOGGER = Logger.getLogger(GradleDaemonPool.class.getName());
+
+    /** Maximum number of pooled daemons per node. */
+    static int MAX_DAEMONS = Integer.getInteger(GradleDaemonPool.class.getName() + ".maxDaemons", 4);
+    /** Pooled daemons stop after being idle for this many minutes. */
+    static int IDLE_TIMEOUT_MINUTES = Integer.getInteger(GradleDaemonPool.class.getName() + ".idleTimeoutMinutes", 30);
+    /** Maximum heap of all pooled daemons on a node, in megabytes. */
+    static int MAX_MEMORY_MB = Integer.getInteger(GradleDaemonPool.class.getName() + ".maxMemoryMb", 4096);
+
+    private static final int DEFAULT_DAEMON_HEAP_MB = 512;
+    private static final String JVM_ARGS_PROPERTY = "-Dorg.gradle.jvmargs=";
+    private static final Pattern MAX_HEAP = Pattern.compile("-Xmx(\\d+)([kKmMgG]?)");
+
+    private static final GradleDaemonPool INSTANCE = new GradleDaemonPool();
+
+    /** Pooled daemons by registry directory, per node name, least recently used first. */
+    private final Map<String, LinkedHashMap<String, Daemons>> nodes = new HashMap<String, LinkedHashMap<String, Daemons>>();
+
+    public static GradleDaemonPool get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Leases the daemons for a build, stopping other daemons on the node if that is necessary to stay within
+     * the limits of the pool.
+     *
+     * @param switches the switches passed to Gradle, used to find the JVM arguments of the daemon
+     */
+    public Lease lease(Node node, Launcher launcher, String executable, String switches, EnvVars env,
+                       TaskListener listener) throws IOException, InterruptedException {
+        FilePath rootPath = node.getRootPath();
+        if (rootPath == null) {
+            throw new IOException("Node " + node.getDisplayName() + " is offline");
+        }
+        String jvmArgs = findJvmArgs(switches);
+        String userHome = Util.fixNull(env.get("GRADLE_USER_HOME"));
+        String key = Util.getDigestOf(executable + '\n' + jvmArgs + '\n' + userHome).substring(0, 12);
+        String registry = rootPath.child("gradle-daemons").child(key).getRemote();
+
+        List<Daemons> evicted;
+        Daemons daemons;
+        synchronized (this) {
+            LinkedHashMap<String, Daemons> pool = nodes.get(node.getNodeName());
+            if (pool == null) {
+                pool = new LinkedHashMap<String, Daemons>(16, 0.75f, true);
+                nodes.put(node.getNodeName(), pool);
+            }
+            daemons = pool.get(registry);
+            if (daemons == null) {
+                daemons = new Daemons(registry, executable, env, parseHeapMb(jvmArgs));
+                pool.put(registry, daemons);
+            }
+            daemons.acquire();
+            evicted = evict(pool);
+        }
+
+        GradleLogger gradleLogger = new GradleLogger(listener);
+        for (Daemons d : evicted) {
+            gradleLogger.info("Stopping Gradle daemons in " + d.registry + " to stay within the limits of the daemon pool.");
+            d.stop(launcher, listener);
+        }
+        gradleLogger.info("Using the Gradle daemon pool in " + registry + ".");
+        return new Lease(this, daemons);
+    }
+
+    /**
+     * Removes daemons which stopped by themselves and chooses the least recently used daemons to stop
+     * while the pool exceeds its limits.
+     */
+    private static List<Daemons> evict(LinkedHashMap<String, Daemons> pool) {
+        long now = System.currentTimeMillis();
+        long idleTimeout = TimeUnit.MINUTES.toMillis(IDLE_TIMEOUT_MINUTES);
+        int daemonCount = 0;
+        int heapMb = 0;
+        for (Iterator<Daemons> it = pool.values().iterator(); it.hasNext(); ) {
+            Daemons daemons = it.next();
+            if (daemons.inUse == 0 && now - daemons.lastUsed > idleTimeout) {
+                it.remove();
+            } else {
+                daemonCount += daemons.count;
+                heapMb += daemons.count * daemons.heapMb;
+            }
+        }
+
+        List<Daemons> evicted = new ArrayList<Daemons>();
+        for (Iterator<Daemons> it = pool.values().iterator(); it.hasNext()
+                && (daemonCount > MAX_DAEMONS || heapMb > MAX_MEMORY_MB); ) {
+            Daemons daemons = it.next();
+            if (daemons.inUse == 0) {
+                it.remove();
+                evicted.add(daemons);
+                daemonCount -= daemons.count;
+                heapMb -= daemons.count * daemons.heapMb;
+            }
+        }
+        return evicted;
+    }
+
+    private synchronized void release(Daemons daemons) {
+        daemons.inUse--;
+        daemons.lastUsed = System.currentTimeMillis();
+    }
+
+    static String findJvmArgs(String switches) {
+        for (String token : Util.tokenize(Util.fixNull(switches))) {
+            if (token.startsWith(JVM_ARGS_PROPERTY)) {
+                return token.substring(JVM_ARGS_PROPERTY.length());
+            }
+        }
+        return "";
+    }
+
+    static int parseHeapMb(String jvmArgs) {
+        Matcher matcher = MAX_HEAP.matcher(jvmArgs);
+        int heapMb = DEFAULT_DAEMON_HEAP_MB;
+        while (matcher.find()) {
+            long value = Long.parseLong(matcher.group(1));
+            String unit = matcher.group(2).toLowerCase();
+            if (unit.equals("g")) {
+                value *= 1024;
+            } else if (unit.equals("k")) {
+                value /= 1024;
+            } else if (unit.isEmpty()) {
+                value /= 1024 * 1024;
+            }
+            heapMb = (int) Math.max(1, value);
+        }
+        return heapMb;
+    }
+
+    /**
+     * The daemons sharing one registry on a node.
+     */
+    private static final class Daemons {
+        private final String registry;
+        private final String executable;
+        private final EnvVars env;
+        private final int heapMb;
+        /** The number of daemons, i.e. the maximum number of builds which used the registry at the same time. */
+        private int count;
+        private int inUse;
+        private long lastUsed;
+
+        Daemons(String registry, String executable, EnvVars env, int heapMb) {
+            this.registry = registry;
+            this.executable = executable;
+            this.env = new EnvVars(env);
+            this.heapMb = heapMb;
+        }
+
+        void acquire() {
+            inUse++;
+            count = Math.max(count, inUse);
+            lastUsed = System.currentTimeMillis();
+        }
+
+        void stop(Launcher launcher, TaskListener listener) throws InterruptedException {
+            ArgumentListBuilder args = new ArgumentListBuilder(executable, "--stop", "-Dorg.gradle.daemon.registry.base=" + registry);
+            if (!launcher.isUnix()) {
+                args = args.toWindowsCommand();
+            }
+            try {
+                launcher.launch().cmds(args).envs(env).stdout(listener).join();
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Failed to stop Gradle daemons in " + registry, e);
+            }
+        }
+    }
+
+    /**
+     * The daemons used by a single build.
+     */
+    public static final class Lease {
+        private final GradleDaemonPool pool;
+        private final Daemons daemons;
+
+        private Lease(GradleDaemonPool pool, Daemons daemons) {
+            this.pool = pool;
+            this.daemons = daemons;
+        }
+
+        /**
+         * The switches which make Gradle use the pooled daemons.
+         */
+        public List<String> getSwitches() {
+            List<String> switches = new ArrayList<String>();
+            switches.add("--daemon");
+            switches.add("-Dorg.gradle.daemon.registry.base=" + daemons.registry);
+            switches.add("-Dorg.gradle.daemon.idletimeout=" + TimeUnit.MINUTES.toMillis(IDLE_TIMEOUT_MINUTES));
+            return switches;
+        }
+
+        public void release() {
+            pool.release(daemons);
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package hudson.plugins.gradle;
+
+import hudson.Extension;
+import hudson.Launcher;
+import hudson.model.Computer;
+import hudson.model.Node;
+import hudson.model.TaskListener;
+import hudson.slaves.ComputerListener;
+import hudson.slaves.OfflineCause;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Remembers the Gradle installations translated for each node, and their executables.
+ *
+ * Translating an installation for a node runs its installers, and finding the executable checks for the file on the
+ * node. Both need the agent, although the result rarely changes. The cache is cleared when the Gradle installations
+ * are reconfigured, and the entries of a node when it goes online or offline, or when the nodes are reconfigured.
+ */
+public final class GradleInstallationCache {
+
+    private static final GradleInstallationCache INSTANCE = new GradleInstallationCache();
+
+    /** Translated homes, by node name, installation name and configured home. */
+    private final ConcurrentMap<String, String> homes = new ConcurrentHashMap<String, String>();
+    /** Executables, by node name and home. */
+    private final ConcurrentMap<String, String> executables = new ConcurrentHashMap<String, String>();
+
+    public static GradleInstallationCache get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Same as {@link GradleInstallation#forNode(Node, TaskListener)}, but only translates the installation
+     * the first time it is used on the node.
+     */
+    public GradleInstallation forNode(GradleInstallation installation, Node node, TaskListener listener)
+            throws IOException, InterruptedException {
+        String key = key(node, installation.getName() + '\n' + installation.getHome());
+        String home = homes.get(key);
+        if (home == null) {
+            GradleInstallation translated = installation.forNode(node, listener);
+            homes.put(key, translated.getHome());
+            return translated;
+        }
+        return new GradleInstallation(installation.getName(), home, installation.getProperties().toList());
+    }
+
+    /**
+     * Same as {@link GradleInstallation#getExecutable(Launcher)} for an installation translated for {@code node},
+     * but only checks for the executable until it has been found once.
+     */
+    public String getExecutable(GradleInstallation installation, Node node, Launcher launcher)
+            throws IOException, InterruptedException {
+        String key = key(node, installation.getHome());
+        String executable = executables.get(key);
+        if (executable == null) {
+            executable = installation.getExecutable(launcher);
+            if (executable != null) {
+                executables.put(key, executable);
+            }
+        }
+        return executable;
+    }
+
+    public void invalidate() {
+        homes.clear();
+        executables.clear();
+    }
+
+    public void invalidate(String nodeName) {
+        String prefix = nodeName + '\n';
+        invalidate(homes, prefix);
+        invalidate(executables, prefix);
+    }
+
+    private static void invalidate(ConcurrentMap<String, String> cache, String prefix) {
+        for (Iterator<String> it = cache.keySet().iterator(); it.hasNext(); ) {
+            if (it.next().startsWith(prefix)) {
+                it.remove();
+            }
+        }
+    }
+
+    private static String key(Node node, String value) {
+        return node.getNodeName() + '\n' + value;
+    }
+
+    @Extension
+    public static class ComputerListenerImpl extends ComputerListener {
+        @Override
+        public void onOnline(Computer c, TaskListener listener) {
+            get().invalidate(c.getName());
+        }
+
+        @Override
+        public void onOffline(Computer c, OfflineCause cause) {
+            get().invalidate(c.getName());
+        }
+
+        @Override
+        public void onConfigurationChange() {
+            get().invalidate();
+        }
+    }
+}
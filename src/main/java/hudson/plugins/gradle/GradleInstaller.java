@@ -1,19 +1,170 @@
 package hudson.plugins.gradle;
 
 import hudson.Extension;
+import hudson.FilePath;
+import hudson.model.Node;
+import hudson.model.TaskListener;
+import hudson.remoting.RemoteInputStream;
+import hudson.remoting.VirtualChannel;
 import hudson.tools.DownloadFromUrlInstaller;
 import hudson.tools.ToolInstallation;
+import jenkins.MasterToSlaveFileCallable;
 import org.kohsuke.stapler.DataBoundConstructor;
 
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
 /**
+ * Installs Gradle from the distribution archives on gradle.org.
+ *
+ * The archives are downloaded once into the {@link DistributionArchiveCache} on the master and streamed to the nodes
+ * from there, where they are unpacked while they arrive. Installations of the same tool on the same node, e.g. by concurrent builds, wait for each other.
+ *
  * @author Kohsuke Kawaguchi
  */
 public class GradleInstaller extends DownloadFromUrlInstaller {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /** Locks for installations in progress, by node name and installation directory. */
+    private static final ConcurrentMap<String, Object> INSTALL_LOCKS = new ConcurrentHashMap<String, Object>();
+
     @DataBoundConstructor
     public GradleInstaller(String id) {
         super(id);
     }
 
+    @Override
+    public FilePath performInstallation(ToolInstallation tool, Node node, TaskListener log)
+            throws IOException, InterruptedException {
+        Installable inst = getInstallable();
+        if (inst == null) {
+            return super.performInstallation(tool, node, log);
+        }
+        FilePath expected = preferredLocation(tool, node);
+        if (isUpToDate(expected, inst)) {
+            return expected;
+        }
+
+        synchronized (installLock(node.getNodeName() + '\n' + expected.getRemote())) {
+            if (isUpToDate(expected, inst)) {
+                return expected;
+            }
+            File archive = DistributionArchiveCache.get().fetch(inst.url, new GradleLogger(log));
+            log.getLogger().println("Unpacking " + inst.url + " to " + expected + " on " + node.getDisplayName());
+            expected.deleteRecursive();
+            expected.mkdirs();
+            InputStream in = new FileInputStream(archive);
+            try {
+                expected.act(new StreamingUnzip(new RemoteInputStream(in, RemoteInputStream.Flag.GREEDY)));
+            } finally {
+                in.close();
+            }
+            FilePath base = findPullUpDirectory(expected);
+            if (base != null && !base.equals(expected)) {
+                base.moveAllChildrenTo(expected);
+            }
+            expected.act(new MakeScriptsExecutable());
+            // leave a record for the next up-to-date check
+            expected.child(".installedFrom").write(inst.url, "UTF-8");
+        }
+        return expected;
+    }
+
+    private static Object installLock(String key) {
+        Object lock = INSTALL_LOCKS.get(key);
+        if (lock == null) {
+            Object existing = INSTALL_LOCKS.putIfAbsent(key, lock = new Object());
+            if (existing != null) {
+                lock = existing;
+            }
+        }
+        return lock;
+    }
+
+    /**
+     * Unpacks a zip archive into a directory while reading it, without a temporary copy of the archive.
+     */
+    static final class StreamingUnzip extends MasterToSlaveFileCallable<Void> {
+        private static final long serialVersionUID = 1L;
+
+        private final InputStream archive;
+
+        StreamingUnzip(InputStream archive) {
+            this.archive = archive;
+        }
+
+        @Override
+        public Void invoke(File dir, VirtualChannel channel) throws IOException, InterruptedException {
+            String root = dir.getCanonicalPath() + File.separator;
+            ZipInputStream zip = new ZipInputStream(new BufferedInputStream(archive, BUFFER_SIZE));
+            try {
+                byte[] buffer = new byte[BUFFER_SIZE];
+                for (ZipEntry entry = zip.getNextEntry(); entry != null; entry = zip.getNextEntry()) {
+                    File file = new File(dir, entry.getName());
+                    if (!file.getCanonicalPath().startsWith(root)) {
+                        throw new IOException("Entry " + entry.getName() + " is outside of " + dir);
+                    }
+                    if (entry.isDirectory()) {
+                        mkdirs(file);
+                        continue;
+                    }
+                    mkdirs(file.getParentFile());
+                    OutputStream out = new FileOutputStream(file);
+                    try {
+                        for (int n = zip.read(buffer); n != -1; n = zip.read(buffer)) {
+                            out.write(buffer, 0, n);
+                        }
+                    } finally {
+                        out.close();
+                    }
+                    if (entry.getTime() != -1) {
+                        file.setLastModified(entry.getTime());
+                    }
+                }
+            } finally {
+                zip.close();
+            }
+            return null;
+        }
+
+        private static void mkdirs(File dir) throws IOException {
+            if (!dir.isDirectory() && !dir.mkdirs()) {
+                throw new IOException("Failed to create " + dir);
+            }
+        }
+    }
+
+    /**
+     * Makes the scripts in {@code bin} executable, since file modes are only stored in the central directory
+     * at the end of a zip archive, which is not read when unpacking a stream.
+     */
+    static final class MakeScriptsExecutable extends MasterToSlaveFileCallable<Void> {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public Void invoke(File home, VirtualChannel channel) throws IOException, InterruptedException {
+            File[] scripts = new File(home, "bin").listFiles();
+            if (scripts != null) {
+                for (File script : scripts) {
+                    if (script.isFile()) {
+                        script.setExecutable(true, false);
+                    }
+                }
+            }
+            return null;
+        }
+    }
+
     @Extension
     public static final class DescriptorImpl extends DownloadFromUrlInstaller.DescriptorImpl<GradleInstaller> {
         public String getDisplayName() {
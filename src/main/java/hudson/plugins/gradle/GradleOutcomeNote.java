@@ -41,10 +41,22 @@ public class GradleOutcomeNote extends ConsoleNote {
     @Override
     public ConsoleAnnotator annotate(Object context, MarkupText text,
                                      int charPos) {
-        if (text.getText().contains("FAIL"))
+        String line = text.getText();
+        boolean failure = false;
+        boolean success = false;
+        // look for both words in a single pass over the line
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c == 'F' && !failure) {
+                failure = line.startsWith("FAIL", i);
+            } else if (c == 'S' && !success) {
+                success = line.startsWith("SUCCESS", i);
+            }
+        }
+        if (failure)
             text.addMarkup(0, text.length(),
                     "<span class=gradle-outcome-failure>", "</span>");
-        if (text.getText().contains("SUCCESS"))
+        if (success)
             text.addMarkup(0, text.length(),
                     "<span class=gradle-outcome-success>", "</span>");
         return null;
@@ -1,23 +1,31 @@
 package hudson.plugins.gradle;
 
-import com.google.common.collect.ImmutableSet;
 import hudson.Extension;
 import hudson.MarkupText;
+import hudson.Util;
 import hudson.console.ConsoleAnnotationDescriptor;
 import hudson.console.ConsoleAnnotator;
 import hudson.console.ConsoleNote;
 
-import java.util.Collection;
-import java.util.regex.Pattern;
-
 public final class GradleTaskNote extends ConsoleNote {
 
-    private static final Collection<String> progressStatuses = ImmutableSet.of(
-            "UP-TO-DATE",
-            "SKIPPED",
-            "FROM-CACHE",
-            "NO-SOURCE"
-    );
+    /** As computed for the notes written before the anchor was added, which are still in the logs of old builds. */
+    private static final long serialVersionUID = 2524081427291938668L;
+
+    /** The name of the anchor of the task in the console, or {@code null}. */
+    private final String anchor;
+
+    public GradleTaskNote() {
+        this(null);
+    }
+
+    /**
+     * @param anchor the name by which the console outline links to the task header, see
+     *               {@link TaskExecutions#getAnchors(int, int)}, or {@code null}
+     */
+    public GradleTaskNote(String anchor) {
+        this.anchor = anchor;
+    }
 
     @Override
     public ConsoleAnnotator annotate(Object context, MarkupText text,
@@ -26,30 +34,43 @@ public final class GradleTaskNote extends ConsoleNote {
         if (!ENABLED)
             return null;
 
-        MarkupText.SubText t = text.findToken(Pattern
-                .compile("^:([^:]\\S*)(\\s*)(\\S*)"));
-        if (t == null) {
+        // Same as matching "^:([^:]\\S*)(\\s*)(\\S*)", without compiling or running a regex for every line
+        String line = text.getText();
+        int length = line.length();
+        if (length < 2 || line.charAt(0) != ':' || line.charAt(1) == ':') {
             return null;
         }
-
-        String task = t.group(1);
-        String delimiterSpace = t.group(2);
-        String progressStatus = t.group(3);
+        int taskEnd = 2;
+        while (taskEnd < length && !isWhitespace(line.charAt(taskEnd))) {
+            taskEnd++;
+        }
+        int progressStatusStart = taskEnd;
+        while (progressStatusStart < length && isWhitespace(line.charAt(progressStatusStart))) {
+            progressStatusStart++;
+        }
+        int progressStatusEnd = progressStatusStart;
+        while (progressStatusEnd < length && !isWhitespace(line.charAt(progressStatusEnd))) {
+            progressStatusEnd++;
+        }
 
         // annotate task and progress status
-        if (task != null && !task.isEmpty()) {
-            t.addMarkup(1, task.length() + 1, "<b class=gradle-task>", "</b>");
-        }
-        if (progressStatus != null && !progressStatus.isEmpty()
-                && progressStatuses.contains(progressStatus)) {
-            t.addMarkup(task.length() + delimiterSpace.length() + 1,
-                    text.length(), "<span class=gradle-task-progress-status>",
-                    "</span>");
+        String anchorMarkup = anchor == null ? "" : "<a name=\"" + Util.escape(anchor) + "\"></a>";
+        text.addMarkup(1, taskEnd, "<b class=gradle-task>" + anchorMarkup, "</b>");
+        if (progressStatusEnd > progressStatusStart
+                && TaskOutcome.forProgressStatus(line, progressStatusStart, progressStatusEnd) != TaskOutcome.EXECUTED) {
+            text.addMarkup(progressStatusStart, length, "<span class=gradle-task-progress-status>", "</span>");
         }
 
         return null;
     }
 
+    /**
+     * Whitespace as matched by {@code \s} in a regular expression.
+     */
+    private static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+    }
+
     @Extension
     public static final class DescriptorImpl extends
             ConsoleAnnotationDescriptor {
@@ -0,0 +1,181 @@
+package hudson.plugins.gradle;
+
+import hudson.FilePath;
+import hudson.remoting.VirtualChannel;
+import jenkins.MasterToSlaveFileCallable;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * A Gradle wrapper found in one of the possible wrapper locations, together with the distribution it uses.
+ *
+ * The wrapper is found by a single callable on the node of the workspace, which probes all locations, makes the
+ * wrapper executable if requested and reads the wrapper properties. The node remembers the result for the
+ * same locations as long as the wrapper and its properties are not modified, and no wrapper appeared in an earlier
+ * location.
+ */
+public final class GradleWrapper implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final String WRAPPER_PROPERTIES = "gradle/wrapper/gradle-wrapper.properties";
+    private static final int CACHE_SIZE = 256;
+
+    /** Wrappers found on this node, by the locations searched. */
+    private static final Map<String, GradleWrapper> CACHE = new LinkedHashMap<String, GradleWrapper>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, GradleWrapper> eldest) {
+            return size() > CACHE_SIZE;
+        }
+    };
+
+    private final String remote;
+    private final long lastModified;
+    private final long propertiesLastModified;
+    private final String distributionUrl;
+
+    GradleWrapper(String remote, long lastModified, long propertiesLastModified, String distributionUrl) {
+        this.remote = remote;
+        this.lastModified = lastModified;
+        this.propertiesLastModified = propertiesLastModified;
+        this.distributionUrl = distributionUrl;
+    }
+
+    /**
+     * Finds the wrapper named {@code execName} in the first of {@code locations} containing it.
+     *
+     * @return the wrapper, or {@code null} if none of the locations contains a wrapper
+     */
+    public static GradleWrapper find(List<FilePath> locations, String execName, boolean makeExecutable)
+            throws IOException, InterruptedException {
+        List<String> remotes = new ArrayList<String>();
+        for (FilePath location : locations) {
+            remotes.add(location.getRemote());
+        }
+        return locations.get(0).act(new Finder(remotes, execName, makeExecutable));
+    }
+
+    /**
+     * The path of the wrapper script on the node.
+     */
+    public String getRemote() {
+        return remote;
+    }
+
+    /**
+     * The Gradle version of the distribution, or {@code null} if unknown.
+     */
+    public String getGradleVersion() {
+        return versionOf(distributionUrl);
+    }
+
+    /**
+     * Extracts the version from a distribution URL like {@code .../gradle-4.0-rc-1-bin.zip}.
+     */
+    static String versionOf(String distributionUrl) {
+        if (distributionUrl == null) {
+            return null;
+        }
+        String name = distributionUrl.substring(distributionUrl.lastIndexOf('/') + 1);
+        if (!name.startsWith("gradle-") || !name.endsWith(".zip")) {
+            return null;
+        }
+        name = name.substring("gradle-".length(), name.length() - ".zip".length());
+        if (name.endsWith("-bin") || name.endsWith("-all")) {
+            name = name.substring(0, name.length() - "-bin".length());
+        }
+        return name.isEmpty() ? null : name;
+    }
+
+    /**
+     * Whether {@code locations} still lead to this wrapper with the same properties.
+     */
+    private boolean isCurrent(List<String> locations, String execName) {
+        for (String location : locations) {
+            File file = new File(location, execName);
+            if (file.getPath().equals(remote)) {
+                File properties = new File(location, WRAPPER_PROPERTIES);
+                return file.lastModified() == lastModified && properties.lastModified() == propertiesLastModified;
+            }
+            if (file.exists()) {
+                // A wrapper was added to an earlier location
+                return false;
+            }
+        }
+        return false;
+    }
+
+    private static final class Finder extends MasterToSlaveFileCallable<GradleWrapper> {
+        private static final long serialVersionUID = 1L;
+
+        private final List<String> locations;
+        private final String execName;
+        private final boolean makeExecutable;
+
+        Finder(List<String> locations, String execName, boolean makeExecutable) {
+            this.locations = locations;
+            this.execName = execName;
+            this.makeExecutable = makeExecutable;
+        }
+
+        @Override
+        public GradleWrapper invoke(File f, VirtualChannel channel) throws IOException, InterruptedException {
+            String key = execName + '\n' + locations;
+            GradleWrapper wrapper;
+            synchronized (CACHE) {
+                wrapper = CACHE.get(key);
+            }
+            if (wrapper != null && !wrapper.isCurrent(locations, execName)) {
+                wrapper = null;
+            }
+
+            if (wrapper == null) {
+                wrapper = probe();
+                if (wrapper == null) {
+                    return null;
+                }
+                synchronized (CACHE) {
+                    CACHE.put(key, wrapper);
+                }
+            }
+
+            File file = new File(wrapper.remote);
+            if (makeExecutable && !file.canExecute()) {
+                new FilePath(file).chmod(0755);
+            }
+            return wrapper;
+        }
+
+        private GradleWrapper probe() throws IOException {
+            for (String location : locations) {
+                File file = new File(location, execName);
+                if (file.exists()) {
+                    File propertiesFile = new File(location, WRAPPER_PROPERTIES);
+                    String distributionUrl = null;
+                    if (propertiesFile.isFile()) {
+                        Properties properties = new Properties();
+                        InputStream in = new FileInputStream(propertiesFile);
+                        try {
+                            properties.load(in);
+                        } finally {
+                            in.close();
+                        }
+                        distributionUrl = properties.getProperty("distributionUrl");
+                    }
+                    return new GradleWrapper(file.getPath(), file.lastModified(), propertiesFile.lastModified(),
+                            distributionUrl);
+                }
+            }
+            return null;
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package hudson.plugins.gradle;
+
+import hudson.FilePath;
+
+import java.io.IOException;
+
+/**
+ * Writes the Gradle init scripts generated for a build next to its workspace, where they don't show up
+ * as changes in the working copy.
+ */
+final class InitScripts {
+
+    private InitScripts() {
+    }
+
+    /**
+     * Writes {@code script} to a new file in the temporary directory of {@code workspace}.
+     */
+    static FilePath write(FilePath workspace, String prefix, String script) throws IOException, InterruptedException {
+        FilePath tmp = tempDir(workspace);
+        tmp.mkdirs();
+        return tmp.createTextTempFile(prefix, ".gradle", script, false);
+    }
+
+    /**
+     * The temporary directory next to a workspace, like {@code WorkspaceList.tempDir} of newer Jenkins versions.
+     */
+    static FilePath tempDir(FilePath workspace) {
+        return workspace.sibling(workspace.getName() + "@tmp");
+    }
+
+    /**
+     * Quotes {@code value} as a Groovy string literal without interpolation.
+     */
+    static String quote(String value) {
+        return "'" + value.replace("\\", "\\\\").replace("'", "\\'") + "'";
+    }
+}
@@ -0,0 +1,116 @@
+package hudson.plugins.gradle;
+
+import hudson.FilePath;
+import hudson.util.ArgumentListBuilder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+/**
+ * The system and project properties passed to a Gradle build, either as arguments or in a generated file.
+ *
+ * A file keeps large sets of properties, like all parameters of a build, from exceeding the length limit of the
+ * command line. The file has the format of {@code gradle.properties} and is read by an init script. System
+ * properties of Gradle itself, like {@code org.gradle.jvmargs}, are still passed as arguments, since Gradle reads
+ * them before it runs the init scripts.
+ */
+final class PassedProperties {
+
+    private static final String SYSTEM_PROPERTY_PREFIX = "systemProp.";
+
+    private final Set<String> sensitiveVariables;
+    private final Map<String, String> systemProperties = new LinkedHashMap<String, String>();
+    private final Map<String, String> projectProperties = new LinkedHashMap<String, String>();
+    private FilePath propertiesFile;
+    private FilePath initScript;
+
+    PassedProperties(Set<String> sensitiveVariables) {
+        this.sensitiveVariables = sensitiveVariables;
+    }
+
+    void addSystemProperties(Map<String, String> properties) {
+        systemProperties.putAll(properties);
+    }
+
+    void addProjectProperties(Map<String, String> properties) {
+        projectProperties.putAll(properties);
+    }
+
+    /**
+     * Adds the properties as {@code -D} and {@code -P} arguments.
+     */
+    void addTo(ArgumentListBuilder options) {
+        for (Map.Entry<String, String> property : systemProperties.entrySet()) {
+            addSystemProperty(options, property);
+        }
+        for (Map.Entry<String, String> property : projectProperties.entrySet()) {
+            options.addKeyValuePair("-P", property.getKey(), property.getValue(),
+                    sensitiveVariables.contains(property.getKey()));
+        }
+    }
+
+    /**
+     * Writes the properties to a file next to {@code workspace} and adds the init script reading it to
+     * {@code options}.
+     */
+    void writeTo(FilePath workspace, ArgumentListBuilder options) throws IOException, InterruptedException {
+        Properties properties = new Properties();
+        for (Map.Entry<String, String> property : systemProperties.entrySet()) {
+            if (property.getKey().startsWith("org.gradle.")) {
+                addSystemProperty(options, property);
+            } else {
+                properties.setProperty(SYSTEM_PROPERTY_PREFIX + property.getKey(), property.getValue());
+            }
+        }
+        for (Map.Entry<String, String> property : projectProperties.entrySet()) {
+            properties.setProperty(property.getKey(), property.getValue());
+        }
+
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        properties.store(content, "Properties of the build, generated by the Jenkins Gradle plugin");
+        FilePath tmp = InitScripts.tempDir(workspace);
+        tmp.mkdirs();
+        propertiesFile = tmp.createTempFile("gradle-properties", ".properties");
+        propertiesFile.copyFrom(new ByteArrayInputStream(content.toByteArray()));
+        initScript = InitScripts.write(workspace, "gradle-properties", initScript(propertiesFile.getRemote()));
+        options.add("--init-script", initScript.getRemote());
+    }
+
+    private void addSystemProperty(ArgumentListBuilder options, Map.Entry<String, String> property) {
+        options.addKeyValuePair("-D", property.getKey(), property.getValue(),
+                sensitiveVariables.contains(property.getKey()));
+    }
+
+    /**
+     * Deletes the generated files, which may contain sensitive values.
+     */
+    void delete() throws IOException, InterruptedException {
+        if (propertiesFile != null) {
+            propertiesFile.delete();
+        }
+        if (initScript != null) {
+            initScript.delete();
+        }
+    }
+
+    static String initScript(String propertiesFile) {
+        return "// Passes the properties of the build, generated by the Jenkins Gradle plugin\n"
+                + "def properties = new Properties()\n"
+                + "new File(" + InitScripts.quote(propertiesFile) + ").withInputStream { properties.load(it) }\n"
+                + "def projectProperties = [:]\n"
+                + "properties.each { String key, String value ->\n"
+                + "    if (key.startsWith('" + SYSTEM_PROPERTY_PREFIX + "')) {\n"
+                + "        System.setProperty(key.substring(" + SYSTEM_PROPERTY_PREFIX.length() + "), value)\n"
+                + "    } else {\n"
+                + "        projectProperties[key] = value\n"
+                + "    }\n"
+                + "}\n"
+                + "// The project properties are read from the start parameter when the settings are loaded\n"
+                + "gradle.startParameter.projectProperties = gradle.startParameter.projectProperties + projectProperties\n";
+    }
+}
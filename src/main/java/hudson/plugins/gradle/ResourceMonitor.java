@@ -0,0 +1,448 @@
+package hudson.plugins.gradle;
+
+import hudson.EnvVars;
+import hudson.remoting.VirtualChannel;
+import jenkins.security.MasterToSlaveCallable;
+import jenkins.util.Timer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Samples the CPU time, garbage collection time, resident memory and open files of the processes of a Gradle build
+ * while it runs.
+ *
+ * The processes are recognized by an environment variable, which Gradle passes on to the daemons and workers it
+ * starts. A daemon started by an earlier build, e.g. from the {@link GradleDaemonPool}, does not have it, so it is
+ * recognized by its connection to a Gradle client of the build. The garbage collection time of a JVM is read from
+ * its {@code hsperfdata} file. Each sample is a short call to the node, which reads {@code /proc}, so only Linux
+ * nodes are supported.
+ * The calls are made from the shared timer of Jenkins without waiting for their results, and a sample is skipped
+ * while the previous one is still in progress.
+ */
+public class ResourceMonitor implements Runnable {
+
+    private static final Logger LOGGER = Logger.getLogger(ResourceMonitor.class.getName());
+
+    /** Seconds between two samples. */
+    static int INTERVAL_SECONDS = Integer.getInteger(ResourceMonitor.class.getName() + ".intervalSeconds", 5);
+
+    static final String ENV_VAR = "JENKINS_GRADLE_RESOURCE_MONITOR";
+
+    private final VirtualChannel channel;
+    private final String marker;
+    private final ResourceUsage usage = new ResourceUsage();
+    private ScheduledFuture<?> schedule;
+    private Future<Sample> pending;
+    private Sample previous;
+    private boolean unsupported;
+
+    private ResourceMonitor(VirtualChannel channel, String marker) {
+        this.channel = channel;
+        this.marker = marker;
+    }
+
+    /**
+     * Starts sampling the processes which will be started with {@code env} on the node of {@code channel}.
+     */
+    public static ResourceMonitor start(VirtualChannel channel, EnvVars env) {
+        String id = UUID.randomUUID().toString();
+        env.put(ENV_VAR, id);
+        ResourceMonitor monitor = new ResourceMonitor(channel, ENV_VAR + "=" + id);
+        monitor.schedule = Timer.get().scheduleAtFixedRate(monitor, 0, INTERVAL_SECONDS, TimeUnit.SECONDS);
+        return monitor;
+    }
+
+    @Override
+    public synchronized void run() {
+        if (pending != null) {
+            if (!pending.isDone()) {
+                return;
+            }
+            collect();
+        }
+        if (unsupported) {
+            return;
+        }
+        try {
+            pending = channel.callAsync(new SampleProcesses(marker));
+        } catch (IOException e) {
+            LOGGER.log(Level.FINE, "Failed to sample the Gradle processes", e);
+            pending = null;
+        }
+    }
+
+    private void collect() {
+        try {
+            Sample sample = pending.get();
+            if (sample == null) {
+                unsupported = true;
+            } else {
+                record(sample);
+            }
+        } catch (ExecutionException e) {
+            LOGGER.log(Level.FINE, "Failed to sample the Gradle processes", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            pending = null;
+        }
+    }
+
+    private void record(Sample sample) {
+        if (previous != null && sample.processes > 0) {
+            long elapsed = sample.time - previous.time;
+            long cpu = used(sample.cpuMillis, previous.cpuMillis, sample.reused);
+            long gc = used(sample.gcMillis, previous.gcMillis, sample.reused);
+            usage.add(sample.time, elapsed > 0 ? 100f * cpu / elapsed : 0, elapsed > 0 ? 100f * gc / elapsed : 0,
+                    sample.residentBytes, sample.openFiles, sample.processes);
+        }
+        previous = sample;
+    }
+
+    /**
+     * The time used by the processes since the previous sample. Processes which exited since then take their time
+     * with them. Processes which started since then count with all their time, unless they were already running
+     * before the build.
+     */
+    static long used(Map<Integer, Long> current, Map<Integer, Long> previous, Set<Integer> reused) {
+        long used = 0;
+        for (Map.Entry<Integer, Long> process : current.entrySet()) {
+            Long before = previous.get(process.getKey());
+            if (before != null) {
+                used += Math.max(0, process.getValue() - before);
+            } else if (!reused.contains(process.getKey())) {
+                used += process.getValue();
+            }
+        }
+        return used;
+    }
+
+    /**
+     * Stops sampling and returns the samples, or {@code null} if the node does not support sampling.
+     */
+    public synchronized ResourceUsage stop() {
+        schedule.cancel(false);
+        if (pending != null) {
+            if (pending.isDone()) {
+                collect();
+            } else {
+                pending.cancel(true);
+            }
+        }
+        return unsupported ? null : usage;
+    }
+
+    static final class Sample implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        /** The time of the sample on the node, which is only compared to the times of other samples. */
+        long time;
+        long residentBytes;
+        int openFiles;
+        int processes;
+        /** The CPU time of each process, by PID. */
+        final Map<Integer, Long> cpuMillis = new HashMap<Integer, Long>();
+        /** The garbage collection time of each JVM which publishes it, by PID. */
+        final Map<Integer, Long> gcMillis = new HashMap<Integer, Long>();
+        /** The processes which were started before the build, like reused daemons. */
+        final Set<Integer> reused = new HashSet<Integer>();
+    }
+
+    /**
+     * Sums up the resources of the processes having the marker in their environment, and of the Gradle daemons
+     * they are connected to.
+     */
+    static final class SampleProcesses extends MasterToSlaveCallable<Sample, IOException> {
+        private static final long serialVersionUID = 1L;
+
+        /** Clock ticks per second of the CPU times in {@code /proc/<pid>/stat}, which is 100 on all common kernels. */
+        private static final int USER_HZ = 100;
+
+        /** The main class of the Gradle daemon, which is on its command line. */
+        private static final String DAEMON_MAIN_CLASS = "org.gradle.launcher.daemon.bootstrap.GradleDaemon";
+
+        private final String marker;
+
+        SampleProcesses(String marker) {
+            this.marker = marker;
+        }
+
+        @Override
+        public Sample call() throws IOException {
+            File proc = new File("/proc");
+            File[] dirs = proc.listFiles();
+            if (dirs == null || !new File(proc, "self/stat").isFile()) {
+                return null;
+            }
+            byte[] needle = (marker + '\0').getBytes("UTF-8");
+            byte[] daemonMainClass = DAEMON_MAIN_CLASS.getBytes("UTF-8");
+            Sample sample = new Sample();
+            sample.time = System.currentTimeMillis();
+            Map<Integer, File> perfData = findPerfData();
+            Set<String> clientSockets = new HashSet<String>();
+            List<File> daemons = new ArrayList<File>();
+            for (File dir : dirs) {
+                if (!isPid(dir.getName())) {
+                    continue;
+                }
+                try {
+                    if (contains(read(new File(dir, "environ")), needle)) {
+                        sample(dir, perfData, sample);
+                        clientSockets.addAll(socketInodes(dir));
+                    } else if (contains(read(new File(dir, "cmdline")), daemonMainClass)) {
+                        daemons.add(dir);
+                    }
+                } catch (IOException e) {
+                    // The process exited, or belongs to another user
+                } catch (RuntimeException e) {
+                    LOGGER.log(Level.FINE, "Failed to read the process " + dir, e);
+                }
+            }
+            if (!daemons.isEmpty() && !clientSockets.isEmpty()) {
+                sampleConnectedDaemons(daemons, clientSockets, perfData, sample);
+            }
+            return sample;
+        }
+
+        /**
+         * Samples the daemons which have the other end of a loopback connection of a client of the build.
+         */
+        private static void sampleConnectedDaemons(List<File> daemons, Set<String> clientSockets,
+                                                   Map<Integer, File> perfData, Sample sample) throws IOException {
+            Map<String, String> connections = readConnections();
+            Set<String> clientPeers = new HashSet<String>();
+            for (String inode : clientSockets) {
+                String connection = connections.get(inode);
+                if (connection != null) {
+                    clientPeers.add(reverse(connection));
+                }
+            }
+            for (File dir : daemons) {
+                try {
+                    for (String inode : socketInodes(dir)) {
+                        if (clientPeers.contains(connections.get(inode))) {
+                            sample(dir, perfData, sample);
+                            sample.reused.add(Integer.valueOf(dir.getName()));
+                            break;
+                        }
+                    }
+                } catch (IOException e) {
+                    // The daemon exited, or belongs to another user
+                }
+            }
+        }
+
+        private static void sample(File dir, Map<Integer, File> perfData, Sample sample) throws IOException {
+            String stat = new String(read(new File(dir, "stat")), "UTF-8");
+            // The fields after the command name, which is in parentheses and may contain spaces
+            String[] fields = stat.substring(stat.lastIndexOf(')') + 2).split(" ");
+            long ticks = Long.parseLong(fields[11]) + Long.parseLong(fields[12]);
+            long residentKb = readResidentKb(new File(dir, "status"));
+            String[] fds = new File(dir, "fd").list();
+
+            Integer pid = Integer.valueOf(dir.getName());
+            sample.cpuMillis.put(pid, ticks * 1000 / USER_HZ);
+            File jvm = perfData.get(pid);
+            if (jvm != null) {
+                long gcMillis = readGcMillis(read(jvm));
+                if (gcMillis >= 0) {
+                    sample.gcMillis.put(pid, gcMillis);
+                }
+            }
+            sample.residentBytes += residentKb * 1024;
+            sample.openFiles += fds == null ? 0 : fds.length;
+            sample.processes++;
+        }
+
+        /**
+         * The {@code hsperfdata} files of the JVMs on the node, by PID. JVMs started with {@code -XX:-UsePerfData}
+         * have none.
+         */
+        private static Map<Integer, File> findPerfData() {
+            Map<Integer, File> perfData = new HashMap<Integer, File>();
+            File[] userDirs = new File("/tmp").listFiles();
+            if (userDirs == null) {
+                return perfData;
+            }
+            for (File userDir : userDirs) {
+                String[] files = userDir.getName().startsWith("hsperfdata_") ? userDir.list() : null;
+                if (files == null) {
+                    continue;
+                }
+                for (String file : files) {
+                    if (isPid(file)) {
+                        perfData.put(Integer.valueOf(file), new File(userDir, file));
+                    }
+                }
+            }
+            return perfData;
+        }
+
+        /**
+         * Reads the garbage collection time from the performance counters of a JVM, or returns -1 if they can't be
+         * read. The counters are written in the format read by {@code jstat}: a prologue, then entries of a name and
+         * a value, in the byte order given by the prologue.
+         */
+        static long readGcMillis(byte[] perfData) {
+            ByteBuffer buffer = ByteBuffer.wrap(perfData);
+            // The magic number is always written big endian
+            if (perfData.length < 32 || buffer.getInt(0) != 0xcafec0c0 || buffer.get(5) != 2) {
+                return -1;
+            }
+            buffer.order(buffer.get(4) == 0 ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN);
+            int entry = buffer.getInt(24);
+            int entries = buffer.getInt(28);
+            long gcTicks = 0;
+            long ticksPerSecond = 0;
+            for (int i = 0; i < entries && entry >= 0 && entry + 20 <= perfData.length; i++) {
+                int length = buffer.getInt(entry);
+                int nameStart = entry + buffer.getInt(entry + 4);
+                int dataStart = entry + buffer.getInt(entry + 16);
+                // Scalar longs only
+                if (buffer.getInt(entry + 8) == 0 && buffer.get(entry + 12) == 'J'
+                        && nameStart < perfData.length && dataStart + 8 <= perfData.length) {
+                    int nameEnd = nameStart;
+                    while (nameEnd < perfData.length && perfData[nameEnd] != 0) {
+                        nameEnd++;
+                    }
+                    String name = new String(perfData, nameStart, nameEnd - nameStart, Charset.forName("US-ASCII"));
+                    if (name.startsWith("sun.gc.collector.") && name.endsWith(".time")) {
+                        gcTicks += buffer.getLong(dataStart);
+                    } else if (name.equals("sun.os.hrt.frequency")) {
+                        ticksPerSecond = buffer.getLong(dataStart);
+                    }
+                }
+                if (length <= 0) {
+                    break;
+                }
+                entry += length;
+            }
+            return ticksPerSecond > 0 ? gcTicks * 1000 / ticksPerSecond : -1;
+        }
+
+        /**
+         * The inodes of the sockets opened by a process.
+         */
+        private static Set<String> socketInodes(File dir) throws IOException {
+            Set<String> inodes = new HashSet<String>();
+            File[] fds = new File(dir, "fd").listFiles();
+            if (fds == null) {
+                throw new IOException("Can't list the files of " + dir);
+            }
+            for (File fd : fds) {
+                try {
+                    String target = Files.readSymbolicLink(fd.toPath()).toString();
+                    if (target.startsWith("socket:[") && target.endsWith("]")) {
+                        inodes.add(target.substring("socket:[".length(), target.length() - 1));
+                    }
+                } catch (IOException e) {
+                    // closed meanwhile
+                }
+            }
+            return inodes;
+        }
+
+        /**
+         * The TCP connections of the node, as {@code local>remote} addresses by socket inode.
+         */
+        private static Map<String, String> readConnections() throws IOException {
+            Map<String, String> connections = new HashMap<String, String>();
+            for (String table : new String[] {"/proc/net/tcp", "/proc/net/tcp6"}) {
+                File file = new File(table);
+                if (file.isFile()) {
+                    parseConnections(new String(read(file), "US-ASCII"), connections);
+                }
+            }
+            return connections;
+        }
+
+        static void parseConnections(String table, Map<String, String> connections) {
+            String[] lines = table.split("\n");
+            // The first line holds the column names
+            for (int i = 1; i < lines.length; i++) {
+                String[] columns = lines[i].trim().split("\\s+");
+                if (columns.length > 9) {
+                    connections.put(columns[9], columns[1] + ">" + columns[2]);
+                }
+            }
+        }
+
+        private static String reverse(String connection) {
+            int separator = connection.indexOf('>');
+            return connection.substring(separator + 1) + ">" + connection.substring(0, separator);
+        }
+
+        private static long readResidentKb(File status) throws IOException {
+            for (String line : new String(read(status), "UTF-8").split("\n")) {
+                if (line.startsWith("VmRSS:")) {
+                    return Long.parseLong(line.substring("VmRSS:".length()).replace("kB", "").trim());
+                }
+            }
+            // kernel threads and zombies have no memory
+            return 0;
+        }
+
+        private static boolean isPid(String name) {
+            for (int i = 0; i < name.length(); i++) {
+                if (name.charAt(i) < '0' || name.charAt(i) > '9') {
+                    return false;
+                }
+            }
+            return !name.isEmpty();
+        }
+
+        private static boolean contains(byte[] environ, byte[] needle) {
+            // Entries are separated by NUL, so the needle must start at the beginning of an entry
+            outer:
+            for (int i = 0; i + needle.length <= environ.length; i++) {
+                if (i > 0 && environ[i - 1] != 0) {
+                    continue;
+                }
+                for (int j = 0; j < needle.length; j++) {
+                    if (environ[i + j] != needle[j]) {
+                        continue outer;
+                    }
+                }
+                return true;
+            }
+            return false;
+        }
+
+        private static byte[] read(File file) throws IOException {
+            // Files in /proc report a length of 0, so they are read until the end
+            InputStream in = new FileInputStream(file);
+            try {
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                byte[] buffer = new byte[4096];
+                for (int n = in.read(buffer); n != -1; n = in.read(buffer)) {
+                    out.write(buffer, 0, n);
+                }
+                return out.toByteArray();
+            } finally {
+                in.close();
+            }
+        }
+    }
+}
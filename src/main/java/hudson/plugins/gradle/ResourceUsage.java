@@ -0,0 +1,188 @@
+package hudson.plugins.gradle;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * A time series of the resources used by the processes of a Gradle build.
+ *
+ * The series keeps at most {@link #MAX_POINTS} points. When it is full, adjacent points are merged, which halves the
+ * resolution of the series, so long builds keep a series of the same size as short builds. Merged points keep the
+ * peak memory, open files and processes, and the average CPU and garbage collection usage.
+ */
+public class ResourceUsage implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    static final int MAX_POINTS = 256;
+
+    private long[] times = new long[MAX_POINTS];
+    private float[] cpuPercentages = new float[MAX_POINTS];
+    private float[] gcPercentages = new float[MAX_POINTS];
+    private long[] residentBytes = new long[MAX_POINTS];
+    private int[] openFiles = new int[MAX_POINTS];
+    private int[] processes = new int[MAX_POINTS];
+    private int size;
+
+    /**
+     * Adds a point.
+     *
+     * @param time the time of the sample in milliseconds
+     * @param cpuPercentage the CPU time used since the previous point, relative to the elapsed time, which can be
+     *                      more than 100% on several cores
+     * @param gcPercentage the time the JVMs spent collecting garbage since the previous point, relative to the
+     *                     elapsed time
+     */
+    public synchronized void add(long time, float cpuPercentage, float gcPercentage, long resident, int files,
+                                 int processCount) {
+        if (size == times.length) {
+            downsample();
+        }
+        times[size] = time;
+        cpuPercentages[size] = cpuPercentage;
+        gcPercentages[size] = gcPercentage;
+        residentBytes[size] = resident;
+        openFiles[size] = files;
+        processes[size] = processCount;
+        size++;
+    }
+
+    /**
+     * Appends all points of {@code other}, e.g. of another Gradle step of the same build.
+     */
+    public synchronized void addAll(ResourceUsage other) {
+        synchronized (other) {
+            for (int i = 0; i < other.size; i++) {
+                add(other.times[i], other.cpuPercentages[i], other.gcPercentages[i], other.residentBytes[i],
+                        other.openFiles[i], other.processes[i]);
+            }
+        }
+    }
+
+    private void downsample() {
+        int merged = 0;
+        for (int i = 0; i + 1 < size; i += 2) {
+            times[merged] = times[i + 1];
+            cpuPercentages[merged] = (cpuPercentages[i] + cpuPercentages[i + 1]) / 2;
+            gcPercentages[merged] = (gcPercentages[i] + gcPercentages[i + 1]) / 2;
+            residentBytes[merged] = Math.max(residentBytes[i], residentBytes[i + 1]);
+            openFiles[merged] = Math.max(openFiles[i], openFiles[i + 1]);
+            processes[merged] = Math.max(processes[i], processes[i + 1]);
+            merged++;
+        }
+        if (size % 2 != 0) {
+            times[merged] = times[size - 1];
+            cpuPercentages[merged] = cpuPercentages[size - 1];
+            gcPercentages[merged] = gcPercentages[size - 1];
+            residentBytes[merged] = residentBytes[size - 1];
+            openFiles[merged] = openFiles[size - 1];
+            processes[merged] = processes[size - 1];
+            merged++;
+        }
+        size = merged;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    public synchronized long getTime(int index) {
+        return times[checkIndex(index)];
+    }
+
+    public synchronized float getCpuPercentage(int index) {
+        return cpuPercentages[checkIndex(index)];
+    }
+
+    public synchronized float getGcPercentage(int index) {
+        return gcPercentages[checkIndex(index)];
+    }
+
+    public synchronized long getResidentBytes(int index) {
+        return residentBytes[checkIndex(index)];
+    }
+
+    public synchronized int getOpenFiles(int index) {
+        return openFiles[checkIndex(index)];
+    }
+
+    public synchronized int getProcesses(int index) {
+        return processes[checkIndex(index)];
+    }
+
+    public synchronized long getPeakResidentBytes() {
+        long peak = 0;
+        for (int i = 0; i < size; i++) {
+            peak = Math.max(peak, residentBytes[i]);
+        }
+        return peak;
+    }
+
+    public synchronized float getPeakCpuPercentage() {
+        float peak = 0;
+        for (int i = 0; i < size; i++) {
+            peak = Math.max(peak, cpuPercentages[i]);
+        }
+        return peak;
+    }
+
+    public synchronized float getPeakGcPercentage() {
+        float peak = 0;
+        for (int i = 0; i < size; i++) {
+            peak = Math.max(peak, gcPercentages[i]);
+        }
+        return peak;
+    }
+
+    public synchronized int getPeakOpenFiles() {
+        int peak = 0;
+        for (int i = 0; i < size; i++) {
+            peak = Math.max(peak, openFiles[i]);
+        }
+        return peak;
+    }
+
+    public synchronized int getPeakProcesses() {
+        int peak = 0;
+        for (int i = 0; i < size; i++) {
+            peak = Math.max(peak, processes[i]);
+        }
+        return peak;
+    }
+
+    private int checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+        return index;
+    }
+
+    private synchronized Object writeReplace() {
+        // Don't persist or transfer unused capacity
+        ResourceUsage trimmed = new ResourceUsage();
+        trimmed.times = Arrays.copyOf(times, size);
+        trimmed.cpuPercentages = Arrays.copyOf(cpuPercentages, size);
+        trimmed.gcPercentages = Arrays.copyOf(gcPercentages, size);
+        trimmed.residentBytes = Arrays.copyOf(residentBytes, size);
+        trimmed.openFiles = Arrays.copyOf(openFiles, size);
+        trimmed.processes = Arrays.copyOf(processes, size);
+        trimmed.size = size;
+        return trimmed;
+    }
+
+    private Object readResolve() {
+        if (gcPercentages == null) {
+            // Recorded before garbage collection was sampled
+            gcPercentages = new float[times.length];
+        }
+        if (times.length < MAX_POINTS) {
+            times = Arrays.copyOf(times, MAX_POINTS);
+            cpuPercentages = Arrays.copyOf(cpuPercentages, MAX_POINTS);
+            gcPercentages = Arrays.copyOf(gcPercentages, MAX_POINTS);
+            residentBytes = Arrays.copyOf(residentBytes, MAX_POINTS);
+            openFiles = Arrays.copyOf(openFiles, MAX_POINTS);
+            processes = Arrays.copyOf(processes, MAX_POINTS);
+        }
+        return this;
+    }
+}
@@ -0,0 +1,131 @@
+package hudson.plugins.gradle;
+
+import hudson.model.Run;
+import hudson.util.Graph;
+import jenkins.model.RunAction2;
+import org.jfree.chart.ChartFactory;
+import org.jfree.chart.JFreeChart;
+import org.jfree.chart.plot.PlotOrientation;
+import org.jfree.chart.plot.XYPlot;
+import org.jfree.data.xy.XYSeries;
+import org.jfree.data.xy.XYSeriesCollection;
+import org.jfree.ui.RectangleInsets;
+
+import java.awt.Color;
+
+/**
+ * Shows the CPU usage, garbage collection, memory and open files of the processes of the Gradle steps of a build over time.
+ */
+public class ResourceUsageAction implements RunAction2 {
+
+    private static final long MB = 1024 * 1024;
+
+    private final ResourceUsage usage;
+    private transient Run<?, ?> run;
+
+    public ResourceUsageAction(ResourceUsage usage) {
+        this.usage = usage;
+    }
+
+    @Override
+    public String getIconFileName() {
+        return "graph.png";
+    }
+
+    @Override
+    public String getDisplayName() {
+        return "Gradle Resource Usage";
+    }
+
+    @Override
+    public String getUrlName() {
+        return "gradleResources";
+    }
+
+    @Override
+    public void onAttached(Run<?, ?> run) {
+        this.run = run;
+    }
+
+    @Override
+    public void onLoad(Run<?, ?> run) {
+        this.run = run;
+    }
+
+    public Run<?, ?> getRun() {
+        return run;
+    }
+
+    public ResourceUsage getUsage() {
+        return usage;
+    }
+
+    public long getPeakMemoryMb() {
+        return usage.getPeakResidentBytes() / MB;
+    }
+
+    public Graph getMemoryGraph() {
+        return new Graph(run.getTimestamp().getTimeInMillis(), 600, 250) {
+            @Override
+            protected JFreeChart createGraph() {
+                XYSeries resident = new XYSeries("resident memory");
+                for (int i = 0; i < usage.size(); i++) {
+                    resident.add(seconds(i), usage.getResidentBytes(i) / MB);
+                }
+                return createChart("MB", resident);
+            }
+        };
+    }
+
+    public Graph getCpuGraph() {
+        return new Graph(run.getTimestamp().getTimeInMillis(), 600, 250) {
+            @Override
+            protected JFreeChart createGraph() {
+                XYSeries cpu = new XYSeries("CPU");
+                XYSeries gc = new XYSeries("garbage collection");
+                for (int i = 0; i < usage.size(); i++) {
+                    cpu.add(seconds(i), usage.getCpuPercentage(i));
+                    gc.add(seconds(i), usage.getGcPercentage(i));
+                }
+                return createChart("%", cpu, gc);
+            }
+        };
+    }
+
+    public Graph getFilesGraph() {
+        return new Graph(run.getTimestamp().getTimeInMillis(), 600, 250) {
+            @Override
+            protected JFreeChart createGraph() {
+                XYSeries files = new XYSeries("open files");
+                XYSeries processes = new XYSeries("processes");
+                for (int i = 0; i < usage.size(); i++) {
+                    files.add(seconds(i), usage.getOpenFiles(i));
+                    processes.add(seconds(i), usage.getProcesses(i));
+                }
+                return createChart(null, files, processes);
+            }
+        };
+    }
+
+    private double seconds(int index) {
+        return (usage.getTime(index) - usage.getTime(0)) / 1000.0;
+    }
+
+    private static JFreeChart createChart(String rangeLabel, XYSeries... series) {
+        XYSeriesCollection dataSet = new XYSeriesCollection();
+        for (XYSeries s : series) {
+            dataSet.addSeries(s);
+        }
+        JFreeChart chart = ChartFactory.createXYLineChart(null, "seconds", rangeLabel, dataSet,
+                PlotOrientation.VERTICAL, true, true, false);
+        chart.setBackgroundPaint(Color.WHITE);
+
+        XYPlot plot = chart.getXYPlot();
+        plot.setBackgroundPaint(Color.WHITE);
+        plot.setOutlinePaint(null);
+        plot.setRangeGridlinesVisible(true);
+        plot.setRangeGridlinePaint(Color.BLACK);
+        plot.setInsets(new RectangleInsets(0, 0, 0, 5.0));
+        return chart;
+    }
+}
@@ -0,0 +1,235 @@
+package hudson.plugins.gradle;
+
+import hudson.Util;
+import hudson.console.AnnotatedLargeText;
+import hudson.model.Run;
+import hudson.util.ByteBuffer;
+import jenkins.model.RunAction2;
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+import org.kohsuke.stapler.StaplerRequest;
+import org.kohsuke.stapler.StaplerResponse;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.StringWriter;
+import java.util.List;
+
+/**
+ * Lists the tasks executed by the Gradle steps of a build, together with their outcome and duration.
+ *
+ * The recorded log offsets of the tasks are used to serve the console outline and to show the part of the
+ * log belonging to a task without loading the whole log. The action is attached when the first Gradle step starts,
+ * so that the outline of a running build grows with each task.
+ */
+public class TaskExecutionAction implements RunAction2 {
+
+    private static final int SLOWEST_TASKS = 100;
+    private static final int OUTLINE_PAGE_SIZE = 200;
+    private static final int MAX_OUTLINE_PAGE_SIZE = 1000;
+    private static final int LOG_REGION_SIZE = 64 * 1024;
+
+    private final TaskExecutions taskExecutions;
+    private transient Run<?, ?> run;
+
+    public TaskExecutionAction(TaskExecutions taskExecutions) {
+        this.taskExecutions = taskExecutions;
+    }
+
+    @Override
+    public String getIconFileName() {
+        return "clock.png";
+    }
+
+    @Override
+    public String getDisplayName() {
+        return "Gradle Tasks";
+    }
+
+    @Override
+    public String getUrlName() {
+        return "gradleTasks";
+    }
+
+    @Override
+    public void onAttached(Run<?, ?> run) {
+        this.run = run;
+    }
+
+    @Override
+    public void onLoad(Run<?, ?> run) {
+        this.run = run;
+    }
+
+    public Run<?, ?> getRun() {
+        return run;
+    }
+
+    public TaskExecutions getTaskExecutions() {
+        return taskExecutions;
+    }
+
+    public List<TaskExecutions.TaskExecution> getSlowestTasks() {
+        return taskExecutions.getSlowestTasks(SLOWEST_TASKS);
+    }
+
+    public String formatDuration(long duration) {
+        return Util.getTimeSpanString(duration);
+    }
+
+    /**
+     * Serves a page of the console outline as JSON.
+     *
+     * Parameters are {@code start}, the index of the first task, and {@code count}, the number of tasks.
+     * While the build is running, clients poll for the tasks after those they have already seen. The tasks of steps
+     * running at the same time arrive interleaved, so each task names its {@code step}, and the {@code anchor} of its
+     * header in the console, if the header carries one.
+     */
+    public void doOutline(StaplerRequest req, StaplerResponse rsp) throws IOException {
+        int start = Math.max(0, parseInt(req.getParameter("start"), 0));
+        int count = Math.min(MAX_OUTLINE_PAGE_SIZE, Math.max(1, parseInt(req.getParameter("count"), OUTLINE_PAGE_SIZE)));
+        int total = taskExecutions.size();
+        int end = Math.max(start, Math.min(total, start + count));
+        String[] anchors = taskExecutions.getAnchors(start, end);
+
+        JSONArray tasks = new JSONArray();
+        for (int i = start; i < end; i++) {
+            TaskExecutions.TaskExecution task = taskExecutions.get(i);
+            JSONObject entry = new JSONObject();
+            entry.put("name", task.getName());
+            entry.put("offset", task.getOffset());
+            entry.put("step", task.getStep());
+            if (anchors[i - start] != null) {
+                entry.put("anchor", anchors[i - start]);
+            }
+            entry.put("outcome", Util.fixNull(task.getOutcome().getProgressStatus()));
+            tasks.add(entry);
+        }
+
+        JSONObject page = new JSONObject();
+        page.put("start", start);
+        page.put("total", total);
+        page.put("building", run != null && run.isBuilding());
+        page.put("tasks", tasks);
+
+        rsp.setContentType("application/json;charset=UTF-8");
+        rsp.getWriter().print(page.toString());
+    }
+
+    /**
+     * Reads the part of the build log starting at {@code offset}.
+     */
+    public LogRegion getLogRegion(String offset) throws IOException {
+        return LogRegion.read(run, Math.max(0, parseLong(offset)));
+    }
+
+    private static int parseInt(String value, int defaultValue) {
+        try {
+            return value == null ? defaultValue : Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    private static long parseLong(String value) {
+        try {
+            return value == null ? 0 : Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * A part of the build log, which starts and ends at line boundaries.
+     */
+    public static final class LogRegion {
+        private final long start;
+        private final long end;
+        private final long logLength;
+        private final String html;
+
+        private LogRegion(long start, long end, long logLength, String html) {
+            this.start = start;
+            this.end = end;
+            this.logLength = logLength;
+            this.html = html;
+        }
+
+        static LogRegion read(Run<?, ?> run, long offset) throws IOException {
+            return read(run, offset, LOG_REGION_SIZE);
+        }
+
+        /**
+         * Reads at most {@code maxLength} bytes of the log, starting at the first line beginning at or after
+         * {@code offset}. Returns {@code null} if the log cannot be read in parts.
+         */
+        static LogRegion read(Run<?, ?> run, long offset, int maxLength) throws IOException {
+            File logFile = run.getLogFile();
+            if (!logFile.isFile() || logFile.getName().endsWith(".gz")) {
+                // no random access to compressed logs
+                return null;
+            }
+            RandomAccessFile log = new RandomAccessFile(logFile, "r");
+            try {
+                long logLength = log.length();
+                long start = Math.min(offset, logLength);
+                if (start > 0) {
+                    // Start at the next line if the offset points into the middle of a line
+                    log.seek(start - 1);
+                    int previous = log.read();
+                    while (previous != '\n' && previous != -1) {
+                        previous = log.read();
+                    }
+                    start = log.getFilePointer();
+                }
+
+                byte[] bytes = new byte[(int) Math.min(maxLength, logLength - start)];
+                log.seek(start);
+                log.readFully(bytes);
+                int length = bytes.length;
+                if (start + length < logLength) {
+                    // Only show complete lines
+                    while (length > 0 && bytes[length - 1] != '\n') {
+                        length--;
+                    }
+                    if (length == 0) {
+                        length = bytes.length;
+                    }
+                }
+
+                ByteBuffer buffer = new ByteBuffer();
+                buffer.write(bytes, 0, length);
+                StringWriter html = new StringWriter();
+                new AnnotatedLargeText<Run<?, ?>>(buffer, run.getCharset(), true, run).writeHtmlTo(0, html);
+                return new LogRegion(start, start + length, logLength, html.toString());
+            } finally {
+                log.close();
+            }
+        }
+
+        public long getStart() {
+            return start;
+        }
+
+        public long getEnd() {
+            return end;
+        }
+
+        public boolean hasPrevious() {
+            return start > 0;
+        }
+
+        public long getPrevious() {
+            return Math.max(0, start - LOG_REGION_SIZE);
+        }
+
+        public boolean hasNext() {
+            return end < logLength;
+        }
+
+        public String getHtml() {
+            return html;
+        }
+    }
+}
@@ -0,0 +1,318 @@
+package hudson.plugins.gradle;
+
+import java.io.Serializable;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * The tasks executed by Gradle builds, in the order in which their headers appeared in the console.
+ *
+ * Each Gradle step records its tasks through its own {@link Recorder}. A task is considered to be running from the
+ * arrival of its header until the arrival of the next header of the same step, or until the step finishes, so that
+ * steps running at the same time, like in the parallel branches of a Pipeline, don't end each other's tasks.
+ * Tasks reported by the Tooling API are recorded with their exact duration when they finish.
+ * The console note of a task header names the task by its step and its position within the step, see
+ * {@link #getAnchors(int, int)}, so that the outline links to the header without matching task names.
+ * The data is kept in parallel arrays so that builds with many thousand tasks stay small in memory and in
+ * {@code build.xml}.
+ */
+public class TaskExecutions implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private String[] names = new String[INITIAL_CAPACITY];
+    private byte[] outcomes = new byte[INITIAL_CAPACITY];
+    private long[] starts = new long[INITIAL_CAPACITY];
+    private long[] durations = new long[INITIAL_CAPACITY];
+    private long[] offsets = new long[INITIAL_CAPACITY];
+    /** The number of the step which recorded each task, in the order in which the steps started. */
+    private int[] steps = new int[INITIAL_CAPACITY];
+    private int size;
+    private int stepCount;
+    /** The steps which recorded their tasks from the headers in the console, whose notes carry the anchors. */
+    private BitSet headerSteps = new BitSet();
+
+    /**
+     * Starts recording the tasks of a Gradle step.
+     */
+    public synchronized Recorder newRecorder() {
+        return new Recorder(stepCount++);
+    }
+
+    /**
+     * Starts recording the tasks of a step numbered by {@link #reserveStep()}, e.g. on the node running the build.
+     */
+    public synchronized Recorder newRecorder(int step) {
+        stepCount = Math.max(stepCount, step + 1);
+        return new Recorder(step);
+    }
+
+    /**
+     * Numbers a Gradle step whose tasks are recorded elsewhere and added with {@link #addAll(TaskExecutions)}.
+     */
+    public synchronized int reserveStep() {
+        return stepCount++;
+    }
+
+    /**
+     * Appends all task executions from {@code other}, e.g. from another Gradle step of the same build. The steps
+     * keep their numbers, which are reserved on this instance.
+     */
+    public synchronized void addAll(TaskExecutions other) {
+        synchronized (other) {
+            ensureCapacity(size + other.size);
+            System.arraycopy(other.names, 0, names, size, other.size);
+            System.arraycopy(other.outcomes, 0, outcomes, size, other.size);
+            System.arraycopy(other.starts, 0, starts, size, other.size);
+            System.arraycopy(other.durations, 0, durations, size, other.size);
+            System.arraycopy(other.offsets, 0, offsets, size, other.size);
+            System.arraycopy(other.steps, 0, steps, size, other.size);
+            size += other.size;
+            stepCount = Math.max(stepCount, other.stepCount);
+            headerSteps.or(other.headerSteps);
+        }
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    public synchronized TaskExecution get(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+        return new TaskExecution(names[index], TaskOutcome.forOrdinal(outcomes[index]), starts[index], durations[index],
+                offsets[index], steps[index]);
+    }
+
+    /**
+     * The anchors of the task headers in the console, as written by {@link GradleTaskNote}, for the tasks from index
+     * {@code start} to {@code end}, exclusive. The anchor is {@code null} for tasks whose header carries none, like
+     * those reported by the Tooling API or recorded before anchors were written.
+     */
+    public synchronized String[] getAnchors(int start, int end) {
+        String[] anchors = new String[end - start];
+        int[] positions = new int[stepCount];
+        for (int i = 0; i < end; i++) {
+            int position = positions[steps[i]]++;
+            if (i >= start && headerSteps.get(steps[i])) {
+                anchors[i - start] = anchor(steps[i], position);
+            }
+        }
+        return anchors;
+    }
+
+    private static String anchor(int step, int position) {
+        return "gradle-task-" + step + "-" + position;
+    }
+
+    /**
+     * All task executions, in the order in which they appeared in the console.
+     */
+    public List<TaskExecution> getTasks() {
+        return new AbstractList<TaskExecution>() {
+            @Override
+            public TaskExecution get(int index) {
+                return TaskExecutions.this.get(index);
+            }
+
+            @Override
+            public int size() {
+                return TaskExecutions.this.size();
+            }
+        };
+    }
+
+    /**
+     * The {@code count} task executions which took longest, slowest first.
+     */
+    public List<TaskExecution> getSlowestTasks(int count) {
+        List<TaskExecution> tasks = new ArrayList<TaskExecution>(getTasks());
+        Collections.sort(tasks, new Comparator<TaskExecution>() {
+            @Override
+            public int compare(TaskExecution a, TaskExecution b) {
+                return a.getDuration() < b.getDuration() ? 1 : a.getDuration() == b.getDuration() ? 0 : -1;
+            }
+        });
+        return tasks.subList(0, Math.min(count, tasks.size()));
+    }
+
+    /**
+     * Appends a task and returns its index.
+     */
+    private int add(String name, TaskOutcome outcome, long start, long duration, long offset, int step) {
+        ensureCapacity(size + 1);
+        names[size] = name;
+        outcomes[size] = (byte) outcome.ordinal();
+        starts[size] = start;
+        durations[size] = Math.max(0, duration);
+        offsets[size] = offset;
+        steps[size] = step;
+        return size++;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > names.length) {
+            int newCapacity = Math.max(capacity, names.length * 2);
+            names = Arrays.copyOf(names, newCapacity);
+            outcomes = Arrays.copyOf(outcomes, newCapacity);
+            starts = Arrays.copyOf(starts, newCapacity);
+            durations = Arrays.copyOf(durations, newCapacity);
+            offsets = Arrays.copyOf(offsets, newCapacity);
+            steps = Arrays.copyOf(steps, newCapacity);
+        }
+    }
+
+    private synchronized Object writeReplace() {
+        // Don't persist or transfer unused capacity
+        TaskExecutions trimmed = new TaskExecutions();
+        trimmed.names = Arrays.copyOf(names, size);
+        trimmed.outcomes = Arrays.copyOf(outcomes, size);
+        trimmed.starts = Arrays.copyOf(starts, size);
+        trimmed.durations = Arrays.copyOf(durations, size);
+        trimmed.offsets = Arrays.copyOf(offsets, size);
+        trimmed.steps = Arrays.copyOf(steps, size);
+        trimmed.size = size;
+        trimmed.stepCount = stepCount;
+        trimmed.headerSteps = (BitSet) headerSteps.clone();
+        return trimmed;
+    }
+
+    private Object readResolve() {
+        if (offsets == null) {
+            offsets = new long[names.length];
+        }
+        if (steps == null) {
+            // Recorded as if by a single step
+            steps = new int[names.length];
+            stepCount = 1;
+        }
+        if (headerSteps == null) {
+            // The notes of the headers carry no anchors
+            headerSteps = new BitSet();
+        }
+        return this;
+    }
+
+    /**
+     * Records the tasks of one Gradle step. Not shared between threads, and not serialized with the executions.
+     */
+    public final class Recorder {
+        private final int step;
+        /** The index of the task of this step which is running, or -1. */
+        private int runningTask = -1;
+        /** The number of tasks recorded by this step. */
+        private int tasks;
+
+        private Recorder(int step) {
+            this.step = step;
+        }
+
+        /**
+         * Records the header of a task which arrived at {@code timestamp} and starts at {@code offset} in the build
+         * log. This finishes the previous task of the step.
+         *
+         * @return the anchor to write with the header, as returned by {@link #getAnchors(int, int)}
+         */
+        public String taskStarted(String name, TaskOutcome outcome, long timestamp, long offset) {
+            synchronized (TaskExecutions.this) {
+                finish(timestamp);
+                runningTask = add(name, outcome, timestamp, 0, offset, step);
+                headerSteps.set(step);
+                return anchor(step, tasks++);
+            }
+        }
+
+        /**
+         * Records a finished task, whose start and duration are known.
+         * This finishes the previous task of the step if it is still running.
+         */
+        public void taskExecuted(String name, TaskOutcome outcome, long start, long duration, long offset) {
+            synchronized (TaskExecutions.this) {
+                finish(start);
+                add(name, outcome, start, duration, offset, step);
+                tasks++;
+            }
+        }
+
+        /**
+         * Finishes the running task of the step, if any.
+         */
+        public void finish(long timestamp) {
+            synchronized (TaskExecutions.this) {
+                if (runningTask >= 0) {
+                    durations[runningTask] = Math.max(0, timestamp - starts[runningTask]);
+                    runningTask = -1;
+                }
+            }
+        }
+
+        public TaskExecutions getTaskExecutions() {
+            return TaskExecutions.this;
+        }
+    }
+
+    /**
+     * A single task execution.
+     */
+    public static final class TaskExecution {
+        private final String name;
+        private final TaskOutcome outcome;
+        private final long start;
+        private final long duration;
+        private final long offset;
+        private final int step;
+
+        TaskExecution(String name, TaskOutcome outcome, long start, long duration, long offset, int step) {
+            this.name = name;
+            this.outcome = outcome;
+            this.start = start;
+            this.duration = duration;
+            this.offset = offset;
+            this.step = step;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public TaskOutcome getOutcome() {
+            return outcome;
+        }
+
+        /**
+         * The time the task header arrived, in milliseconds since the epoch.
+         */
+        public long getStart() {
+            return start;
+        }
+
+        /**
+         * The time until the next task header arrived, in milliseconds.
+         */
+        public long getDuration() {
+            return duration;
+        }
+
+        /**
+         * The position of the task header in the build log, in bytes.
+         */
+        public long getOffset() {
+            return offset;
+        }
+
+        /**
+         * The number of the Gradle step of the build which executed the task, starting at 0.
+         */
+        public int getStep() {
+            return step;
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package hudson.plugins.gradle;
+
+import java.nio.charset.Charset;
+
+/**
+ * The outcome of a Gradle task, as reported by the progress status after the task header in the console.
+ */
+public enum TaskOutcome {
+    EXECUTED(null),
+    UP_TO_DATE("UP-TO-DATE"),
+    SKIPPED("SKIPPED"),
+    FROM_CACHE("FROM-CACHE"),
+    NO_SOURCE("NO-SOURCE");
+
+    private static final TaskOutcome[] VALUES = values();
+
+    private final String progressStatus;
+    private final byte[] progressStatusBytes;
+
+    TaskOutcome(String progressStatus) {
+        this.progressStatus = progressStatus;
+        this.progressStatusBytes = progressStatus == null ? null : progressStatus.getBytes(Charset.forName("US-ASCII"));
+    }
+
+    /**
+     * The progress status printed by Gradle, or {@code null} for tasks which have been executed.
+     */
+    public String getProgressStatus() {
+        return progressStatus;
+    }
+
+    /**
+     * Finds the outcome for the progress status in {@code b[from..to)}.
+     * Anything which is not a known progress status means the task has been executed.
+     */
+    static TaskOutcome forProgressStatus(byte[] b, int from, int to) {
+        for (TaskOutcome outcome : VALUES) {
+            byte[] status = outcome.progressStatusBytes;
+            if (status != null && regionEquals(b, from, to, status)) {
+                return outcome;
+            }
+        }
+        return EXECUTED;
+    }
+
+    /**
+     * Finds the outcome for the progress status in {@code text[from..to)}.
+     * Anything which is not a known progress status means the task has been executed.
+     */
+    static TaskOutcome forProgressStatus(String text, int from, int to) {
+        for (TaskOutcome outcome : VALUES) {
+            String status = outcome.progressStatus;
+            if (status != null && to - from == status.length() && text.regionMatches(from, status, 0, status.length())) {
+                return outcome;
+            }
+        }
+        return EXECUTED;
+    }
+
+    static TaskOutcome forOrdinal(int ordinal) {
+        return VALUES[ordinal];
+    }
+
+    private static boolean regionEquals(byte[] b, int from, int to, byte[] expected) {
+        if (to - from != expected.length) {
+            return false;
+        }
+        for (int i = 0; i < expected.length; i++) {
+            if (b[from + i] != expected[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,34 @@
+package hudson.plugins.gradle;
+
+import hudson.model.Action;
+
+/**
+ * Shows how many tasks of a build have been executed and how many have been avoided.
+ */
+public class TaskOutcomeAction implements Action {
+
+    private final TaskOutcomeCounts counts;
+
+    public TaskOutcomeAction(TaskOutcomeCounts counts) {
+        this.counts = counts;
+    }
+
+    @Override
+    public String getIconFileName() {
+        return null;
+    }
+
+    @Override
+    public String getDisplayName() {
+        return "Gradle Task Outcomes";
+    }
+
+    @Override
+    public String getUrlName() {
+        return null;
+    }
+
+    public TaskOutcomeCounts getCounts() {
+        return counts;
+    }
+}
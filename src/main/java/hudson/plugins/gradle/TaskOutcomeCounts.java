@@ -0,0 +1,76 @@
+package hudson.plugins.gradle;
+
+import java.io.Serializable;
+
+/**
+ * Counts how many tasks of a build ended with each {@link TaskOutcome}.
+ */
+public class TaskOutcomeCounts implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int[] counts = new int[TaskOutcome.values().length];
+
+    public synchronized void increment(TaskOutcome outcome) {
+        counts[outcome.ordinal()]++;
+    }
+
+    public synchronized void addAll(TaskOutcomeCounts other) {
+        synchronized (other) {
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] += other.counts[i];
+            }
+        }
+    }
+
+    public synchronized int getCount(TaskOutcome outcome) {
+        return outcome.ordinal() < counts.length ? counts[outcome.ordinal()] : 0;
+    }
+
+    public synchronized int getTotal() {
+        int total = 0;
+        for (int count : counts) {
+            total += count;
+        }
+        return total;
+    }
+
+    public int getExecuted() {
+        return getCount(TaskOutcome.EXECUTED);
+    }
+
+    /**
+     * The number of tasks Gradle did not have to execute, since they were up-to-date, taken from the cache,
+     * skipped or had no sources.
+     */
+    public int getAvoided() {
+        return getTotal() - getExecuted();
+    }
+
+    /**
+     * The percentage of tasks which have not been executed.
+     */
+    public int getAvoidedPercentage() {
+        return percentage(getAvoided(), getTotal());
+    }
+
+    /**
+     * The percentage of tasks which were up-to-date.
+     */
+    public int getUpToDatePercentage() {
+        return percentage(getCount(TaskOutcome.UP_TO_DATE), getTotal());
+    }
+
+    /**
+     * The percentage of tasks taken from the build cache, relative to all tasks which either had to be executed or
+     * were taken from the cache.
+     */
+    public int getCacheHitPercentage() {
+        int fromCache = getCount(TaskOutcome.FROM_CACHE);
+        return percentage(fromCache, fromCache + getExecuted());
+    }
+
+    private static int percentage(int part, int total) {
+        return total == 0 ? 0 : (int) Math.round(100.0 * part / total);
+    }
+}
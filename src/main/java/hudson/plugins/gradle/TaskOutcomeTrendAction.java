@@ -0,0 +1,129 @@
+package hudson.plugins.gradle;
+
+import hudson.Extension;
+import hudson.model.Action;
+import hudson.model.Job;
+import hudson.model.Run;
+import hudson.util.ChartUtil;
+import hudson.util.DataSetBuilder;
+import hudson.util.Graph;
+import hudson.util.ShiftedCategoryAxis;
+import jenkins.model.TransientActionFactory;
+import org.jfree.chart.ChartFactory;
+import org.jfree.chart.JFreeChart;
+import org.jfree.chart.axis.CategoryAxis;
+import org.jfree.chart.axis.CategoryLabelPositions;
+import org.jfree.chart.axis.NumberAxis;
+import org.jfree.chart.plot.CategoryPlot;
+import org.jfree.chart.plot.PlotOrientation;
+import org.jfree.ui.RectangleInsets;
+
+import java.awt.Color;
+import java.util.Collection;
+import java.util.Collections;
+
+/**
+ * Shows the trend of avoided, up-to-date and cached tasks on the job page.
+ */
+public class TaskOutcomeTrendAction implements Action {
+
+    private static final int MAX_BUILDS = 50;
+
+    private final Job<?, ?> job;
+
+    public TaskOutcomeTrendAction(Job<?, ?> job) {
+        this.job = job;
+    }
+
+    @Override
+    public String getIconFileName() {
+        return null;
+    }
+
+    @Override
+    public String getDisplayName() {
+        return "Gradle Task Outcome Trend";
+    }
+
+    @Override
+    public String getUrlName() {
+        return "gradleTaskOutcomeTrend";
+    }
+
+    public boolean hasData() {
+        Run<?, ?> lastBuild = job.getLastCompletedBuild();
+        return lastBuild != null && lastBuild.getAction(TaskOutcomeAction.class) != null;
+    }
+
+    public Graph getGraph() {
+        Run<?, ?> lastBuild = job.getLastBuild();
+        return new Graph(lastBuild == null ? -1 : lastBuild.getTimestamp().getTimeInMillis(), 500, 200) {
+            @Override
+            protected JFreeChart createGraph() {
+                return createChart(buildDataSet());
+            }
+        };
+    }
+
+    private DataSetBuilder<String, ChartUtil.NumberOnlyBuildLabel> buildDataSet() {
+        DataSetBuilder<String, ChartUtil.NumberOnlyBuildLabel> dataSet = new DataSetBuilder<String, ChartUtil.NumberOnlyBuildLabel>();
+        int builds = 0;
+        for (Run<?, ?> run : job.getBuilds()) {
+            if (run.isBuilding()) {
+                continue;
+            }
+            if (builds++ >= MAX_BUILDS) {
+                break;
+            }
+            TaskOutcomeAction action = run.getAction(TaskOutcomeAction.class);
+            if (action == null) {
+                continue;
+            }
+            TaskOutcomeCounts counts = action.getCounts();
+            ChartUtil.NumberOnlyBuildLabel label = new ChartUtil.NumberOnlyBuildLabel(run);
+            dataSet.add(counts.getAvoidedPercentage(), "avoided", label);
+            dataSet.add(counts.getUpToDatePercentage(), "up-to-date", label);
+            dataSet.add(counts.getCacheHitPercentage(), "cache hits", label);
+        }
+        return dataSet;
+    }
+
+    private static JFreeChart createChart(DataSetBuilder<String, ChartUtil.NumberOnlyBuildLabel> dataSet) {
+        JFreeChart chart = ChartFactory.createLineChart(null, null, "%", dataSet.build(),
+                PlotOrientation.VERTICAL, true, true, false);
+        chart.setBackgroundPaint(Color.WHITE);
+
+        CategoryPlot plot = chart.getCategoryPlot();
+        plot.setBackgroundPaint(Color.WHITE);
+        plot.setOutlinePaint(null);
+        plot.setRangeGridlinesVisible(true);
+        plot.setRangeGridlinePaint(Color.BLACK);
+
+        CategoryAxis domainAxis = new ShiftedCategoryAxis(null);
+        plot.setDomainAxis(domainAxis);
+        domainAxis.setCategoryLabelPositions(CategoryLabelPositions.UP_90);
+        domainAxis.setLowerMargin(0.0);
+        domainAxis.setUpperMargin(0.0);
+        domainAxis.setCategoryMargin(0.0);
+
+        NumberAxis rangeAxis = (NumberAxis) plot.getRangeAxis();
+        rangeAxis.setStandardTickUnits(NumberAxis.createIntegerTickUnits());
+        rangeAxis.setRange(0, 100);
+
+        plot.setInsets(new RectangleInsets(0, 0, 0, 5.0));
+        return chart;
+    }
+
+    @Extension
+    public static class Factory extends TransientActionFactory<Job> {
+        @Override
+        public Class<Job> type() {
+            return Job.class;
+        }
+
+        @Override
+        public Collection<? extends Action> createFor(Job target) {
+            return Collections.singleton(new TaskOutcomeTrendAction(target));
+        }
+    }
+}
@@ -0,0 +1,229 @@
+package hudson.plugins.gradle;
+
+import hudson.Extension;
+import hudson.FilePath;
+import hudson.XmlFile;
+import hudson.model.Job;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import hudson.model.listeners.RunListener;
+import hudson.remoting.VirtualChannel;
+import hudson.util.XStream2;
+import jenkins.MasterToSlaveFileCallable;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The durations of the test classes of a job, as reported by previous builds, which are used to split the tests
+ * into {@link TestShard}s of about equal duration.
+ *
+ * The durations are stored next to the job in {@code gradle-test-durations.xml}. The shards of one build, e.g. the
+ * configurations of a matrix build, all split the tests based on the same snapshot of the durations, even when some
+ * shards already recorded new durations while others are still starting. The snapshots are kept by build, so that
+ * concurrent builds don't replace each other's snapshot, and are dropped when the build completes.
+ */
+public final class TestDurations {
+
+    private static final Logger LOGGER = Logger.getLogger(TestDurations.class.getName());
+
+    /** The most snapshots kept, in case builds did not complete normally. */
+    static int MAX_SNAPSHOTS = Integer.getInteger(TestDurations.class.getName() + ".maxSnapshots", 10);
+
+    private static final XStream2 XSTREAM = new XStream2();
+
+    /** Locks for the duration files, by path. */
+    private static final ConcurrentMap<String, Object> LOCKS = new ConcurrentHashMap<String, Object>();
+
+    static {
+        XSTREAM.alias("gradle-test-durations", Data.class);
+    }
+
+    private final XmlFile file;
+
+    TestDurations(File file) {
+        this.file = new XmlFile(XSTREAM, file);
+    }
+
+    public static TestDurations forJob(Job<?, ?> job) {
+        return new TestDurations(new File(job.getRootDir(), "gradle-test-durations.xml"));
+    }
+
+    /**
+     * Returns the durations in milliseconds by test class, as they were when the first shard of {@code buildId}
+     * asked for them.
+     */
+    public Map<String, Long> snapshot(String buildId) throws IOException {
+        synchronized (lock()) {
+            Data data = load();
+            Map<String, Long> snapshot = data.snapshots.get(buildId);
+            if (snapshot == null) {
+                snapshot = new TreeMap<String, Long>(data.durations);
+                data.snapshots.put(buildId, snapshot);
+                // The oldest snapshots come first
+                Iterator<String> oldest = data.snapshots.keySet().iterator();
+                while (data.snapshots.size() > MAX_SNAPSHOTS) {
+                    oldest.next();
+                    oldest.remove();
+                }
+                file.write(data);
+            }
+            return new HashMap<String, Long>(snapshot);
+        }
+    }
+
+    /**
+     * Drops the snapshot of {@code buildId}, once all its shards have started.
+     */
+    public void release(String buildId) throws IOException {
+        // Called for the builds of all jobs
+        if (!file.exists()) {
+            return;
+        }
+        synchronized (lock()) {
+            Data data = load();
+            if (data.snapshots.remove(buildId) != null) {
+                file.write(data);
+            }
+        }
+    }
+
+    /**
+     * Records the durations measured by a build. The durations of other test classes are kept.
+     */
+    public void record(Map<String, Long> durations) throws IOException {
+        if (durations.isEmpty()) {
+            return;
+        }
+        synchronized (lock()) {
+            Data data = load();
+            data.durations.putAll(durations);
+            file.write(data);
+        }
+    }
+
+    private Data load() throws IOException {
+        if (!file.exists()) {
+            return new Data();
+        }
+        Data data = (Data) file.read();
+        if (data.durations == null) {
+            data.durations = new TreeMap<String, Long>();
+        }
+        if (data.snapshots == null) {
+            data.snapshots = new LinkedHashMap<String, Map<String, Long>>();
+        }
+        return data;
+    }
+
+    private Object lock() {
+        String key = file.getFile().getAbsolutePath();
+        Object lock = LOCKS.get(key);
+        if (lock == null) {
+            Object existing = LOCKS.putIfAbsent(key, lock = new Object());
+            if (existing != null) {
+                lock = existing;
+            }
+        }
+        return lock;
+    }
+
+    /**
+     * Collects the durations of the test classes from the JUnit XML reports written since {@code since}.
+     */
+    public static Map<String, Long> collect(FilePath dir, long since) throws IOException, InterruptedException {
+        return dir.act(new Collect(since));
+    }
+
+    private static final class Data {
+        private Map<String, Long> durations = new TreeMap<String, Long>();
+        /** The snapshots of the running builds, by build id. */
+        private Map<String, Map<String, Long>> snapshots = new LinkedHashMap<String, Map<String, Long>>();
+    }
+
+    @Extension
+    public static class RunListenerImpl extends RunListener<Run<?, ?>> {
+        @Override
+        public void onCompleted(Run<?, ?> run, TaskListener listener) {
+            try {
+                forJob(run.getParent()).release(run.getExternalizableId());
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Failed to drop the test duration snapshot of " + run, e);
+            }
+        }
+    }
+
+    /**
+     * Reads only the root element of each report, which carries the name and the duration of the test class.
+     */
+    static final class Collect extends MasterToSlaveFileCallable<HashMap<String, Long>> {
+        private static final long serialVersionUID = 1L;
+
+        private final long since;
+
+        Collect(long since) {
+            this.since = since;
+        }
+
+        @Override
+        public HashMap<String, Long> invoke(File dir, VirtualChannel channel) throws IOException, InterruptedException {
+            HashMap<String, Long> durations = new HashMap<String, Long>();
+            XMLInputFactory factory = XMLInputFactory.newInstance();
+            factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+            factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+            for (FilePath report : new FilePath(dir).list("**/build/test-results/**/TEST-*.xml")) {
+                File file = new File(report.getRemote());
+                if (file.lastModified() < since) {
+                    // left over from a previous build
+                    continue;
+                }
+                try {
+                    readTestSuite(factory, file, durations);
+                } catch (XMLStreamException e) {
+                    LOGGER.log(Level.FINE, "Failed to read the test report " + file, e);
+                } catch (NumberFormatException e) {
+                    LOGGER.log(Level.FINE, "Failed to read the test report " + file, e);
+                }
+            }
+            return durations;
+        }
+
+        private static void readTestSuite(XMLInputFactory factory, File file, Map<String, Long> durations)
+                throws IOException, XMLStreamException {
+            InputStream in = new FileInputStream(file);
+            try {
+                XMLStreamReader reader = factory.createXMLStreamReader(in);
+                try {
+                    while (reader.hasNext() && reader.next() != XMLStreamReader.START_ELEMENT) {
+                        // skip to the root element
+                    }
+                    if (reader.isStartElement() && "testsuite".equals(reader.getLocalName())) {
+                        String name = reader.getAttributeValue(null, "name");
+                        String time = reader.getAttributeValue(null, "time");
+                        if (name != null && time != null) {
+                            durations.put(name, Math.round(Double.parseDouble(time) * 1000));
+                        }
+                    }
+                } finally {
+                    reader.close();
+                }
+            } finally {
+                in.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package hudson.plugins.gradle;
+
+import hudson.FilePath;
+import hudson.model.AbstractBuild;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Runs a part of the tests of a build, so that several builds, e.g. the configurations of a matrix build, can run
+ * the tests in parallel on different nodes.
+ *
+ * The test classes are split into shards of about equal duration, based on the {@link TestDurations} of previous
+ * builds. The shard is selected with an init script, which restricts the {@code Test} tasks to the classes of the
+ * shard. The first shard runs all test classes except those of the other shards, so that new test classes run
+ * exactly once. After the build, the durations from the JUnit XML reports are recorded for the next builds.
+ */
+public class TestShard {
+
+    private static final Comparator<Map.Entry<String, Long>> SLOWEST_FIRST = new Comparator<Map.Entry<String, Long>>() {
+        @Override
+        public int compare(Map.Entry<String, Long> a, Map.Entry<String, Long> b) {
+            int byDuration = b.getValue().compareTo(a.getValue());
+            return byDuration != 0 ? byDuration : a.getKey().compareTo(b.getKey());
+        }
+    };
+
+    private final TestDurations durations;
+    private final FilePath reportsDir;
+    private final FilePath initScript;
+
+    private TestShard(TestDurations durations, FilePath reportsDir, FilePath initScript) {
+        this.durations = durations;
+        this.reportsDir = reportsDir;
+        this.initScript = initScript;
+    }
+
+    /**
+     * Writes the init script selecting shard {@code shardIndex} of {@code shardCount} for a build.
+     *
+     * @param workspace the workspace of the build, next to which the init script is written
+     * @param reportsDir the directory containing the projects of the build, which is searched for test reports
+     */
+    public static TestShard prepare(Run<?, ?> build, FilePath workspace, FilePath reportsDir, int shardCount,
+                                    int shardIndex, TaskListener listener) throws IOException, InterruptedException {
+        Run<?, ?> rootBuild = build instanceof AbstractBuild ? ((AbstractBuild<?, ?>) build).getRootBuild() : build;
+        TestDurations durations = TestDurations.forJob(rootBuild.getParent());
+        Map<String, Long> snapshot = durations.snapshot(rootBuild.getExternalizableId());
+        List<List<String>> shards = partition(snapshot, shardCount);
+        GradleLogger gradleLogger = new GradleLogger(listener);
+        if (snapshot.isEmpty()) {
+            gradleLogger.info("No test durations have been recorded yet, so the first shard runs all tests.");
+        } else {
+            gradleLogger.info("Running test shard " + shardIndex + " of " + shardCount + " with "
+                    + (shardIndex == 0 ? "all test classes except " + countOthers(shards) + " classes of the other shards"
+                    : shards.get(shardIndex).size() + " test classes") + ".");
+        }
+
+        FilePath initScript = InitScripts.write(workspace != null ? workspace : reportsDir, "gradle-test-shard",
+                initScript(shards, shardIndex));
+        return new TestShard(durations, reportsDir, initScript);
+    }
+
+    public FilePath getInitScript() {
+        return initScript;
+    }
+
+    /**
+     * Records the durations of the tests run by the shard and removes the init script.
+     */
+    public void finish(TaskListener listener) throws InterruptedException {
+        try {
+            // The init script was written on the node, so its timestamp has no clock skew to the reports
+            long since = initScript.lastModified() - 2000;
+            durations.record(TestDurations.collect(reportsDir, since));
+            initScript.delete();
+        } catch (IOException e) {
+            new GradleLogger(listener).error("Failed to record the test durations: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Splits the test classes into {@code shardCount} shards, adding the slowest remaining class to the shard with
+     * the lowest total duration. The result only depends on the durations, so all shards compute the same split.
+     */
+    static List<List<String>> partition(Map<String, Long> durations, int shardCount) {
+        List<Map.Entry<String, Long>> classes = new ArrayList<Map.Entry<String, Long>>(durations.entrySet());
+        Collections.sort(classes, SLOWEST_FIRST);
+
+        List<List<String>> shards = new ArrayList<List<String>>(shardCount);
+        long[] totals = new long[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            shards.add(new ArrayList<String>());
+        }
+        for (Map.Entry<String, Long> testClass : classes) {
+            int lightest = 0;
+            for (int i = 1; i < shardCount; i++) {
+                if (totals[i] < totals[lightest]) {
+                    lightest = i;
+                }
+            }
+            shards.get(lightest).add(testClass.getKey());
+            totals[lightest] += testClass.getValue();
+        }
+        return shards;
+    }
+
+    static String initScript(List<List<String>> shards, int shardIndex) {
+        StringBuilder script = new StringBuilder();
+        script.append("// Test shard ").append(shardIndex).append(" of ").append(shards.size())
+                .append(", generated by the Jenkins Gradle plugin\n");
+        script.append("allprojects {\n");
+        script.append("    tasks.withType(Test) {\n");
+        if (shardIndex == 0) {
+            for (int i = 1; i < shards.size(); i++) {
+                for (String testClass : shards.get(i)) {
+                    String path = testClass.replace('.', '/');
+                    script.append("        exclude ").append(InitScripts.quote(path + ".class")).append(", ")
+                            .append(InitScripts.quote(path + "$*.class")).append('\n');
+                }
+            }
+        } else if (shards.get(shardIndex).isEmpty()) {
+            script.append("        enabled = false\n");
+        } else {
+            script.append("        if (filter.hasProperty('failOnNoMatchingTests')) {\n");
+            script.append("            filter.failOnNoMatchingTests = false\n");
+            script.append("        }\n");
+            for (String testClass : shards.get(shardIndex)) {
+                script.append("        filter.includeTestsMatching ").append(InitScripts.quote(testClass)).append('\n');
+            }
+        }
+        script.append("    }\n");
+        script.append("}\n");
+        return script.toString();
+    }
+
+    private static int countOthers(List<List<String>> shards) {
+        int count = 0;
+        for (int i = 1; i < shards.size(); i++) {
+            count += shards.get(i).size();
+        }
+        return count;
+    }
+}
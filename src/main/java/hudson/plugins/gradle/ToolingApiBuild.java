@@ -0,0 +1,301 @@
+package hudson.plugins.gradle;
+
+import hudson.model.TaskListener;
+import hudson.remoting.VirtualChannel;
+import jenkins.MasterToSlaveFileCallable;
+import org.gradle.tooling.BuildException;
+import org.gradle.tooling.BuildLauncher;
+import org.gradle.tooling.CancellationTokenSource;
+import org.gradle.tooling.GradleConnectionException;
+import org.gradle.tooling.GradleConnector;
+import org.gradle.tooling.ProjectConnection;
+import org.gradle.tooling.ResultHandler;
+import org.gradle.tooling.events.OperationType;
+import org.gradle.tooling.events.ProgressEvent;
+import org.gradle.tooling.events.ProgressListener;
+import org.gradle.tooling.events.task.TaskFinishEvent;
+import org.gradle.tooling.events.task.TaskOperationResult;
+import org.gradle.tooling.events.task.TaskSkippedResult;
+import org.gradle.tooling.events.task.TaskStartEvent;
+import org.gradle.tooling.events.task.TaskSuccessResult;
+import org.gradle.tooling.events.test.JvmTestKind;
+import org.gradle.tooling.events.test.JvmTestOperationDescriptor;
+import org.gradle.tooling.events.test.TestFailureResult;
+import org.gradle.tooling.events.test.TestFinishEvent;
+import org.gradle.tooling.events.test.TestSkippedResult;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs a Gradle build through the Gradle Tooling API on the node holding the project directory.
+ *
+ * The console output of the build is still annotated by {@link GradleConsoleAnnotator}, which finds the build scan.
+ * Tasks and tests are taken from the typed progress events of the Tooling API instead of from the console output,
+ * which gives the exact outcome and duration of each task.
+ */
+public class ToolingApiBuild extends MasterToSlaveFileCallable<BuildSummary> {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final String WRAPPER_PROPERTIES = "gradle/wrapper/gradle-wrapper.properties";
+
+    private final String gradleHome;
+    private final String wrapperDir;
+    private final Map<String, String> env;
+    private final List<String> arguments;
+    private final List<String> tasks;
+    private final TaskListener listener;
+    private final String charset;
+    private final long logOffset;
+    private final List<String> maskedValues;
+    private final boolean writeNotes;
+    private final int step;
+
+    /**
+     * @param gradleHome the Gradle installation to use, or {@code null}
+     * @param wrapperDir the directory containing the Gradle wrapper to use, or {@code null}
+     * @param arguments the command line arguments, without the tasks
+     * @param logOffset the number of bytes in the build log before the Gradle output starts, or -1 if not known
+     * @param maskedValues the values to replace by {@code ****} in the output
+     * @param writeNotes whether console notes can be encoded on the node running the build
+     * @param step the number of the step in the {@link TaskExecutions} of the build, see
+     *             {@link TaskExecutions#reserveStep()}
+     */
+    public ToolingApiBuild(String gradleHome, String wrapperDir, Map<String, String> env, List<String> arguments,
+                           List<String> tasks, TaskListener listener, Charset charset, long logOffset,
+                           List<String> maskedValues, boolean writeNotes, int step) {
+        this.gradleHome = gradleHome;
+        this.wrapperDir = wrapperDir;
+        this.env = env;
+        this.arguments = arguments;
+        this.tasks = tasks;
+        this.listener = listener;
+        this.charset = charset.name();
+        this.logOffset = logOffset;
+        this.maskedValues = new ArrayList<String>(maskedValues);
+        this.writeNotes = writeNotes;
+        this.step = step;
+    }
+
+    @Override
+    public BuildSummary invoke(File projectDir, VirtualChannel channel) throws IOException, InterruptedException {
+        GradleLogger gradleLogger = new GradleLogger(listener);
+        GradleConsoleAnnotator gca = new GradleConsoleAnnotator(listener.getLogger(), Charset.forName(charset), logOffset,
+                new TaskExecutions().newRecorder(step));
+        gca.setRecordTasks(false);
+        gca.setMaskedValues(maskedValues);
+        gca.setWriteNotes(writeNotes);
+        OutputStream output = new SharedOutputStream(gca);
+        ProgressRecorder progress = new ProgressRecorder(gca);
+
+        GradleConnector connector = GradleConnector.newConnector().forProjectDirectory(projectDir);
+        configureDistribution(connector, gradleLogger);
+        String userHome = env.get("GRADLE_USER_HOME");
+        if (userHome != null) {
+            connector.useGradleUserHomeDir(new File(userHome));
+        }
+
+        CancellationTokenSource cancellation = GradleConnector.newCancellationTokenSource();
+        BuildResult result = new BuildResult();
+        ProjectConnection connection = connector.connect();
+        try {
+            BuildLauncher build = connection.newBuild()
+                    .forTasks(tasks.toArray(new String[tasks.size()]))
+                    .withArguments(arguments)
+                    .setEnvironmentVariables(env)
+                    .setStandardOutput(output)
+                    .setStandardError(output)
+                    .withCancellationToken(cancellation.token());
+            String javaHome = env.get("JAVA_HOME");
+            if (javaHome != null) {
+                build.setJavaHome(new File(javaHome));
+            }
+            build.addProgressListener(progress, EnumSet.of(OperationType.TASK, OperationType.TEST));
+            build.run(result);
+            try {
+                result.await();
+            } catch (InterruptedException e) {
+                cancellation.cancel();
+                throw e;
+            }
+        } finally {
+            // Blocks until a cancelled build has stopped
+            connection.close();
+            gca.finish();
+        }
+
+        if (result.failure != null && !(result.failure instanceof BuildException)) {
+            // Build failures have been reported in the console by Gradle itself
+            result.failure.printStackTrace(listener.error("Gradle Tooling API build failed"));
+        }
+        progress.logTests(gradleLogger);
+        return new BuildSummary(result.failure == null, gca);
+    }
+
+    private void configureDistribution(GradleConnector connector, GradleLogger gradleLogger) throws IOException {
+        if (gradleHome != null) {
+            connector.useInstallation(new File(gradleHome));
+            return;
+        }
+        if (wrapperDir != null) {
+            File propertiesFile = new File(wrapperDir, WRAPPER_PROPERTIES);
+            if (propertiesFile.isFile()) {
+                Properties properties = new Properties();
+                InputStream in = new FileInputStream(propertiesFile);
+                try {
+                    properties.load(in);
+                } finally {
+                    in.close();
+                }
+                String distributionUrl = properties.getProperty("distributionUrl");
+                if (distributionUrl != null) {
+                    try {
+                        connector.useDistribution(new URI(distributionUrl));
+                        return;
+                    } catch (URISyntaxException e) {
+                        throw new IOException("Invalid distributionUrl in " + propertiesFile, e);
+                    }
+                }
+            }
+            gradleLogger.info("No distributionUrl found in " + propertiesFile + ", using the distribution of the build.");
+        }
+        // The wrapper of the project directory, or the Gradle version of the Tooling API
+        connector.useBuildDistribution();
+    }
+
+    static TaskOutcome outcomeOf(TaskOperationResult result) {
+        if (result instanceof TaskSuccessResult) {
+            TaskSuccessResult success = (TaskSuccessResult) result;
+            if (success.isFromCache()) {
+                return TaskOutcome.FROM_CACHE;
+            }
+            return success.isUpToDate() ? TaskOutcome.UP_TO_DATE : TaskOutcome.EXECUTED;
+        }
+        if (result instanceof TaskSkippedResult) {
+            String skipMessage = ((TaskSkippedResult) result).getSkipMessage();
+            TaskOutcome outcome = skipMessage == null ? TaskOutcome.EXECUTED
+                    : TaskOutcome.forProgressStatus(skipMessage, 0, skipMessage.length());
+            return outcome == TaskOutcome.EXECUTED ? TaskOutcome.SKIPPED : outcome;
+        }
+        // Failed tasks have been executed
+        return TaskOutcome.EXECUTED;
+    }
+
+    /**
+     * Records the task and test events of a build.
+     */
+    private static final class ProgressRecorder implements ProgressListener {
+        private final GradleConsoleAnnotator gca;
+        /** The log position at the start of each running task, by task path. */
+        private final Map<String, Long> offsets = new ConcurrentHashMap<String, Long>();
+        private final AtomicInteger testsPassed = new AtomicInteger();
+        private final AtomicInteger testsFailed = new AtomicInteger();
+        private final AtomicInteger testsSkipped = new AtomicInteger();
+
+        ProgressRecorder(GradleConsoleAnnotator gca) {
+            this.gca = gca;
+        }
+
+        @Override
+        public void statusChanged(ProgressEvent event) {
+            if (event instanceof TaskStartEvent) {
+                offsets.put(((TaskStartEvent) event).getDescriptor().getTaskPath(), gca.getLogPosition());
+            } else if (event instanceof TaskFinishEvent) {
+                TaskFinishEvent finish = (TaskFinishEvent) event;
+                String path = finish.getDescriptor().getTaskPath();
+                Long offset = offsets.remove(path);
+                TaskOperationResult result = finish.getResult();
+                TaskOutcome outcome = outcomeOf(result);
+                gca.getTaskRecorder().taskExecuted(path.startsWith(":") ? path.substring(1) : path, outcome,
+                        result.getStartTime(), result.getEndTime() - result.getStartTime(),
+                        offset != null ? offset : gca.getLogPosition());
+                gca.getTaskOutcomeCounts().increment(outcome);
+            } else if (event instanceof TestFinishEvent) {
+                TestFinishEvent finish = (TestFinishEvent) event;
+                if (!(finish.getDescriptor() instanceof JvmTestOperationDescriptor)
+                        || ((JvmTestOperationDescriptor) finish.getDescriptor()).getJvmTestKind() != JvmTestKind.ATOMIC) {
+                    // Only count test methods, not suites
+                    return;
+                }
+                if (finish.getResult() instanceof TestFailureResult) {
+                    testsFailed.incrementAndGet();
+                } else if (finish.getResult() instanceof TestSkippedResult) {
+                    testsSkipped.incrementAndGet();
+                } else {
+                    testsPassed.incrementAndGet();
+                }
+            }
+        }
+
+        void logTests(GradleLogger gradleLogger) {
+            if (testsPassed.get() + testsFailed.get() + testsSkipped.get() > 0) {
+                gradleLogger.info(String.format("Tests: %d passed, %d failed, %d skipped.",
+                        testsPassed.get(), testsFailed.get(), testsSkipped.get()));
+            }
+        }
+    }
+
+    /**
+     * Waits for the outcome of a build started in the background.
+     */
+    private static final class BuildResult implements ResultHandler<Void> {
+        private final CountDownLatch done = new CountDownLatch(1);
+        private volatile GradleConnectionException failure;
+
+        @Override
+        public void onComplete(Void result) {
+            done.countDown();
+        }
+
+        @Override
+        public void onFailure(GradleConnectionException failure) {
+            this.failure = failure;
+            done.countDown();
+        }
+
+        void await() throws InterruptedException {
+            done.await();
+        }
+    }
+
+    /**
+     * Lets the standard output and standard error of the build, which arrive on different threads,
+     * share one annotator.
+     */
+    private static final class SharedOutputStream extends FilterOutputStream {
+        SharedOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public synchronized void write(int b) throws IOException {
+            out.write(b);
+        }
+
+        @Override
+        public synchronized void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+        }
+
+        @Override
+        public synchronized void flush() throws IOException {
+            out.flush();
+        }
+    }
+}
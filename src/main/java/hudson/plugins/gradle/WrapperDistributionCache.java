@@ -0,0 +1,313 @@
+package hudson.plugins.gradle;
+
+import hudson.FilePath;
+import hudson.Util;
+import hudson.model.Node;
+import hudson.model.TaskListener;
+import hudson.remoting.VirtualChannel;
+import jenkins.MasterToSlaveFileCallable;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.math.BigInteger;
+import java.net.URL;
+import java.nio.file.Files;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Provisions the distribution of a Gradle wrapper from a cache shared by all workspaces of a node.
+ *
+ * Distributions are downloaded once per node and unpacked into a directory named after the SHA-256 checksum of the
+ * distribution archive. Before a build uses the wrapper, the unpacked distribution is linked into the
+ * {@code GRADLE_USER_HOME} of the build, at the location where the wrapper looks for it, so that the wrapper
+ * neither downloads nor unpacks the distribution. This helps most for fresh agents and for builds using the
+ * workspace as {@code GRADLE_USER_HOME}.
+ *
+ * Downloads are tried from the mirror first, if configured, e.g. a {@code file://} URL of a directory holding
+ * the distribution archives. A {@code distributionSha256Sum} in the wrapper properties is verified.
+ */
+public class WrapperDistributionCache {
+
+    /** Enables the cache. */
+    static boolean ENABLED = Boolean.getBoolean(WrapperDistributionCache.class.getName() + ".enabled");
+    /** Base URL of a mirror of the Gradle distributions, used before the {@code distributionUrl}. */
+    static String MIRROR = System.getProperty(WrapperDistributionCache.class.getName() + ".mirror");
+
+    private static final String WRAPPER_PROPERTIES = "gradle/wrapper/gradle-wrapper.properties";
+    private static final String CACHE_DIR = "gradle-wrapper-dists";
+
+    /** Locks held by this JVM, since file locks only exclude other processes. */
+    private static final ConcurrentMap<String, Object> MONITORS = new ConcurrentHashMap<String, Object>();
+
+    /**
+     * Provisions the distribution of the wrapper in {@code wrapperDir}, if it uses a distribution in
+     * {@code GRADLE_USER_HOME}. Failures are logged, leaving the download to the wrapper.
+     */
+    public static void provision(Node node, FilePath wrapperDir, String gradleUserHome, TaskListener listener)
+            throws InterruptedException {
+        FilePath rootPath = node.getRootPath();
+        if (rootPath == null) {
+            return;
+        }
+        try {
+            wrapperDir.act(new Provision(rootPath.child(CACHE_DIR).getRemote(), gradleUserHome, MIRROR, listener));
+        } catch (IOException e) {
+            new GradleLogger(listener).info("Could not provision the Gradle wrapper distribution, "
+                    + "leaving that to the wrapper: " + e);
+        }
+    }
+
+    /**
+     * Links the cached distribution into {@code userHome}, downloading it first if necessary.
+     *
+     * @return the directory of the distribution in {@code userHome}, or {@code null} if the wrapper in
+     * {@code wrapperDir} does not use a distribution which can be provisioned
+     */
+    static File provision(File wrapperDir, File cacheDir, File userHome, String mirror, GradleLogger gradleLogger)
+            throws IOException, InterruptedException {
+        File propertiesFile = new File(wrapperDir, WRAPPER_PROPERTIES);
+        if (!propertiesFile.isFile()) {
+            return null;
+        }
+        Properties properties = new Properties();
+        InputStream in = new FileInputStream(propertiesFile);
+        try {
+            properties.load(in);
+        } finally {
+            in.close();
+        }
+        String distributionUrl = properties.getProperty("distributionUrl");
+        if (distributionUrl == null
+                || !"GRADLE_USER_HOME".equals(properties.getProperty("distributionBase", "GRADLE_USER_HOME"))) {
+            return null;
+        }
+
+        // The layout used by the wrapper
+        String zipName = distributionUrl.substring(distributionUrl.lastIndexOf('/') + 1);
+        String distName = zipName.endsWith(".zip") ? zipName.substring(0, zipName.length() - 4) : zipName;
+        File distDir = new File(new File(new File(userHome, properties.getProperty("distributionPath", "wrapper/dists")),
+                distName), urlHash(distributionUrl));
+        File marker = new File(distDir, zipName + ".ok");
+        if (marker.isFile()) {
+            return distDir;
+        }
+
+        String sha256 = properties.getProperty("distributionSha256Sum");
+        File cached = getDistribution(cacheDir, distributionUrl, zipName,
+                sha256 == null ? null : sha256.trim().toLowerCase(Locale.ENGLISH), mirror, gradleLogger);
+        if (!distDir.isDirectory() && !distDir.mkdirs()) {
+            throw new IOException("Failed to create " + distDir);
+        }
+        // The wrapper locks the same file while installing a distribution
+        File lockFile = new File(distDir, zipName + ".lck");
+        synchronized (monitor(lockFile)) {
+            RandomAccessFile lock = new RandomAccessFile(lockFile, "rw");
+            try {
+                lock.getChannel().lock();
+                if (!marker.isFile()) {
+                    File target = new File(distDir, cached.getName());
+                    if (!target.exists()) {
+                        link(cached, target);
+                    }
+                    FileUtils.touch(marker);
+                    gradleLogger.info("Provisioned the Gradle wrapper distribution " + distName + " from " + cached + ".");
+                }
+            } finally {
+                lock.close();
+            }
+        }
+        return distDir;
+    }
+
+    /**
+     * Returns the root directory of the unpacked distribution from the cache, downloading it if necessary.
+     */
+    private static File getDistribution(File cacheDir, String distributionUrl, String zipName, String expectedSha256,
+                                        String mirror, GradleLogger gradleLogger)
+            throws IOException, InterruptedException {
+        File urlsDir = new File(cacheDir, "urls");
+        if (!urlsDir.isDirectory() && !urlsDir.mkdirs()) {
+            throw new IOException("Failed to create " + urlsDir);
+        }
+        String urlKey = Util.getDigestOf(distributionUrl);
+        File urlIndex = new File(urlsDir, urlKey);
+        File lockFile = new File(urlsDir, urlKey + ".lck");
+        synchronized (monitor(lockFile)) {
+            RandomAccessFile lock = new RandomAccessFile(lockFile, "rw");
+            try {
+                lock.getChannel().lock();
+
+                String sha256 = expectedSha256 != null ? expectedSha256
+                        : urlIndex.isFile() ? FileUtils.readFileToString(urlIndex, "UTF-8").trim() : null;
+                if (sha256 != null && new File(cacheDir, sha256).isDirectory()) {
+                    return distributionRoot(new File(cacheDir, sha256));
+                }
+
+                File zip = File.createTempFile("download", ".zip", cacheDir);
+                try {
+                    sha256 = download(distributionUrl, zipName, mirror, zip, gradleLogger);
+                    if (expectedSha256 != null && !expectedSha256.equals(sha256)) {
+                        throw new IOException("Checksum of " + distributionUrl + " is " + sha256
+                                + ", but the wrapper expects " + expectedSha256);
+                    }
+                    File dist = new File(cacheDir, sha256);
+                    if (!dist.isDirectory()) {
+                        File unpacked = new File(cacheDir, sha256 + ".tmp-" + UUID.randomUUID());
+                        new FilePath(zip).unzip(new FilePath(unpacked));
+                        if (!unpacked.renameTo(dist)) {
+                            FileUtils.deleteDirectory(unpacked);
+                            if (!dist.isDirectory()) {
+                                throw new IOException("Failed to move the distribution to " + dist);
+                            }
+                        }
+                    }
+                    writeAtomically(urlIndex, sha256);
+                    return distributionRoot(dist);
+                } finally {
+                    if (!zip.delete()) {
+                        zip.deleteOnExit();
+                    }
+                }
+            } finally {
+                lock.close();
+            }
+        }
+    }
+
+    /**
+     * Downloads the distribution, from the mirror if possible.
+     *
+     * @return the SHA-256 checksum of the distribution archive
+     */
+    private static String download(String distributionUrl, String zipName, String mirror, File zip,
+                                   GradleLogger gradleLogger) throws IOException {
+        if (mirror != null) {
+            String mirrorUrl = mirror.endsWith("/") ? mirror + zipName : mirror + '/' + zipName;
+            try {
+                gradleLogger.info("Downloading " + mirrorUrl + " into the node cache.");
+                return download(new URL(mirrorUrl), zip);
+            } catch (IOException e) {
+                gradleLogger.info("Could not download " + mirrorUrl + ": " + e);
+            }
+        }
+        gradleLogger.info("Downloading " + distributionUrl + " into the node cache.");
+        return download(new URL(distributionUrl), zip);
+    }
+
+    private static String download(URL url, File zip) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+        InputStream in = new DigestInputStream(url.openStream(), digest);
+        try {
+            OutputStream out = new FileOutputStream(zip);
+            try {
+                IOUtils.copy(in, out);
+            } finally {
+                out.close();
+            }
+        } finally {
+            in.close();
+        }
+        return Util.toHexString(digest.digest());
+    }
+
+    private static File distributionRoot(File dist) throws IOException {
+        File[] dirs = dist.listFiles();
+        if (dirs == null || dirs.length != 1 || !dirs[0].isDirectory()) {
+            throw new IOException("Expected a single directory in the distribution " + dist);
+        }
+        return dirs[0];
+    }
+
+    private static void link(File cached, File target) throws IOException {
+        try {
+            Files.createSymbolicLink(target.toPath(), cached.toPath());
+        } catch (IOException e) {
+            // e.g. no privilege to create symbolic links on Windows
+            FileUtils.copyDirectory(cached, target);
+        } catch (UnsupportedOperationException e) {
+            FileUtils.copyDirectory(cached, target);
+        }
+    }
+
+    private static void writeAtomically(File file, String content) throws IOException {
+        File tmp = new File(file.getPath() + ".tmp-" + UUID.randomUUID());
+        FileUtils.writeStringToFile(tmp, content, "UTF-8");
+        if (!tmp.renameTo(file)) {
+            file.delete();
+            if (!tmp.renameTo(file)) {
+                tmp.delete();
+                throw new IOException("Failed to write " + file);
+            }
+        }
+    }
+
+    /**
+     * The hash the wrapper uses for the directory of a distribution.
+     */
+    static String urlHash(String distributionUrl) {
+        try {
+            MessageDigest md5 = MessageDigest.getInstance("MD5");
+            md5.update(distributionUrl.getBytes("UTF-8"));
+            return new BigInteger(1, md5.digest()).toString(36);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static Object monitor(File file) {
+        String key = file.getAbsolutePath();
+        Object monitor = MONITORS.get(key);
+        if (monitor == null) {
+            Object existing = MONITORS.putIfAbsent(key, monitor = new Object());
+            if (existing != null) {
+                monitor = existing;
+            }
+        }
+        return monitor;
+    }
+
+    private static final class Provision extends MasterToSlaveFileCallable<Void> {
+        private static final long serialVersionUID = 1L;
+
+        private final String cacheDir;
+        private final String gradleUserHome;
+        private final String mirror;
+        private final TaskListener listener;
+
+        Provision(String cacheDir, String gradleUserHome, String mirror, TaskListener listener) {
+            this.cacheDir = cacheDir;
+            this.gradleUserHome = gradleUserHome;
+            this.mirror = mirror;
+            this.listener = listener;
+        }
+
+        @Override
+        public Void invoke(File wrapperDir, VirtualChannel channel) throws IOException, InterruptedException {
+            File userHome = gradleUserHome != null ? new File(gradleUserHome)
+                    : new File(System.getProperty("user.home"), ".gradle");
+            provision(wrapperDir, new File(cacheDir), userHome, mirror, new GradleLogger(listener));
+            return null;
+        }
+    }
+}
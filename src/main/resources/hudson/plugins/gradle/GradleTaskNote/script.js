@@ -3,10 +3,47 @@
     var outline = null;
     var loading = false;
 
-    var queue = []; // gradle tasks are queued up until we load outline.
+    var queue = []; // functions adding to the outline are queued up until we load outline.
 
-    function loadOutline() {
-        if (outline != null)  return false;   // already loaded
+    // Builds which recorded their tasks serve the outline from that index. Until we know whether
+    // the index exists, the gradle tasks found in the page are kept in 'pending'.
+    var indexed = null;
+    var pending = [];
+    var PAGE_SIZE = 200;
+    // While the build is running, only the tasks after those already shown are fetched
+    var POLL_INTERVAL = 5000;
+
+    var buildUrl = consoleBuildUrl();
+
+    // Headers carry the anchor of their task, derived from its index. For headers without one, like those of older
+    // builds, the headers of a task seen so far, in the page and in the outline, name the n-th header of each task alike
+    var headersInPage = {};
+    var headersInOutline = {};
+
+    // The list of tasks of each Gradle step, so that steps running at the same time don't interleave
+    var stepLists = {};
+    var steps = 0;
+
+    function anchorName(taskName, seen) {
+        var key = taskName.replace(/[^A-Za-z0-9_-]/g, "_");
+        seen[key] = (seen[key] || 0) + 1;
+        return "gradle-task-" + key + "-" + seen[key];
+    }
+
+    function consoleBuildUrl() {
+        var path = document.location.pathname;
+        if (!/\/console(Full)?$/.test(path) || /\/gradleTasks\/console$/.test(path)) {
+            return null;
+        }
+        return path.replace(/console(Full)?$/, "");
+    }
+
+    function loadOutline(f) {
+        if (outline != null) {
+            f();
+            return;
+        }
+        queue.push(f);
 
         if (!loading) {
             loading = true;
@@ -17,33 +54,165 @@
                 outline = document.getElementById("console-outline-body")
                 			.getElementsByTagName('ul')[0];
                 loading = false;
-                queue.each(handle);
+                queue.each(function(f) { f(); });
+                queue = [];
             }});
         }
-        return true;
     }
 
-    function handle(e) {
-        if (loadOutline()) {
-            queue.push(e);
-        } else {
-            var id = "gradle-task-" + (iota++);
-            outline.appendChild(parseHtml("<li><a href='#" + id + "'>" + e.innerHTML + "</a></li>"));
+    function taskName(e) {
+        return e.textContent || e.innerText || "";
+    }
 
-            if (document.all)
-                e.innerHTML += '<a name="' + id + '"/>';  // IE8 loses "name" attr in appendChild
-            else {
-                var a = document.createElement("a");
-                a.setAttribute("name", id);
-                e.appendChild(a);
+    function addAnchor(e) {
+        var anchors = e.getElementsByTagName("a");
+        for (var i = 0; i < anchors.length; i++) {
+            if (anchors[i].getAttribute("name")) {
+                return anchors[i].getAttribute("name");
             }
         }
+        var id = anchorName(taskName(e), headersInPage);
+        if (document.all)
+            e.innerHTML += '<a name="' + id + '"/>';  // IE8 loses "name" attr in appendChild
+        else {
+            var a = document.createElement("a");
+            a.setAttribute("name", id);
+            e.appendChild(a);
+        }
+        return id;
+    }
+
+    function handle(e, id) {
+        loadOutline(function() {
+            var a = document.createElement("a");
+            a.setAttribute("href", "#" + id);
+            a.appendChild(document.createTextNode(taskName(e)));
+            var li = document.createElement("li");
+            li.appendChild(a);
+            outline.appendChild(li);
+        });
+    }
+
+    function indexAvailable(available) {
+        indexed = available;
+        if (!available) {
+            pending.each(function(header) {
+                handle(header.element, header.id);
+            });
+        }
+        pending = [];
+    }
+
+    function loadPage(start) {
+        new Ajax.Request(buildUrl + "gradleTasks/outline?start=" + start + "&count=" + PAGE_SIZE, {
+            method: "get",
+            onSuccess: function(rsp) {
+                var page = rsp.responseText.evalJSON();
+                if (indexed == null) {
+                    indexAvailable(true);
+                }
+                if (page.tasks.length > 0) {
+                    loadOutline(function() {
+                        showPage(page);
+                    });
+                } else if (page.building) {
+                    poll(page.start);
+                }
+            },
+            onFailure: function() {
+                if (indexed == null) {
+                    indexAvailable(false);
+                }
+            }
+        });
+    }
+
+    function stepList(step) {
+        if (stepLists[step] == null) {
+            var label = document.createElement("span");
+            label.appendChild(document.createTextNode("Gradle step " + (step + 1)));
+            var li = document.createElement("li");
+            li.className = "gradle-outline-step";
+            li.appendChild(label);
+            stepLists[step] = document.createElement("ul");
+            steps++;
+            li.appendChild(stepLists[step]);
+            outline.appendChild(li);
+        }
+        return stepLists[step];
+    }
+
+    function showPage(page) {
+        var more = document.getElementById("gradle-outline-more");
+        if (more != null) {
+            more.parentNode.removeChild(more);
+        }
+
+        page.tasks.each(function(task) {
+            var id = task.anchor || anchorName(task.name, headersInOutline);
+            var a = document.createElement("a");
+            a.setAttribute("href", "#" + id);
+            a.onclick = function() {
+                // Tasks of Pipeline builds have no known position in the log
+                if (document.getElementsByName(id).length > 0 || task.offset < 0) {
+                    return true;
+                }
+                // The header is not part of this page, e.g. because the console only shows the end of the log
+                document.location.href = buildUrl + "gradleTasks/console?offset=" + task.offset;
+                return false;
+            };
+            a.appendChild(document.createTextNode(task.name));
+            var li = document.createElement("li");
+            li.appendChild(a);
+            stepList(task.step || 0).appendChild(li);
+        });
+        // Only name the steps once there is more than one
+        outline.className = steps > 1 ? "gradle-outline-steps" : "";
+
+        var next = page.start + page.tasks.length;
+        if (page.building) {
+            if (next < page.total) {
+                loadPage(next);
+            } else {
+                poll(next);
+            }
+        } else if (next < page.total) {
+            var link = document.createElement("a");
+            link.setAttribute("href", "#");
+            link.appendChild(document.createTextNode("(" + (page.total - next) + " more)"));
+            link.onclick = function() {
+                loadPage(next);
+                return false;
+            };
+            more = document.createElement("li");
+            more.setAttribute("id", "gradle-outline-more");
+            more.appendChild(link);
+            outline.appendChild(more);
+        }
+    }
+
+    function poll(start) {
+        window.setTimeout(function() {
+            loadPage(start);
+        }, POLL_INTERVAL);
+    }
+
+    if (buildUrl != null) {
+        loadPage(0);
+    } else {
+        indexed = false;
     }
 
     Behaviour.register({
-        // insert <a name="..."> for each Gradle task and put it into the outline
+        // insert <a name="..."> for each Gradle task, which the outline links to, and put it into the outline,
+        // unless the outline is served from the index
         "b.gradle-task" : function(e) {
-            handle(e);
+            var id = addAnchor(e);
+            if (indexed == null) {
+                pending.push({element: e, id: id});
+            } else if (!indexed) {
+                handle(e, id);
+            }
         }
     });
 }());
@@ -0,0 +1,66 @@
+package hudson.plugins.gradle
+
+import spock.lang.Specification
+import spock.lang.Unroll
+
+@Unroll
+class AffectedProjectsTest extends Specification {
+
+    static final String OUTPUT = '''build,check
+:\t/ws\t\tbuild,check
+:core\t/ws/core\t\tbuild,check
+:app\t/ws/app\t:core\tbuild,check
+:docs\t/ws/docs\t\tcheck
+:tools\t/ws/tools\t\tbuild,check
+'''
+
+    def map = AffectedProjects.parse(OUTPUT, '/ws')
+
+    def 'changes in #changes run #expected'() {
+        expect:
+        AffectedProjects.rewrite('build --continue', map, changes).tasks == expected
+
+        where:
+        changes                                       | expected
+        ['app/src/main/java/App.java']                | ':app:build --continue'
+        ['core/src/Core.java']                        | ':app:build :core:build --continue'
+        ['tools/Tool.java', 'app/README.md']          | ':app:build :tools:build --continue'
+    }
+
+    def 'all projects are built when #reason'() {
+        when:
+        def rewrite = AffectedProjects.rewrite(tasks, map, changes)
+
+        then:
+        rewrite.tasks == null
+        rewrite.fallbackReason.contains(reason)
+
+        where:
+        tasks       | changes                                  | reason
+        'build'     | []                                       | 'no changes'
+        'build'     | ['app/build.gradle']                     | 'build logic'
+        'build'     | ['buildSrc/src/Plugin.groovy']           | 'build logic'
+        'build'     | ['gradle.properties']                    | 'build logic'
+        'build'     | ['README.md']                            | 'does not belong to a subproject'
+        'assemble'  | ['app/App.java']                         | "'assemble' has not been recorded"
+        'build'     | ['docs/index.md']                        | 'none of the affected projects'
+    }
+
+    def 'all projects are built without a recorded project map'() {
+        expect:
+        AffectedProjects.rewrite('build', null, ['app/App.java']).fallbackReason.contains('no projects')
+    }
+
+    def 'projects outside of the workspace are not matched'() {
+        given:
+        def map = AffectedProjects.parse('build\n:\t/ws\t\tbuild\n:ext\t/other/ext\t\tbuild\n', '/ws')
+
+        expect:
+        map.findProject('ext/Ext.java').path == ':'
+    }
+
+    def 'qualified tasks, switches and excluded tasks are not rewritten'() {
+        expect:
+        AffectedProjects.unqualifiedTasks('build :app:run -x test --info check build') == ['build', 'check']
+    }
+}
@@ -0,0 +1,75 @@
+package hudson.plugins.gradle
+
+import org.junit.Rule
+import org.junit.rules.TemporaryFolder
+import spock.lang.Specification
+import spock.lang.Unroll
+
+class AutoSizingTest extends Specification {
+
+    @Rule
+    TemporaryFolder tmp = new TemporaryFolder()
+
+    @Unroll
+    def 'max workers for #cpus CPUs and #busy busy executors is #workers'() {
+        expect:
+        AutoSizing.maxWorkers(cpus, busy) == workers
+
+        where:
+        cpus | busy | workers
+        8    | 1    | 8
+        8    | 2    | 4
+        8    | 3    | 2
+        2    | 4    | 1
+    }
+
+    @Unroll
+    def 'heap for #total MB with #available MB available and #busy busy executors is #heap MB'() {
+        expect:
+        AutoSizing.heapMb(total, available, busy) == heap
+
+        where:
+        total | available | busy | heap
+        16384 | 0         | 2    | 4096
+        8192  | 0         | 2    | 2048
+        8192  | 1024      | 2    | 512
+        1024  | 0         | 4    | 256
+    }
+
+    def 'explicit workers are kept'() {
+        expect:
+        AutoSizing.findWorkers(['--max-workers=2'], new Properties()) == '--max-workers=2'
+        AutoSizing.findWorkers(['--max-workers', '2'], new Properties()) == '--max-workers'
+        AutoSizing.findWorkers(['-Dorg.gradle.workers.max=2'], new Properties()) == '-Dorg.gradle.workers.max=2'
+        AutoSizing.findWorkers([], properties('org.gradle.workers.max': '2')) == 'gradle.properties'
+        AutoSizing.findWorkers(['--parallel'], new Properties()) == null
+    }
+
+    def 'explicit JVM arguments are kept'() {
+        expect:
+        AutoSizing.findJvmArgs(['-Dorg.gradle.jvmargs=-Xmx1g'], new Properties()) == '-Dorg.gradle.jvmargs'
+        AutoSizing.findJvmArgs([], properties('org.gradle.jvmargs': '-Xmx1g')) == 'gradle.properties'
+        AutoSizing.findJvmArgs(['-Dfoo=bar'], new Properties()) == null
+    }
+
+    def 'capacity includes the sizing properties of the build and the user home'() {
+        given:
+        def project = tmp.newFolder('project')
+        def userHome = tmp.newFolder('home')
+        new File(project, 'gradle.properties').text = 'org.gradle.jvmargs=-Xmx1g\nother=value\n'
+        new File(userHome, 'gradle.properties').text = 'org.gradle.workers.max=3\n'
+
+        when:
+        def capacity = new AutoSizing.QueryCapacity(userHome.absolutePath).invoke(project, null)
+
+        then:
+        capacity.cpus == Runtime.runtime.availableProcessors()
+        capacity.properties == properties('org.gradle.jvmargs': '-Xmx1g', 'org.gradle.workers.max': '3')
+    }
+
+    private static Properties properties(Map<String, String> values) {
+        def properties = new Properties()
+        properties.putAll(values)
+        properties
+    }
+}
@@ -0,0 +1,83 @@
+package hudson.plugins.gradle
+
+import org.junit.Rule
+import org.junit.rules.TemporaryFolder
+import spock.lang.Specification
+
+class BuildCacheStoreTest extends Specification {
+    @Rule
+    TemporaryFolder tmp = new TemporaryFolder()
+
+    def 'stored entries are loaded'() {
+        given:
+        def store = new BuildCacheStore(tmp.root, 1000)
+
+        when:
+        store.store('0123456789abcdef', stream(10))
+
+        then:
+        store.open('0123456789abcdef').bytes == bytes(10)
+        store.open('fedcba9876543210') == null
+        store.totalBytes == 10
+    }
+
+    def 'least recently used entries are evicted'() {
+        given:
+        def store = new BuildCacheStore(tmp.root, 300)
+        store.store('aaaaaaaa', stream(100))
+        store.store('bbbbbbbb', stream(100))
+        store.store('cccccccc', stream(100))
+        store.open('aaaaaaaa').close()
+
+        when:
+        store.store('dddddddd', stream(100))
+
+        then:
+        store.open('bbbbbbbb') == null
+        store.open('aaaaaaaa') != null
+        store.open('dddddddd') != null
+        store.totalBytes == 300
+        !new File(tmp.root, 'bbbbbbbb').exists()
+    }
+
+    def 'entries larger than the cache are rejected'() {
+        given:
+        def store = new BuildCacheStore(tmp.root, 100)
+
+        expect:
+        !store.store('aaaaaaaa', stream(101))
+        store.open('aaaaaaaa') == null
+        tmp.root.list() as List == []
+    }
+
+    def 'usage order survives restarts'() {
+        given:
+        new File(tmp.root, 'aaaaaaaa').bytes = bytes(100)
+        new File(tmp.root, 'aaaaaaaa').lastModified = 2000
+        new File(tmp.root, 'bbbbbbbb').bytes = bytes(100)
+        new File(tmp.root, 'bbbbbbbb').lastModified = 1000
+        def store = new BuildCacheStore(tmp.root, 200)
+
+        when:
+        store.store('cccccccc', stream(100))
+
+        then:
+        store.open('bbbbbbbb') == null
+        store.open('aaaaaaaa') != null
+    }
+
+    def 'keys are hexadecimal'() {
+        expect:
+        BuildCacheStore.isValidKey('0123456789abcdef')
+        !BuildCacheStore.isValidKey('../config.xml')
+        !BuildCacheStore.isValidKey('abc')
+    }
+
+    private static byte[] bytes(int size) {
+        (0..<size).collect { (byte) it } as byte[]
+    }
+
+    private static InputStream stream(int size) {
+        new ByteArrayInputStream(bytes(size))
+    }
+}
@@ -0,0 +1,33 @@
+package hudson.plugins.gradle
+
+import hudson.util.XStream2
+import spock.lang.Specification
+
+class BuildScanActionTest extends Specification {
+    def xstream = new XStream2()
+
+    def 'scan recorded by older versions is read'() {
+        when:
+        BuildScanAction action = xstream.fromXML('''<hudson.plugins.gradle.BuildScanAction>
+  <scanUrl>https://gradle.com/s/old</scanUrl>
+</hudson.plugins.gradle.BuildScanAction>''')
+
+        then:
+        action.scans*.url == ['https://gradle.com/s/old']
+        action.scanUrl == 'https://gradle.com/s/old'
+        !xstream.toXML(action).contains('<scanUrl>')
+    }
+
+    def 'scans of several steps are kept in one action'() {
+        given:
+        def action = new BuildScanAction('build', ['https://gradle.com/s/a', 'https://gradle.com/s/b'])
+
+        when:
+        action.addAll('publish', ['https://gradle.com/s/c'])
+        BuildScanAction read = xstream.fromXML(xstream.toXML(action))
+
+        then:
+        read.scans*.url == ['https://gradle.com/s/a', 'https://gradle.com/s/b', 'https://gradle.com/s/c']
+        read.scans*.step == ['build', 'build', 'publish']
+    }
+}
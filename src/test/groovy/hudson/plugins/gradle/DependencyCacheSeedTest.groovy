@@ -0,0 +1,48 @@
+package hudson.plugins.gradle
+
+import org.junit.Rule
+import org.junit.rules.TemporaryFolder
+import spock.lang.Specification
+
+class DependencyCacheSeedTest extends Specification {
+    @Rule
+    TemporaryFolder tmp = new TemporaryFolder()
+
+    def 'newest complete generation is used'() {
+        given:
+        generation(1000, true)
+        generation(2000, true)
+        generation(3000, false)
+        tmp.newFolder('other')
+
+        expect:
+        new DependencyCacheSeed.FindGeneration().invoke(tmp.root, null) == 2000
+    }
+
+    def 'no generation is found in a new seed directory'() {
+        expect:
+        new DependencyCacheSeed.FindGeneration().invoke(new File(tmp.root, 'missing'), null) == 0
+    }
+
+    def 'old and incomplete generations are deleted'() {
+        given:
+        generation(1000, true)
+        generation(2000, false)
+        generation(3000, true)
+        generation(4000, true)
+
+        when:
+        new DependencyCacheSeed.DeleteOldGenerations(2).invoke(tmp.root, null)
+
+        then:
+        DependencyCacheSeed.generations(tmp.root) == [3000L, 4000L] as long[]
+    }
+
+    private void generation(long time, boolean complete) {
+        def dir = tmp.newFolder(Long.toString(time))
+        new File(dir, 'modules-2').mkdirs()
+        if (complete) {
+            new File(dir, '.complete').createNewFile()
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package hudson.plugins.gradle
+
+import com.sun.net.httpserver.HttpExchange
+import com.sun.net.httpserver.HttpServer
+import hudson.util.StreamTaskListener
+import org.junit.Rule
+import org.junit.rules.TemporaryFolder
+import spock.lang.Specification
+
+import java.security.MessageDigest
+
+class DistributionArchiveCacheTest extends Specification {
+    @Rule
+    TemporaryFolder tmp = new TemporaryFolder()
+
+    def gradleLogger = new GradleLogger(StreamTaskListener.fromStdout())
+    def content = (0..<10000).collect { (byte) it }.toArray(new Byte[0]) as byte[]
+    def ranges = []
+    /** The first byte the server sends for a range request, if it does not send the requested one. */
+    Integer rangeStart
+    /** The length of the archive announced for a range request, if not its actual length. */
+    Integer announcedLength
+    String checksum
+    HttpServer server
+
+    def setup() {
+        server = HttpServer.create(new InetSocketAddress('localhost', 0), 0)
+        server.createContext('/gradle-9.9-bin.zip') { HttpExchange exchange ->
+            def range = exchange.requestHeaders.getFirst('Range')
+            ranges << range
+            int from = range ? rangeStart ?: Integer.parseInt(range.replaceAll(/bytes=(\d+)-/, '$1')) : 0
+            if (range) {
+                def length = announcedLength ?: content.length
+                exchange.responseHeaders.add('Content-Range', "bytes ${from}-${content.length - 1}/${length}")
+            }
+            exchange.sendResponseHeaders(range ? 206 : 200, content.length - from)
+            exchange.responseBody.write(content, from, content.length - from)
+            exchange.close()
+        }
+        server.createContext('/gradle-9.9-bin.zip.sha256') { HttpExchange exchange ->
+            if (checksum == null) {
+                exchange.sendResponseHeaders(404, -1)
+            } else {
+                exchange.sendResponseHeaders(200, 0)
+                exchange.responseBody.write(checksum.bytes)
+            }
+            exchange.close()
+        }
+        server.start()
+    }
+
+    def cleanup() {
+        server.stop(0)
+    }
+
+    def 'archive is downloaded'() {
+        given:
+        def archive = new File(tmp.root, 'gradle-9.9-bin.zip')
+
+        when:
+        DistributionArchiveCache.download(url(), archive, gradleLogger)
+
+        then:
+        archive.bytes == content
+        ranges == [null]
+        !new File(tmp.root, 'gradle-9.9-bin.zip.part').exists()
+    }
+
+    def 'partial download is resumed'() {
+        given:
+        def archive = new File(tmp.root, 'gradle-9.9-bin.zip')
+        new File(tmp.root, 'gradle-9.9-bin.zip.part').bytes = Arrays.copyOf(content, 4000)
+
+        when:
+        DistributionArchiveCache.download(url(), archive, gradleLogger)
+
+        then:
+        archive.bytes == content
+        ranges == ['bytes=4000-']
+    }
+
+    def 'archive matching the published checksum is cached'() {
+        given:
+        def archive = new File(tmp.root, 'gradle-9.9-bin.zip')
+        checksum = MessageDigest.getInstance('SHA-256').digest(content).encodeHex().toString()
+
+        when:
+        DistributionArchiveCache.download(url(), archive, gradleLogger)
+
+        then:
+        archive.bytes == content
+    }
+
+    def 'archive not matching the published checksum is discarded'() {
+        given:
+        def archive = new File(tmp.root, 'gradle-9.9-bin.zip')
+        new File(tmp.root, 'gradle-9.9-bin.zip.part').bytes = new byte[4000]
+        checksum = MessageDigest.getInstance('SHA-256').digest(content).encodeHex().toString()
+
+        when:
+        DistributionArchiveCache.download(url(), archive, gradleLogger)
+
+        then:
+        def e = thrown(IOException)
+        e.message.contains('checksum')
+        !archive.exists()
+        !new File(tmp.root, 'gradle-9.9-bin.zip.part').exists()
+    }
+
+    def 'partial download is restarted if the server sends another range'() {
+        given:
+        def archive = new File(tmp.root, 'gradle-9.9-bin.zip')
+        new File(tmp.root, 'gradle-9.9-bin.zip.part').bytes = Arrays.copyOf(content, 4000)
+        rangeStart = 2000
+
+        when:
+        DistributionArchiveCache.download(url(), archive, gradleLogger)
+
+        then:
+        archive.bytes == content
+        ranges == ['bytes=4000-', null]
+    }
+
+    def 'download shorter than the announced length is not cached'() {
+        given:
+        def archive = new File(tmp.root, 'gradle-9.9-bin.zip')
+        def partial = new File(tmp.root, 'gradle-9.9-bin.zip.part')
+        partial.bytes = Arrays.copyOf(content, 4000)
+        announcedLength = 12000
+
+        when:
+        DistributionArchiveCache.download(url(), archive, gradleLogger)
+
+        then:
+        def e = thrown(IOException)
+        e.message.contains('only 10000 of 12000 bytes')
+        !archive.exists()
+        // kept to be resumed
+        partial.length() == 10000
+    }
+
+    def "content range '#header' is parsed"() {
+        expect:
+        DistributionArchiveCache.parseContentRange(header) == expected
+
+        where:
+        header                  | expected
+        'bytes 100-199/200'     | [100L, 200L] as long[]
+        'bytes 100-199/*'       | [100L, -1L] as long[]
+        'bytes */200'           | null
+        'items 1-2/3'           | null
+        null                    | null
+    }
+
+    private URL url() {
+        new URL("http://localhost:${server.address.port}/gradle-9.9-bin.zip")
+    }
+}
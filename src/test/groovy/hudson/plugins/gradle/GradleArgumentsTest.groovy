@@ -0,0 +1,59 @@
+package hudson.plugins.gradle
+
+import hudson.EnvVars
+import spock.lang.Specification
+import spock.lang.Unroll
+
+class GradleArgumentsTest extends Specification {
+
+    def env = new EnvVars(A: 'a', 'A.B': 'ab', DOLLAR: '$A', EMPTY: '')
+
+    @Unroll
+    def "'#text' is expanded like EnvVars.expand"() {
+        expect:
+        GradleArguments.Template.parse(text).expand(env) == env.expand(text)
+
+        where:
+        text << ['', 'plain', '$A', '${A}', '$A$A', '${A.B}', '$A.B', '$UNKNOWN', '${UNKNOWN}', '$$A', '$$$A',
+                 '$DOLLAR', '${', '${}', '$', 'a$', '$-', '$EMPTY-', '--flag=${A}_$A']
+    }
+
+    def 'switches and tasks are normalized'() {
+        given:
+        def arguments = new GradleArguments('--info\n\t--stacktrace', 'clean\r\nbuild $A', null, null)
+        env.put('GRADLE_EXT_SWITCHES', '--offline')
+
+        expect:
+        arguments.getSwitches(env) == '--info --stacktrace --offline'
+        arguments.getTasks(env) == 'clean build a'
+    }
+
+    def 'properties are parsed before variables are substituted'() {
+        given:
+        def arguments = new GradleArguments(null, null, 'key=$A\nother.$A=${A.B}', 'multi=$MULTI')
+        env.put('MULTI', 'line\nbreak=value')
+
+        expect:
+        arguments.getSystemProperties(env) == [key: 'a', 'other.a': 'ab']
+        arguments.getProjectProperties(env) == [multi: 'line\nbreak=value']
+    }
+
+    def 'arguments belong to their configuration'() {
+        given:
+        def arguments = new GradleArguments('--info', 'build', 'a=b', null)
+
+        expect:
+        arguments.isFor('--info', 'build', 'a=b', null)
+        !arguments.isFor('--info', 'build', 'a=c', null)
+        !arguments.isFor(null, 'build', 'a=b', null)
+    }
+
+    @Unroll
+    def "whitespace in '#text' is replaced"() {
+        expect:
+        GradleArguments.replaceWhitespaceBySpace(text) == text.replaceAll('[\t\r\n]+', ' ')
+
+        where:
+        text << ['', 'a b', 'a\tb', 'a\r\n\tb', '\nab\n', 'a \n b']
+    }
+}
@@ -0,0 +1,351 @@
+package hudson.plugins.gradle
+
+import hudson.console.ConsoleNote
+import hudson.util.VersionNumber
+import spock.lang.Specification
+import spock.lang.Unroll
+
+import java.nio.charset.Charset
+
+@Unroll
+class GradleConsoleAnnotatorTest extends Specification {
+
+    def "line '#line' is annotated with #expectedNotes note(s) in #charset"() {
+        when:
+        def annotated = annotate(charset, line + '\n')
+
+        then:
+        annotated.count(ConsoleNote.PREAMBLE_STR) == expectedNotes
+        ConsoleNote.removeNotes(annotated) == line + '\n'
+
+        where:
+        [line, expectedNotes, charset] << [
+                [':TASK', 1],
+                [':TASK UP-TO-DATE', 1],
+                [':PARENT:TASK', 1],
+                ['BUILD SUCCESSFUL', 1],
+                ['BUILD FAILED', 1],
+                ['BUILD SUCCESSFUL in 1s', 0],
+                [' :TASK', 0],
+                ['TASK:', 0],
+                ['Hällo wörld', 0],
+                ['', 0],
+        ].collectMany { row -> ['UTF-8', 'ISO-8859-1', 'windows-1252'].collect { row + it } }
+    }
+
+    def "CR/LF line endings are trimmed before matching"() {
+        expect:
+        annotate('UTF-8', 'BUILD SUCCESSFUL\r\n').count(ConsoleNote.PREAMBLE_STR) == 1
+    }
+
+    def "build scan url is discovered after '#marker'"() {
+        given:
+        def annotator = new GradleConsoleAnnotator(new ByteArrayOutputStream(), Charset.forName('UTF-8'))
+
+        when:
+        annotator.write("${marker}\nhttps://gradle.com/s/abc\r\nBUILD SUCCESSFUL\n".getBytes('UTF-8'))
+        annotator.forceEol()
+
+        then:
+        annotator.scanUrl == 'https://gradle.com/s/abc'
+
+        where:
+        marker << ['Publishing build scan...', 'Publishing build information...']
+    }
+
+    def "all build scan urls are discovered"() {
+        given:
+        def annotator = new GradleConsoleAnnotator(new ByteArrayOutputStream(), Charset.forName('UTF-8'))
+
+        when:
+        annotator.write('''Publishing build scan...
+https://gradle.com/s/abc
+
+Publishing build scan...
+http://ge.example.com/s/def
+'''.getBytes('UTF-8'))
+        annotator.forceEol()
+
+        then:
+        annotator.scanUrls == ['https://gradle.com/s/abc', 'http://ge.example.com/s/def']
+        annotator.scanUrl == 'https://gradle.com/s/abc'
+    }
+
+    def "build scan url is not discovered without a marker"() {
+        given:
+        def annotator = new GradleConsoleAnnotator(new ByteArrayOutputStream(), Charset.forName('UTF-8'))
+
+        when:
+        annotator.write('https://gradle.com/s/abc\nPublishing build scan...\n\nhttps://gradle.com/s/def\n'.getBytes('UTF-8'))
+        annotator.forceEol()
+
+        then:
+        annotator.scanUrls.empty
+    }
+
+    def "line '#line' is not a build scan url"() {
+        given:
+        def annotator = new GradleConsoleAnnotator(new ByteArrayOutputStream(), Charset.forName('UTF-8'))
+
+        when:
+        annotator.write("Publishing build scan...\n${line}\n".getBytes('UTF-8'))
+        annotator.forceEol()
+
+        then:
+        annotator.scanUrl == null
+
+        where:
+        line << [
+                'https://docs.gradle.org/4.0/userguide/userguide.html',
+                'See https://gradle.com/s/abc',
+                'https://gradle.com/s/abc and more',
+                'https://gradle.com/s/',
+                'https://gradle.com/s/abc/more',
+                'https://gradle.com/s/abc/',
+                'https:///s/abc',
+                'ftp://gradle.com/s/abc',
+        ]
+    }
+
+    def "task executions are recorded"() {
+        given:
+        def annotator = new GradleConsoleAnnotator(new ByteArrayOutputStream(), Charset.forName('UTF-8'))
+
+        when:
+        annotator.write(''':compileJava
+Note: Some input files use unchecked or unsafe operations.
+:processResources NO-SOURCE
+:classes UP-TO-DATE
+:sub:jar FROM-CACHE
+:test SKIPPED
+:::: ERRORS
+:check DUMMY
+
+BUILD SUCCESSFUL
+'''.getBytes('UTF-8'))
+        annotator.forceEol()
+        def tasks = annotator.taskExecutions.tasks
+
+        then:
+        tasks*.name == ['compileJava', 'processResources', 'classes', 'sub:jar', 'test', 'check']
+        tasks*.outcome == [TaskOutcome.EXECUTED, TaskOutcome.NO_SOURCE, TaskOutcome.UP_TO_DATE,
+                           TaskOutcome.FROM_CACHE, TaskOutcome.SKIPPED, TaskOutcome.EXECUTED]
+        tasks.every { it.duration >= 0 && it.start > 0 }
+
+        and:
+        def counts = annotator.taskOutcomeCounts
+        counts.total == 6
+        counts.executed == 2
+        counts.avoided == 4
+        counts.getCount(TaskOutcome.FROM_CACHE) == 1
+        counts.avoidedPercentage == 67
+        counts.upToDatePercentage == 17
+        counts.cacheHitPercentage == 33
+    }
+
+    def "masked values are replaced in the output"() {
+        given:
+        def out = new ByteArrayOutputStream()
+        def annotator = new GradleConsoleAnnotator(out, Charset.forName('UTF-8'))
+        annotator.maskedValues = ['0123abcd']
+
+        when:
+        annotator.write('Using https://ci/gradle-build-cache/0123abcd/ and 0123abcd\nno secret\n'.getBytes('UTF-8'))
+        annotator.forceEol()
+
+        then:
+        out.toString('UTF-8') == 'Using https://ci/gradle-build-cache/****/ and ****\nno secret\n'
+    }
+
+    def "failed tasks and what went wrong are indexed"() {
+        given:
+        def out = new ByteArrayOutputStream()
+        def annotator = new GradleConsoleAnnotator(out, Charset.forName('UTF-8'))
+
+        when:
+        annotator.write(''':compileJava UP-TO-DATE
+:test FAILED
+
+FAILURE: Build failed with an exception.
+
+* What went wrong:
+Execution failed for task ':test'.
+> There were failing tests.
+
+* Try:
+Run with --stacktrace option to get the stack trace.
+
+BUILD FAILED
+'''.getBytes('UTF-8'))
+        annotator.forceEol()
+        def index = annotator.failureIndex
+        def log = out.toByteArray()
+        def excerpt = { int i -> ConsoleNote.removeNotes(new String(log, (int) index.getStart(i), (int) (index.getEnd(i) - index.getStart(i)), 'UTF-8')) }
+
+        then:
+        (0..<index.size()).collect { index.getKind(it) } ==
+                [FailureIndex.Kind.FAILED_TASK, FailureIndex.Kind.WHAT_WENT_WRONG, FailureIndex.Kind.OUTCOME]
+        excerpt(0) == ':test FAILED\n'
+        excerpt(1) == '''* What went wrong:
+Execution failed for task ':test'.
+> There were failing tests.
+
+'''
+        excerpt(2) == 'BUILD FAILED\n'
+    }
+
+    def "unfinished what went wrong block ends at the current position"() {
+        given:
+        def annotator = new GradleConsoleAnnotator(new ByteArrayOutputStream(), Charset.forName('UTF-8'), 100)
+
+        when:
+        annotator.write('* What went wrong:\nCould not resolve all dependencies.\n'.getBytes('UTF-8'))
+        annotator.forceEol()
+
+        then:
+        annotator.failureIndex.size() == 0
+
+        when:
+        annotator.finish()
+        def index = annotator.failureIndex
+
+        then:
+        index.size() == 1
+        index.getKind(0) == FailureIndex.Kind.WHAT_WENT_WRONG
+        index.getStart(0) == 100
+        index.getEnd(0) == 100 + '* What went wrong:\nCould not resolve all dependencies.\n'.length()
+    }
+
+    def "successful build has no failure index"() {
+        given:
+        def annotator = new GradleConsoleAnnotator(new ByteArrayOutputStream(), Charset.forName('UTF-8'))
+
+        when:
+        annotator.write(':compileJava\n:test\n\nBUILD SUCCESSFUL\n'.getBytes('UTF-8'))
+        annotator.forceEol()
+
+        then:
+        annotator.failureIndex.size() == 0
+    }
+
+    def "concurrent steps only finish their own running task"() {
+        given:
+        def taskExecutions = new TaskExecutions()
+        def first = new GradleConsoleAnnotator(new ByteArrayOutputStream(), Charset.forName('UTF-8'), -1, taskExecutions)
+        def second = new GradleConsoleAnnotator(new ByteArrayOutputStream(), Charset.forName('UTF-8'), -1, taskExecutions)
+
+        when:
+        first.write(':slow\n'.getBytes('UTF-8'))
+        second.write(':quick\n'.getBytes('UTF-8'))
+        second.finish()
+        Thread.sleep(100)
+        first.finish()
+
+        then:
+        taskExecutions.tasks*.name == ['slow', 'quick']
+        taskExecutions.tasks*.step == [0, 1]
+        taskExecutions.tasks[0].duration >= 100
+        taskExecutions.tasks[1].duration < taskExecutions.tasks[0].duration
+    }
+
+    def "steps recorded on another node keep the numbers reserved for them"() {
+        given:
+        def taskExecutions = new TaskExecutions()
+        taskExecutions.newRecorder().taskStarted('first', TaskOutcome.EXECUTED, 0, -1)
+        def step = taskExecutions.reserveStep()
+        def other = new TaskExecutions()
+        def recorder = other.newRecorder(step)
+        recorder.taskStarted('second', TaskOutcome.EXECUTED, 0, -1)
+        recorder.taskStarted('third', TaskOutcome.EXECUTED, 0, -1)
+
+        when:
+        taskExecutions.addAll(other)
+        taskExecutions.newRecorder().taskStarted('fourth', TaskOutcome.EXECUTED, 0, -1)
+
+        then:
+        taskExecutions.tasks*.name == ['first', 'second', 'third', 'fourth']
+        taskExecutions.tasks*.step == [0, 1, 1, 2]
+        taskExecutions.getAnchors(0, 4) as List == ['gradle-task-0-0', 'gradle-task-1-0', 'gradle-task-1-1', 'gradle-task-2-0']
+    }
+
+    def "anchors of concurrent steps are numbered within their step"() {
+        given:
+        def taskExecutions = new TaskExecutions()
+        def first = taskExecutions.newRecorder()
+        def second = taskExecutions.newRecorder()
+
+        when:
+        def anchors = [
+                first.taskStarted('a', TaskOutcome.EXECUTED, 0, -1),
+                second.taskStarted('b', TaskOutcome.EXECUTED, 0, -1),
+                first.taskStarted('c', TaskOutcome.EXECUTED, 0, -1),
+                second.taskStarted('d', TaskOutcome.EXECUTED, 0, -1)
+        ]
+
+        then:
+        anchors == ['gradle-task-0-0', 'gradle-task-1-0', 'gradle-task-0-1', 'gradle-task-1-1']
+        taskExecutions.getAnchors(0, 4) as List == anchors
+        taskExecutions.getAnchors(2, 4) as List == anchors.subList(2, 4)
+    }
+
+    def "tasks reported by the Tooling API have no anchors"() {
+        given:
+        def taskExecutions = new TaskExecutions()
+        taskExecutions.newRecorder().taskExecuted('compileJava', TaskOutcome.EXECUTED, 0, 10, -1)
+        taskExecutions.newRecorder().taskStarted('test', TaskOutcome.EXECUTED, 0, -1)
+
+        expect:
+        taskExecutions.getAnchors(0, 2) as List == [null, 'gradle-task-1-0']
+    }
+
+    def "failures are not indexed when the position in the log is not known"() {
+        given:
+        def annotator = new GradleConsoleAnnotator(new ByteArrayOutputStream(), Charset.forName('UTF-8'), -1)
+
+        when:
+        annotator.write(':compileJava FAILED\n\n* What went wrong:\nCompilation failed.\n\nBUILD FAILED\n'.getBytes('UTF-8'))
+        annotator.finish()
+
+        then:
+        annotator.failureIndex.size() == 0
+        annotator.taskExecutions.tasks*.offset == [-1L]
+    }
+
+    def "notes are left out but tasks still recorded when they can't be encoded"() {
+        given:
+        def out = new ByteArrayOutputStream()
+        def annotator = new GradleConsoleAnnotator(out, Charset.forName('UTF-8'))
+        annotator.writeNotes = false
+
+        when:
+        annotator.write(':compileJava\n\nBUILD SUCCESSFUL\n'.getBytes('UTF-8'))
+        annotator.finish()
+
+        then:
+        out.toString('UTF-8') == ':compileJava\n\nBUILD SUCCESSFUL\n'
+        annotator.taskExecutions.tasks*.name == ['compileJava']
+    }
+
+    def "Jenkins #version signs console notes: #signing"() {
+        expect:
+        Gradle.isSigningNotes(new VersionNumber(version)) == signing
+
+        where:
+        version    | signing
+        '1.642.1'  | false
+        '2.32.1'   | false
+        '2.32.2'   | true
+        '2.32.3'   | true
+        '2.43'     | false
+        '2.44'     | true
+        '2.60.1'   | true
+    }
+
+    private static String annotate(String charset, String text) {
+        def out = new ByteArrayOutputStream()
+        def annotator = new GradleConsoleAnnotator(out, Charset.forName(charset))
+        annotator.write(text.getBytes(charset))
+        annotator.forceEol()
+        return out.toString(charset)
+    }
+}
@@ -0,0 +1,35 @@
+package hudson.plugins.gradle
+
+import spock.lang.Specification
+import spock.lang.Unroll
+
+@Unroll
+class GradleDaemonPoolTest extends Specification {
+
+    def "JVM arguments of switches '#switches' are '#jvmArgs'"() {
+        expect:
+        GradleDaemonPool.findJvmArgs(switches) == jvmArgs
+
+        where:
+        switches                                                 | jvmArgs
+        null                                                     | ''
+        '--info'                                                 | ''
+        '--info -Dorg.gradle.jvmargs=-Xmx1g'                     | '-Xmx1g'
+        '"-Dorg.gradle.jvmargs=-Xmx2g -XX:+UseG1GC" --no-search' | '-Xmx2g -XX:+UseG1GC'
+    }
+
+    def "daemon heap of '#jvmArgs' is #heapMb MB"() {
+        expect:
+        GradleDaemonPool.parseHeapMb(jvmArgs) == heapMb
+
+        where:
+        jvmArgs                   | heapMb
+        ''                        | 512
+        '-Xmx1g'                  | 1024
+        '-Xmx1536m'               | 1536
+        '-Xmx2097152k'            | 2048
+        '-Xmx1073741824'          | 1024
+        '-Xmx512m -Xmx3G'         | 3072
+        '-XX:MaxMetaspaceSize=1g' | 512
+    }
+}
@@ -0,0 +1,68 @@
+package hudson.plugins.gradle
+
+import hudson.model.FreeStyleProject
+import org.jvnet.hudson.test.CreateFileBuilder
+
+class GradleInstallationCacheTest extends AbstractIntegrationTest {
+    def cache = GradleInstallationCache.get()
+
+    def 'installations are resolved once per node'() {
+        given:
+        gradleInstallationRule.addInstallation()
+        FreeStyleProject p = j.createFreeStyleProject()
+        p.buildersList.add(new CreateFileBuilder("build.gradle", "task hello << { println 'Hello' }"))
+        p.buildersList.add(new Gradle(tasks: 'hello', *: defaults))
+
+        when:
+        j.buildAndAssertSuccess(p)
+
+        then:
+        cache.homes.size() == 1
+        cache.executables.size() == 1
+
+        when:
+        def installation = cache.homes.values().first()
+        j.buildAndAssertSuccess(p)
+
+        then:
+        cache.homes.values().first() == installation
+    }
+
+    def 'reconfiguring the installations clears the cache'() {
+        given:
+        gradleInstallationRule.addInstallation()
+        FreeStyleProject p = j.createFreeStyleProject()
+        p.buildersList.add(new CreateFileBuilder("build.gradle", "task hello << { println 'Hello' }"))
+        p.buildersList.add(new Gradle(tasks: 'hello', *: defaults))
+        j.buildAndAssertSuccess(p)
+
+        when:
+        def descriptor = j.jenkins.getDescriptorByType(Gradle.DescriptorImpl)
+        descriptor.installations = descriptor.installations
+
+        then:
+        cache.homes.isEmpty()
+        cache.executables.isEmpty()
+    }
+
+    def 'reconnecting a node clears its entries'() {
+        given:
+        gradleInstallationRule.addInstallation()
+        def agent = j.createOnlineSlave()
+        FreeStyleProject p = j.createFreeStyleProject()
+        p.assignedNode = agent
+        p.buildersList.add(new CreateFileBuilder("build.gradle", "task hello << { println 'Hello' }"))
+        p.buildersList.add(new Gradle(tasks: 'hello', *: defaults))
+        j.buildAndAssertSuccess(p)
+
+        when:
+        agent.computer.disconnect(null).get()
+
+        then:
+        cache.homes.keySet().every { !it.startsWith(agent.nodeName + '\n') }
+    }
+
+    def cleanup() {
+        cache.invalidate()
+    }
+}
@@ -0,0 +1,56 @@
+package hudson.plugins.gradle
+
+import hudson.FilePath
+import org.junit.Rule
+import org.junit.rules.TemporaryFolder
+import spock.lang.Specification
+
+import java.util.zip.ZipEntry
+import java.util.zip.ZipOutputStream
+
+class GradleInstallerTest extends Specification {
+    @Rule
+    TemporaryFolder tmp = new TemporaryFolder()
+
+    def 'distribution is unpacked from a stream'() {
+        given:
+        def archive = zip('gradle-9.9/': null, 'gradle-9.9/bin/gradle': 'exec java', 'gradle-9.9/lib/gradle.jar': 'jar')
+        def home = tmp.newFolder('home')
+
+        when:
+        new FilePath(home).act(new GradleInstaller.StreamingUnzip(new ByteArrayInputStream(archive)))
+        new FilePath(new File(home, 'gradle-9.9')).act(new GradleInstaller.MakeScriptsExecutable())
+
+        then:
+        new File(home, 'gradle-9.9/bin/gradle').text == 'exec java'
+        new File(home, 'gradle-9.9/bin/gradle').canExecute()
+        new File(home, 'gradle-9.9/lib/gradle.jar').text == 'jar'
+    }
+
+    def 'entries outside of the installation directory are rejected'() {
+        given:
+        def archive = zip('../evil': 'boom')
+        def home = tmp.newFolder('home')
+
+        when:
+        new FilePath(home).act(new GradleInstaller.StreamingUnzip(new ByteArrayInputStream(archive)))
+
+        then:
+        thrown(IOException)
+        !new File(tmp.root, 'evil').exists()
+    }
+
+    private static byte[] zip(Map<String, String> entries) {
+        def bytes = new ByteArrayOutputStream()
+        def zip = new ZipOutputStream(bytes)
+        entries.each { name, content ->
+            zip.putNextEntry(new ZipEntry(name))
+            if (content != null) {
+                zip.write(content.bytes)
+            }
+            zip.closeEntry()
+        }
+        zip.close()
+        bytes.toByteArray()
+    }
+}
@@ -0,0 +1,27 @@
+package hudson.plugins.gradle
+
+import hudson.MarkupText
+import spock.lang.Specification
+import spock.lang.Unroll
+
+@Unroll
+class GradleOutcomeNoteTest extends Specification {
+
+    def "annotate outcome '#consoleOutput'"() {
+        expect:
+        annotate(consoleOutput) == annotatedOutput
+
+        where:
+        consoleOutput      | annotatedOutput
+        'BUILD SUCCESSFUL' | '<span class=gradle-outcome-success>BUILD SUCCESSFUL</span>'
+        'BUILD FAILED'     | '<span class=gradle-outcome-failure>BUILD FAILED</span>'
+        'BUILD'            | 'BUILD'
+        'FAI SUCCES'       | 'FAI SUCCES'
+    }
+
+    private static String annotate(String text) {
+        MarkupText markupText = new MarkupText(text)
+        new GradleOutcomeNote().annotate(new Object(), markupText, 0)
+        return markupText.toString(true)
+    }
+}
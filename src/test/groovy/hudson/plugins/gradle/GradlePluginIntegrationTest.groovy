@@ -30,14 +30,25 @@ import com.gargoylesoftware.htmlunit.html.HtmlButton
 import com.gargoylesoftware.htmlunit.html.HtmlForm
 import com.gargoylesoftware.htmlunit.html.HtmlPage
 import com.google.common.base.Joiner
+import hudson.AbortException
 import hudson.EnvVars
+import hudson.Launcher
+import hudson.model.AbstractBuild
+import hudson.model.BuildListener
+import hudson.console.ConsoleNote
 import hudson.model.FreeStyleBuild
 import hudson.model.FreeStyleProject
+import hudson.model.ParametersAction
+import hudson.model.ParametersDefinitionProperty
 import hudson.model.Result
+import hudson.model.StringParameterDefinition
+import hudson.model.StringParameterValue
 import hudson.tools.InstallSourceProperty
 import hudson.util.VersionNumber
+import net.sf.json.JSONObject
 import org.jvnet.hudson.test.CreateFileBuilder
 import org.jvnet.hudson.test.JenkinsRule.WebClient
+import org.jvnet.hudson.test.TestBuilder
 import spock.lang.Unroll
 
 /**
@@ -73,6 +84,407 @@ class GradlePluginIntegrationTest extends AbstractIntegrationTest {
         getLog(build).contains "Hello"
     }
 
+    def 'executed tasks are recorded'() {
+        given:
+        gradleInstallationRule.addInstallation()
+        FreeStyleProject p = j.createFreeStyleProject()
+        p.buildersList.add(new CreateFileBuilder("build.gradle", "task hello << { println 'Hello' }\ntask other"))
+        p.buildersList.add(new Gradle(tasks: 'hello other', *: defaults))
+
+        when:
+        FreeStyleBuild build = j.buildAndAssertSuccess(p)
+
+        then:
+        def tasks = build.getAction(TaskExecutionAction).taskExecutions.tasks
+        tasks*.name == ['hello', 'other']
+        tasks*.outcome == [TaskOutcome.EXECUTED, TaskOutcome.UP_TO_DATE]
+
+        and:
+        def counts = build.getAction(TaskOutcomeAction).counts
+        counts.executed == 1
+        counts.avoided == 1
+    }
+
+    def 'console outline is served from the task index'() {
+        given:
+        gradleInstallationRule.addInstallation()
+        FreeStyleProject p = j.createFreeStyleProject()
+        p.buildersList.add(new CreateFileBuilder("build.gradle", "task hello << { println 'Hello' }\ntask other"))
+        p.buildersList.add(new Gradle(tasks: 'hello other', *: defaults))
+        FreeStyleBuild build = j.buildAndAssertSuccess(p)
+
+        when:
+        def outline = JSONObject.fromObject(j.createWebClient()
+                .goTo("${build.url}gradleTasks/outline?start=1", 'application/json').webResponse.contentAsString)
+
+        then:
+        outline.total == 2
+        outline.start == 1
+        outline.tasks*.name == ['other']
+        outline.tasks*.outcome == ['UP-TO-DATE']
+
+        when:
+        def tasks = build.getAction(TaskExecutionAction).taskExecutions.tasks
+        def log = build.logFile.bytes
+
+        then:
+        tasks.every { task ->
+            def line = new String(log, (int) task.offset, log.length - (int) task.offset, build.charset).readLines()[0]
+            ConsoleNote.removeNotes(line).startsWith(":${task.name}")
+        }
+
+        when:
+        def region = j.createWebClient().goTo("${build.url}gradleTasks/console?offset=${tasks[1].offset}")
+
+        then:
+        region.asText().contains(':other UP-TO-DATE')
+        !region.asText().contains(':hello')
+
+        when:
+        def webClient = j.createWebClient()
+        HtmlPage console = webClient.goTo("${build.url}consoleFull")
+        webClient.waitForBackgroundJavaScript(5000)
+
+        then: 'the outline links to the task headers in the console'
+        console.getByXPath("//div[@id='console-outline-body']//a")*.getAttribute('href') ==
+                ['#gradle-task-0-0', '#gradle-task-0-1']
+        console.getElementsByName('gradle-task-0-0').size() == 1
+        console.getElementsByName('gradle-task-0-1').size() == 1
+    }
+
+    def 'console outline of a running build grows with each task'() {
+        given:
+        gradleInstallationRule.addInstallation()
+        FreeStyleProject p = j.createFreeStyleProject()
+        p.buildersList.add(new CreateFileBuilder("build.gradle", """
+task first << { println 'First' }
+task waiting(dependsOn: first) << { while (!file('go').exists()) { sleep 100 } }
+"""))
+        p.buildersList.add(new Gradle(tasks: 'waiting', *: defaults))
+
+        when:
+        def future = p.scheduleBuild2(0)
+        FreeStyleBuild build = future.waitForStart()
+        while (build.getAction(TaskExecutionAction)?.taskExecutions?.size() != 2) {
+            Thread.sleep(100)
+        }
+        def outline = JSONObject.fromObject(j.createWebClient()
+                .goTo("${build.url}gradleTasks/outline?start=1", 'application/json').webResponse.contentAsString)
+
+        then:
+        outline.building
+        outline.tasks*.name == ['waiting']
+
+        when:
+        build.workspace.child('go').write('', 'UTF-8')
+        j.assertBuildStatusSuccess(future)
+        outline = JSONObject.fromObject(j.createWebClient()
+                .goTo("${build.url}gradleTasks/outline", 'application/json').webResponse.contentAsString)
+
+        then:
+        !outline.building
+        outline.tasks*.name == ['first', 'waiting']
+        build.getActions(TaskExecutionAction).size() == 1
+    }
+
+    def 'console output is annotated on the agent'() {
+        given:
+        Gradle.ANNOTATE_ON_AGENT = true
+        gradleInstallationRule.addInstallation()
+        FreeStyleProject p = j.createFreeStyleProject()
+        p.assignedNode = j.createOnlineSlave()
+        p.buildersList.add(new CreateFileBuilder("build.gradle", "task hello << { println 'Hello' }\ntask other"))
+        p.buildersList.add(new Gradle(tasks: 'hello other', *: defaults))
+
+        when:
+        FreeStyleBuild build = j.buildAndAssertSuccess(p)
+
+        then:
+        getLog(build).contains "Hello"
+        build.getAction(TaskExecutionAction).taskExecutions.tasks*.name == ['hello', 'other']
+
+        when:
+        def tasks = build.getAction(TaskExecutionAction).taskExecutions.tasks
+        def log = build.logFile.bytes
+
+        then:
+        tasks.every { task ->
+            def line = new String(log, (int) task.offset, log.length - (int) task.offset, build.charset).readLines()[0]
+            ConsoleNote.removeNotes(line).startsWith(":${task.name}")
+        }
+
+        when:
+        HtmlPage console = j.createWebClient().getPage(build, 'console')
+
+        then:
+        console.getByXPath("//b[@class='gradle-task']")*.textContent == ['hello', 'other']
+        console.getByXPath("//span[@class='gradle-outcome-success']").size() == 1
+
+        cleanup:
+        Gradle.ANNOTATE_ON_AGENT = false
+    }
+
+    def 'builds reuse pooled daemons'() {
+        given:
+        gradleInstallationRule.addInstallation()
+        FreeStyleProject p = j.createFreeStyleProject()
+        p.buildersList.add(new CreateFileBuilder("build.gradle", "task hello << { println 'Hello' }"))
+        p.buildersList.add(new Gradle(tasks: 'hello', *: defaults, switches: '', useDaemonPool: true))
+
+        when:
+        FreeStyleBuild first = j.buildAndAssertSuccess(p)
+        FreeStyleBuild second = j.buildAndAssertSuccess(p)
+
+        then:
+        getLog(first).contains "Using the Gradle daemon pool"
+        getLog(first).contains "Starting a Gradle Daemon"
+        getLog(second).contains "Hello"
+        !getLog(second).contains("Starting a Gradle Daemon")
+
+        cleanup:
+        p.buildersList.replace(new Gradle(*: defaults, switches: '--stop', useDaemonPool: true))
+        j.buildAndAssertSuccess(p)
+    }
+
+    def 'only builds which configure all projects record the projects'() {
+        given:
+        gradleInstallationRule.addInstallation()
+        FreeStyleProject p = j.createFreeStyleProject()
+        p.buildersList.add(new CreateFileBuilder("settings.gradle", "include 'a'"))
+        p.buildersList.add(new CreateFileBuilder("build.gradle", "subprojects { task verify }"))
+        p.buildersList.add(new Gradle(tasks: 'verify', *: defaults, switches: '--no-daemon --configure-on-demand',
+                onlyAffectedProjects: true))
+        def projectMap = new File(p.rootDir, 'gradle-project-map.xml')
+
+        when:
+        FreeStyleBuild first = j.buildAndAssertSuccess(p)
+
+        then:
+        getLog(first).contains "since there is no successful build among the last 20 builds."
+        !projectMap.exists()
+
+        when:
+        p.buildersList.replace(new Gradle(tasks: 'verify', *: defaults, onlyAffectedProjects: true))
+        FreeStyleBuild second = j.buildAndAssertSuccess(p)
+
+        then:
+        getLog(second).contains "since the build has no changes."
+        projectMap.exists()
+    }
+
+    def 'builds share task outputs through the build cache of Jenkins'() {
+        given:
+        gradleInstallationRule.gradleVersion = '4.0'
+        gradleInstallationRule.addInstallation()
+        def buildScript = """
+task hello {
+    outputs.file('build/hello.txt').withPropertyName('hello')
+    outputs.cacheIf { true }
+    doLast { file('build/hello.txt').text = 'Hello' }
+}"""
+        def projects = (1..2).collect {
+            FreeStyleProject p = j.createFreeStyleProject()
+            p.buildersList.add(new CreateFileBuilder("build.gradle", buildScript))
+            p.buildersList.add(new Gradle(tasks: 'hello', *: defaults, useBuildCache: true))
+            p
+        }
+
+        when:
+        FreeStyleBuild first = j.buildAndAssertSuccess(projects[0])
+        FreeStyleBuild second = j.buildAndAssertSuccess(projects[1])
+
+        then:
+        getLog(first).contains "Enabling the build cache of Jenkins."
+        !getLog(first).contains(":hello FROM-CACHE")
+        getLog(second).contains ":hello FROM-CACHE"
+    }
+
+    def 'the token of the build cache is masked and pull requests only load entries'() {
+        given:
+        gradleInstallationRule.gradleVersion = '4.0'
+        gradleInstallationRule.addInstallation()
+        FreeStyleProject p = j.createFreeStyleProject()
+        p.addProperty(new ParametersDefinitionProperty(new StringParameterDefinition('CHANGE_ID', '')))
+        // Runs after the init script configured the cache
+        p.buildersList.add(new CreateFileBuilder("settings.gradle",
+                'gradle.settingsEvaluated { println "Cache: ${it.buildCache.remote.url}" }'))
+        p.buildersList.add(new CreateFileBuilder("build.gradle", """
+task hello {
+    outputs.file('build/hello.txt').withPropertyName('hello')
+    outputs.cacheIf { true }
+    doLast { file('build/hello.txt').text = 'Hello' }
+}"""))
+        p.buildersList.add(new Gradle(tasks: 'hello', *: defaults, switches: '--no-daemon --info', useBuildCache: true))
+
+        when:
+        FreeStyleBuild pullRequest = j.assertBuildStatusSuccess(p.scheduleBuild2(0,
+                new ParametersAction(new StringParameterValue('CHANGE_ID', '42'))))
+        FreeStyleBuild branch = j.assertBuildStatusSuccess(p.scheduleBuild2(0,
+                new ParametersAction(new StringParameterValue('CHANGE_ID', ''))))
+
+        then:
+        getLog(pullRequest).contains "without storing entries, since the build is a pull request"
+        getLog(pullRequest).contains "Cache: ${j.jenkins.rootUrl}gradle-build-cache/****/"
+        !(getLog(pullRequest) =~ /gradle-build-cache\/[0-9a-f]{64}/)
+
+        and: 'the pull request stored nothing, so the branch build runs the task'
+        !getLog(branch).contains(":hello FROM-CACHE")
+    }
+
+    def 'run a build through the tooling api'() {
+        given:
+        gradleInstallationRule.addInstallation()
+        FreeStyleProject p = j.createFreeStyleProject()
+        p.buildersList.add(new CreateFileBuilder("build.gradle", "task hello << { println 'Hello' }\ntask other"))
+        p.buildersList.add(new Gradle(tasks: 'hello other', *: defaults, useToolingApi: true))
+
+        when:
+        FreeStyleBuild build = j.buildAndAssertSuccess(p)
+
+        then:
+        getLog(build).contains "Running Gradle through the Tooling API"
+        getLog(build).contains "Hello"
+
+        and:
+        def tasks = build.getAction(TaskExecutionAction).taskExecutions.tasks
+        tasks*.name == ['hello', 'other']
+        tasks*.outcome == [TaskOutcome.EXECUTED, TaskOutcome.UP_TO_DATE]
+        build.getAction(TaskOutcomeAction).counts.executed == 1
+    }
+
+    def 'tooling api build failures fail the build'() {
+        given:
+        gradleInstallationRule.addInstallation()
+        FreeStyleProject p = j.createFreeStyleProject()
+        p.buildersList.add(new CreateFileBuilder("build.gradle", "task fail << { throw new GradleException('Broken') }"))
+        p.buildersList.add(new Gradle(tasks: 'fail', *: defaults, useToolingApi: true))
+
+        when:
+        FreeStyleBuild build = j.assertBuildStatus(Result.FAILURE, p.scheduleBuild2(0).get())
+
+        then:
+        getLog(build).contains "Broken"
+    }
+
+    def 'tooling api builds through a decorated launcher use the launcher'() {
+        given:
+        gradleInstallationRule.addInstallation()
+        FreeStyleProject p = j.createFreeStyleProject()
+        p.buildersList.add(new CreateFileBuilder("build.gradle", "task hello << { println 'Hello' }"))
+        p.buildersList.add(new DecoratedLauncherBuilder(new Gradle(tasks: 'hello', *: defaults, useToolingApi: true)))
+
+        when:
+        FreeStyleBuild build = j.buildAndAssertSuccess(p)
+
+        then:
+        getLog(build).contains "Not using the Gradle Tooling API"
+        !getLog(build).contains("Running Gradle through the Tooling API")
+        getLog(build).contains "Hello"
+    }
+
+    def 'run as a simple build step'() {
+        given:
+        gradleInstallationRule.addInstallation()
+        FreeStyleProject p = j.createFreeStyleProject()
+        p.buildersList.add(new CreateFileBuilder("build.gradle", "task hello << { println 'Hello' }"))
+        p.buildersList.add(new SimpleBuildStepBuilder(new Gradle(tasks: 'hello', *: defaults)))
+
+        when:
+        FreeStyleBuild build = j.buildAndAssertSuccess(p)
+
+        then:
+        getLog(build).contains 'Hello'
+        build.getAction(TaskExecutionAction).taskExecutions.tasks*.name == ['hello']
+    }
+
+    def 'failing simple build step is aborted'() {
+        given:
+        gradleInstallationRule.addInstallation()
+        FreeStyleProject p = j.createFreeStyleProject()
+        p.buildersList.add(new CreateFileBuilder("build.gradle", "task fail << { throw new GradleException('Broken') }"))
+        p.buildersList.add(new SimpleBuildStepBuilder(new Gradle(tasks: 'fail', *: defaults)))
+
+        when:
+        FreeStyleBuild build = j.assertBuildStatus(Result.FAILURE, p.scheduleBuild2(0).get())
+
+        then:
+        getLog(build).contains 'Gradle build failed'
+    }
+
+    def 'failure of a simple build step can be caught'() {
+        given:
+        gradleInstallationRule.addInstallation()
+        FreeStyleProject p = j.createFreeStyleProject()
+        p.buildersList.add(new CreateFileBuilder("build.gradle", "task fail << { throw new GradleException('Broken') }"))
+        p.buildersList.add(new SimpleBuildStepBuilder(new Gradle(tasks: 'fail', *: defaults), true))
+
+        when:
+        FreeStyleBuild build = j.buildAndAssertSuccess(p)
+
+        then:
+        getLog(build).contains 'Caught: Gradle build failed'
+    }
+
+    def 'failures are shown without the full log'() {
+        given:
+        gradleInstallationRule.addInstallation()
+        FreeStyleProject p = j.createFreeStyleProject()
+        p.buildersList.add(new CreateFileBuilder("build.gradle", "task fail << { throw new GradleException('Broken') }"))
+        p.buildersList.add(new Gradle(tasks: 'fail', *: defaults))
+
+        when:
+        FreeStyleBuild build = j.assertBuildStatus(Result.FAILURE, p.scheduleBuild2(0).get())
+        def action = build.getAction(BuildFailureAction)
+
+        then:
+        action.firstFailedTask.html.contains ':fail FAILED'
+        action.excerpts*.kind.contains FailureIndex.Kind.WHAT_WENT_WRONG
+        action.excerpts.find { it.kind == FailureIndex.Kind.WHAT_WENT_WRONG }.html.contains 'Broken'
+
+        when:
+        def page = j.createWebClient().goTo("${build.url}gradleFailure")
+
+        then:
+        page.asText().contains 'What went wrong'
+
+        when:
+        def summary = j.createWebClient().getPage(build)
+
+        then: 'the build page shows the first failed task'
+        summary.asText().contains ':fail FAILED'
+    }
+
+    def 'build scans of all steps are listed in one action'() {
+        given:
+        gradleInstallationRule.addInstallation()
+        FreeStyleProject p = j.createFreeStyleProject()
+        p.buildersList.add(new CreateFileBuilder("build.gradle", """
+task first << { println 'Publishing build scan...'; println 'https://gradle.com/s/first' }
+task second << {
+    println 'Publishing build information...'; println 'https://gradle.com/s/second'
+    println 'https://gradle.com/s/unmarked'
+}
+"""))
+        p.buildersList.add(new Gradle(tasks: 'first', *: defaults))
+        p.buildersList.add(new Gradle(tasks: 'second', *: defaults))
+
+        when:
+        FreeStyleBuild build = j.buildAndAssertSuccess(p)
+
+        then:
+        build.getActions(BuildScanAction).size() == 1
+        def scans = build.getAction(BuildScanAction).scans
+        scans*.url == ['https://gradle.com/s/first', 'https://gradle.com/s/second']
+        scans*.step == ['first', 'second']
+
+        when:
+        def page = j.createWebClient().getPage(build)
+
+        then:
+        page.getAnchorByHref('https://gradle.com/s/first')
+        page.getAnchorByHref('https://gradle.com/s/second')
+    }
+
     def 'build file in different directory'() {
         given:
         gradleInstallationRule.addInstallation()
@@ -172,6 +584,16 @@ class GradlePluginIntegrationTest extends AbstractIntegrationTest {
         before.passAllAsSystemProperties == after.passAllAsSystemProperties
         before.projectProperties == after.projectProperties
         before.passAllAsProjectProperties == after.passAllAsProjectProperties
+        before.passPropertiesInFile == after.passPropertiesInFile
+        before.useDaemonPool == after.useDaemonPool
+        before.useToolingApi == after.useToolingApi
+        before.onlyAffectedProjects == after.onlyAffectedProjects
+        before.recordResourceUsage == after.recordResourceUsage
+        before.autoSize == after.autoSize
+        before.useBuildCache == after.useBuildCache
+        before.useSeededDependencyCache == after.useSeededDependencyCache
+        before.shardCount == after.shardCount
+        before.shardIndex == after.shardIndex
     }
 
     private Gradle configuredGradle() {
@@ -179,7 +601,11 @@ class GradlePluginIntegrationTest extends AbstractIntegrationTest {
                 buildFile: "buildFile.gradle", gradleName: gradleInstallationRule.gradleVersion,
                 useWrapper: true, makeExecutable: true, wrapperLocation: 'path/to/wrapper',
                 useWorkspaceAsHome: true, passAllAsProjectProperties: true, passAllAsSystemProperties: true,
-                systemProperties: 'someProp=someValue', projectProperties: 'someOtherProp=someOtherValue')
+                passPropertiesInFile: true,
+                systemProperties: 'someProp=someValue', projectProperties: 'someOtherProp=someOtherValue',
+                useDaemonPool: true, useToolingApi: true, onlyAffectedProjects: true, recordResourceUsage: true,
+                autoSize: true, useBuildCache: true,
+                useSeededDependencyCache: true, shardCount: 4, shardIndex: '${SHARD}')
     }
 
     def 'add Gradle installation'() {
@@ -228,4 +654,49 @@ class GradlePluginIntegrationTest extends AbstractIntegrationTest {
         assert installers.size() == 1
         assert installers.get(GradleInstaller)
     }
+
+    /**
+     * Runs a step through {@link jenkins.tasks.SimpleBuildStep}, like a Pipeline does.
+     */
+    static class SimpleBuildStepBuilder extends TestBuilder {
+        private final Gradle gradle
+        /** Whether the failure of the step is caught, like by {@code catchError} in a Pipeline. */
+        private final boolean catchFailure
+
+        SimpleBuildStepBuilder(Gradle gradle, boolean catchFailure = false) {
+            this.gradle = gradle
+            this.catchFailure = catchFailure
+        }
+
+        @Override
+        boolean perform(AbstractBuild<?, ?> build, Launcher launcher, BuildListener listener) {
+            try {
+                gradle.perform(build, build.workspace, launcher, listener)
+                return true
+            } catch (AbortException e) {
+                if (catchFailure) {
+                    listener.logger.println("Caught: ${e.message}")
+                    return true
+                }
+                listener.error(e.message)
+                return false
+            }
+        }
+    }
+
+    /**
+     * Runs the step through a decorated launcher, like a build wrapper running the build inside a container.
+     */
+    static class DecoratedLauncherBuilder extends TestBuilder {
+        private final Gradle gradle
+
+        DecoratedLauncherBuilder(Gradle gradle) {
+            this.gradle = gradle
+        }
+
+        @Override
+        boolean perform(AbstractBuild<?, ?> build, Launcher launcher, BuildListener listener) {
+            gradle.perform(build, new Launcher.DecoratedLauncher(launcher), listener)
+        }
+    }
 }
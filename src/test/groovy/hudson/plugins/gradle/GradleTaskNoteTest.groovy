@@ -26,6 +26,23 @@ class GradleTaskNoteTest extends Specification {
         ':::: ERRORS'             | ':::: ERRORS'
         ':PARENT:TASK'            | ':<b class=gradle-task>PARENT:TASK</b>'
         ':PARENT:TASK UP-TO-DATE' | ':<b class=gradle-task>PARENT:TASK</b> <span class=gradle-task-progress-status>UP-TO-DATE</span>'
+        ':TASK\tUP-TO-DATE'       | ':<b class=gradle-task>TASK</b>\t<span class=gradle-task-progress-status>UP-TO-DATE</span>'
+        ':TASK UP-TO-DATE extra'  | ':<b class=gradle-task>TASK</b> <span class=gradle-task-progress-status>UP-TO-DATE extra</span>'
+        ':T'                      | ':<b class=gradle-task>T</b>'
+        ':'                       | ':'
+        'TASK'                    | 'TASK'
+    }
+
+    def "the anchor of the task is put into the header"() {
+        given:
+        MarkupText markupText = new MarkupText(':TASK UP-TO-DATE')
+
+        when:
+        new GradleTaskNote('gradle-task-1-2').annotate(new Object(), markupText, 0)
+
+        then:
+        markupText.toString(true) ==
+                ':<b class=gradle-task><a name="gradle-task-1-2"></a>TASK</b> <span class=gradle-task-progress-status>UP-TO-DATE</span>'
     }
 
     void "no annotation when disabled"() {
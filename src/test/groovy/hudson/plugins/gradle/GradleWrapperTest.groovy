@@ -0,0 +1,84 @@
+package hudson.plugins.gradle
+
+import hudson.FilePath
+import org.junit.Rule
+import org.junit.rules.TemporaryFolder
+import spock.lang.Specification
+import spock.lang.Unroll
+
+@Unroll
+class GradleWrapperTest extends Specification {
+    @Rule
+    TemporaryFolder tmp = new TemporaryFolder()
+
+    def "version of '#distributionUrl' is '#version'"() {
+        expect:
+        GradleWrapper.versionOf(distributionUrl) == version
+
+        where:
+        distributionUrl                                                      | version
+        'https://services.gradle.org/distributions/gradle-4.0-bin.zip'      | '4.0'
+        'https://services.gradle.org/distributions/gradle-3.5.1-all.zip'    | '3.5.1'
+        'https://services.gradle.org/distributions/gradle-4.1-rc-1-bin.zip' | '4.1-rc-1'
+        'file:///dists/gradle-4.0.zip'                                      | '4.0'
+        'https://example.com/custom-distribution.zip'                       | null
+        null                                                                 | null
+    }
+
+    def 'wrapper is found in the first location containing it'() {
+        given:
+        def first = tmp.newFolder('first')
+        def second = tmp.newFolder('second')
+        def gradlew = new File(second, 'gradlew')
+        gradlew.text = 'exec gradle'
+        def properties = new File(second, 'gradle/wrapper/gradle-wrapper.properties')
+        properties.parentFile.mkdirs()
+        properties.text = 'distributionUrl=https\\://services.gradle.org/distributions/gradle-4.0-bin.zip'
+
+        when:
+        def wrapper = GradleWrapper.find([new FilePath(first), new FilePath(second)], 'gradlew', true)
+
+        then:
+        wrapper.remote == gradlew.path
+        wrapper.gradleVersion == '4.0'
+        gradlew.canExecute()
+    }
+
+    def 'modified wrapper properties are read again'() {
+        given:
+        def dir = tmp.newFolder()
+        new File(dir, 'gradlew').text = 'exec gradle'
+        def properties = new File(dir, 'gradle/wrapper/gradle-wrapper.properties')
+        properties.parentFile.mkdirs()
+        properties.text = 'distributionUrl=https\\://services.gradle.org/distributions/gradle-4.0-bin.zip'
+        GradleWrapper.find([new FilePath(dir)], 'gradlew', false)
+
+        when:
+        properties.text = 'distributionUrl=https\\://services.gradle.org/distributions/gradle-4.1-bin.zip'
+        properties.lastModified = properties.lastModified() + 2000
+
+        then:
+        GradleWrapper.find([new FilePath(dir)], 'gradlew', false).gradleVersion == '4.1'
+    }
+
+    def 'wrapper added to an earlier location is found'() {
+        given:
+        def first = tmp.newFolder('first')
+        def second = tmp.newFolder('second')
+        new File(second, 'gradlew').text = 'exec gradle'
+        def locations = [new FilePath(first), new FilePath(second)]
+        GradleWrapper.find(locations, 'gradlew', false)
+
+        when:
+        def gradlew = new File(first, 'gradlew')
+        gradlew.text = 'exec gradle'
+
+        then:
+        GradleWrapper.find(locations, 'gradlew', false).remote == gradlew.path
+    }
+
+    def 'no wrapper is found in locations without one'() {
+        expect:
+        GradleWrapper.find([new FilePath(tmp.newFolder())], 'gradlew', false) == null
+    }
+}
@@ -0,0 +1,71 @@
+package hudson.plugins.gradle
+
+import net.sf.json.JSONObject
+import org.jenkinsci.plugins.workflow.cps.CpsFlowDefinition
+import org.jenkinsci.plugins.workflow.job.WorkflowJob
+import org.jenkinsci.plugins.workflow.job.WorkflowRun
+
+/**
+ * Tests for the Gradle step in a Pipeline.
+ */
+class PipelineIntegrationTest extends AbstractIntegrationTest {
+
+    def 'gradle steps run in parallel branches'() {
+        given:
+        gradleInstallationRule.addInstallation()
+        WorkflowJob p = j.jenkins.createProject(WorkflowJob, 'parallel')
+        p.definition = new CpsFlowDefinition("""
+            node {
+                parallel first: {
+                    dir('first') {
+                        writeFile file: 'build.gradle', text: "task slow << { Thread.sleep(3000); println 'Slow done' }"
+                        step([\$class: 'Gradle', tasks: 'slow', ${stepArguments()}])
+                    }
+                }, second: {
+                    dir('second') {
+                        writeFile file: 'build.gradle', text: "task broken << { throw new GradleException('Broken') }"
+                        try {
+                            step([\$class: 'Gradle', tasks: 'broken', ${stepArguments()}])
+                        } catch (e) {
+                            echo 'Caught the broken build'
+                        }
+                    }
+                }
+            }
+        """, false)
+
+        when:
+        WorkflowRun build = j.assertBuildStatusSuccess(p.scheduleBuild2(0))
+
+        then:
+        j.assertLogContains('Slow done', build)
+        j.assertLogContains('Caught the broken build', build)
+        build.getAction(TaskOutcomeAction).counts.total == 2
+
+        when:
+        def tasks = build.getAction(TaskExecutionAction).taskExecutions.tasks
+
+        then:
+        tasks*.name.sort() == ['broken', 'slow']
+        // The header of the other branch does not end the running task
+        tasks.find { it.name == 'slow' }.duration >= 3000
+        // The branches write to the log concurrently, so there are no positions in the log to record
+        tasks*.offset == [-1L, -1L]
+        build.getAction(BuildFailureAction) == null
+
+        when:
+        def outline = JSONObject.fromObject(j.createWebClient()
+                .goTo("${build.url}gradleTasks/outline", 'application/json').webResponse.contentAsString)
+
+        then:
+        // Each branch has its own list in the outline
+        outline.tasks*.step as Set == [0, 1] as Set
+        outline.tasks.find { it.name == 'slow' }.step != outline.tasks.find { it.name == 'broken' }.step
+        // Both tasks are the first of their step
+        outline.tasks.collect { it.anchor } as Set == outline.tasks.collect { "gradle-task-${it.step}-0".toString() } as Set
+    }
+
+    private String stepArguments() {
+        "gradleName: '${gradleInstallationRule.gradleVersion}', useWorkspaceAsHome: true, switches: '--no-daemon'"
+    }
+}
@@ -7,6 +7,7 @@ import hudson.model.FreeStyleBuild
 import hudson.model.FreeStyleProject
 import hudson.model.ParametersAction
 import hudson.model.ParametersDefinitionProperty
+import hudson.model.Result
 import hudson.model.TextParameterDefinition
 import hudson.model.TextParameterValue
 import hudson.model.queue.QueueTaskFuture
@@ -64,6 +65,51 @@ class PropertyPassingIntegrationTest extends AbstractIntegrationTest {
         escapedPropertyValue = escapeStringForMethodName(propertyValue)
     }
 
+    def "pass '#escapedPropertyValue' via parameter in a properties file"() {
+        given:
+        gradleInstallationRule.addInstallation()
+        def p = j.createFreeStyleProject()
+        addParameter(p, "PARAM")
+        createBuildScript(p, """
+            task printParam {
+                doLast {
+                    println 'system=' + System.getProperty('PARAM')
+                    println 'project=' + PARAM
+                }
+            }""".stripIndent())
+        p.buildersList.add(new Gradle(tasks: 'printParam', passAllAsSystemProperties: true,
+                passAllAsProjectProperties: true, passPropertiesInFile: true, *: defaults))
+
+        when:
+        def build = j.assertBuildStatusSuccess(triggerBuildWithParameter(p, "PARAM", propertyValue))
+
+        then:
+        getLog(build).contains("system=${propertyValue}")
+        getLog(build).contains("project=${propertyValue}")
+        !getLog(build).contains("-DPARAM=")
+
+        where:
+        propertyValue << criticalStrings
+        escapedPropertyValue = escapeStringForMethodName(propertyValue)
+    }
+
+    def "properties file is deleted when the build can't be prepared"() {
+        given:
+        gradleInstallationRule.addInstallation()
+        def p = j.createFreeStyleProject()
+        addParameter(p, "PARAM")
+        createBuildScript(p, "task printParam")
+        p.buildersList.add(new Gradle(tasks: 'printParam', passAllAsSystemProperties: true, passPropertiesInFile: true,
+                shardCount: 2, shardIndex: 'none', *: defaults))
+
+        when:
+        def build = j.assertBuildStatus(Result.FAILURE, triggerBuildWithParameter(p, "PARAM", "secret").get())
+
+        then:
+        getLog(build).contains("The test shard index must be a number")
+        InitScripts.tempDir(build.workspace).list('gradle-properties*').length == 0
+    }
+
     def "pass project properties"() {
         given:
         gradleInstallationRule.addInstallation()
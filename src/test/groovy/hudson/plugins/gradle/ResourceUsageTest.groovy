@@ -0,0 +1,134 @@
+package hudson.plugins.gradle
+
+import spock.lang.IgnoreIf
+import spock.lang.Specification
+
+import java.lang.management.ManagementFactory
+
+class ResourceUsageTest extends Specification {
+
+    def 'full series is downsampled keeping the peaks'() {
+        given:
+        def usage = new ResourceUsage()
+
+        when:
+        (0..<ResourceUsage.MAX_POINTS + 1).each { i ->
+            usage.add(i * 1000L, i % 2 == 0 ? 100f : 50f, i % 2 == 0 ? 10f : 0f, i == 7 ? 900L : 100L, i, 1)
+        }
+
+        then:
+        usage.size() == ResourceUsage.MAX_POINTS / 2 + 1
+        usage.getTime(0) == 1000
+        usage.getCpuPercentage(0) == 75f
+        usage.getGcPercentage(0) == 5f
+        usage.getResidentBytes(3) == 900
+        usage.getOpenFiles(3) == 7
+        usage.peakResidentBytes == 900
+        usage.getTime(usage.size() - 1) == ResourceUsage.MAX_POINTS * 1000L
+    }
+
+    def 'series of several steps are appended'() {
+        given:
+        def first = new ResourceUsage()
+        first.add(1000, 10f, 1f, 100, 5, 1)
+        def second = new ResourceUsage()
+        second.add(5000, 20f, 2f, 200, 6, 2)
+
+        when:
+        first.addAll(second)
+
+        then:
+        first.size() == 2
+        first.getTime(1) == 5000
+        first.peakProcesses == 2
+    }
+
+    def 'loaded series can grow'() {
+        given:
+        def usage = new ResourceUsage()
+        usage.add(1000, 10f, 1f, 100, 5, 1)
+
+        when:
+        def copy = new ObjectInputStream(new ByteArrayInputStream(serialize(usage))).readObject() as ResourceUsage
+        copy.add(2000, 20f, 2f, 200, 6, 2)
+
+        then:
+        copy.size() == 2
+        copy.getResidentBytes(0) == 100
+    }
+
+    @IgnoreIf({ !new File('/proc/self/stat').isFile() })
+    def 'processes are found by the marker in their environment'() {
+        given:
+        def marker = "${ResourceMonitor.ENV_VAR}=${UUID.randomUUID()}"
+        def builder = new ProcessBuilder('sleep', '30')
+        builder.environment().put(ResourceMonitor.ENV_VAR, marker.substring(marker.indexOf('=') + 1))
+        def process = builder.start()
+
+        when:
+        def sample = new ResourceMonitor.SampleProcesses(marker).call()
+
+        then:
+        sample.processes == 1
+        sample.residentBytes > 0
+        sample.openFiles > 0
+
+        cleanup:
+        process.destroy()
+    }
+
+    def 'reused processes only count with the time used since they were first sampled'() {
+        given:
+        def previous = [1: 1000L, 2: 5000L]
+        def current = [1: 1500L, 2: 5200L, 3: 300L, 4: 90000L]
+
+        expect:
+        // 500 + 200 of the processes seen before, 300 of the new one, nothing of the reused daemon
+        ResourceMonitor.used(current, previous, [4] as Set) == 1000
+    }
+
+    def 'connections are read by socket inode'() {
+        given:
+        def table = '''\
+  sl  local_address rem_address   st tx_queue rx_queue tr tm->when retrnsmt   uid  timeout inode
+   0: 0100007F:A1B2 0100007F:C3D4 01 00000000:00000000 00:00000000 00000000  1000        0 4711 1 0000 20 4 30 10 -1
+   1: 0100007F:C3D4 0100007F:A1B2 01 00000000:00000000 00:00000000 00000000  1000        0 4712 1 0000 20 4 30 10 -1
+'''
+        def connections = [:]
+
+        when:
+        ResourceMonitor.SampleProcesses.parseConnections(table, connections)
+
+        then:
+        connections == ['4711': '0100007F:A1B2>0100007F:C3D4', '4712': '0100007F:C3D4>0100007F:A1B2']
+    }
+
+    @IgnoreIf({ !ownPerfData().isFile() })
+    def 'garbage collection time is read from the performance counters of a JVM'() {
+        given:
+        System.gc()
+
+        when:
+        def gcMillis = ResourceMonitor.SampleProcesses.readGcMillis(ownPerfData().bytes)
+
+        then:
+        gcMillis >= 0
+        gcMillis <= ManagementFactory.garbageCollectorMXBeans*.collectionTime.sum() + 1000
+    }
+
+    def 'invalid performance counters are ignored'() {
+        expect:
+        ResourceMonitor.SampleProcesses.readGcMillis(new byte[64]) == -1
+    }
+
+    private static File ownPerfData() {
+        def pid = ManagementFactory.runtimeMXBean.name.split('@')[0]
+        new File("/tmp/hsperfdata_${System.getProperty('user.name')}/${pid}")
+    }
+
+    private static byte[] serialize(Object o) {
+        def bytes = new ByteArrayOutputStream()
+        new ObjectOutputStream(bytes).withStream { it.writeObject(o) }
+        bytes.toByteArray()
+    }
+}
@@ -0,0 +1,108 @@
+package hudson.plugins.gradle
+
+import hudson.FilePath
+import org.junit.Rule
+import org.junit.rules.TemporaryFolder
+import spock.lang.Specification
+
+class TestShardTest extends Specification {
+    @Rule
+    TemporaryFolder tmp = new TemporaryFolder()
+
+    def 'test classes are split into shards of about equal duration'() {
+        when:
+        def shards = TestShard.partition([A: 50L, B: 40L, C: 30L, D: 20L, E: 10L, F: 10L], 3)
+
+        then:
+        shards == [['A', 'F'], ['B', 'E'], ['C', 'D']]
+    }
+
+    def 'split does not depend on the order of the durations'() {
+        given:
+        def durations = ['a.X': 10L, 'a.Y': 10L, 'a.Z': 10L, 'b.X': 10L]
+
+        expect:
+        TestShard.partition(durations, 2) == TestShard.partition(new TreeMap(durations).descendingMap(), 2)
+    }
+
+    def 'first shard excludes the classes of the other shards'() {
+        when:
+        def script = TestShard.initScript([['a.A'], ['a.B'], ['b.C']], 0)
+
+        then:
+        !script.contains("'a/A.class'")
+        script.contains("exclude 'a/B.class', 'a/B\$*.class'")
+        script.contains("exclude 'b/C.class', 'b/C\$*.class'")
+    }
+
+    def 'other shards include only their classes'() {
+        when:
+        def script = TestShard.initScript([['a.A'], ['a.B', 'a.C'], []], 1)
+
+        then:
+        script.contains("filter.includeTestsMatching 'a.B'")
+        script.contains("filter.includeTestsMatching 'a.C'")
+        !script.contains("'a.A'")
+
+        and:
+        TestShard.initScript([['a.A'], ['a.B', 'a.C'], []], 2).contains('enabled = false')
+    }
+
+    def 'durations are collected from new test reports'() {
+        given:
+        def dir = tmp.newFolder()
+        def report = { String path, String xml ->
+            def file = new File(dir, path)
+            file.parentFile.mkdirs()
+            file.text = xml
+            file
+        }
+        report('core/build/test-results/test/TEST-a.A.xml',
+                '<?xml version="1.0" encoding="UTF-8"?>\n<testsuite name="a.A" tests="2" time="1.25"><testcase name="t"/></testsuite>')
+        report('build/test-results/TEST-a.B.xml', '<testsuite name="a.B" time="0.5"/>')
+        report('build/test-results/TEST-broken.xml', '<testsuite')
+        report('build/test-results/TEST-a.Old.xml', '<testsuite name="a.Old" time="3"/>').lastModified = 0
+
+        expect:
+        TestDurations.collect(new FilePath(dir), 1000) == ['a.A': 1250L, 'a.B': 500L]
+    }
+
+    def 'concurrent builds keep their own snapshot of the durations until they complete'() {
+        given:
+        def durations = new TestDurations(new File(tmp.newFolder(), 'gradle-test-durations.xml'))
+        durations.record(['a.A': 100L])
+
+        when:
+        def first = durations.snapshot('job#1')
+        durations.record(['a.B': 200L])
+        def second = durations.snapshot('job#2')
+
+        then:
+        durations.snapshot('job#1') == first
+        first == ['a.A': 100L]
+        second == ['a.A': 100L, 'a.B': 200L]
+
+        when:
+        durations.release('job#1')
+        durations.record(['a.C': 300L])
+
+        then:
+        durations.snapshot('job#2') == second
+        durations.snapshot('job#1').size() == 3
+    }
+
+    def 'only the newest snapshots are kept'() {
+        given:
+        def durations = new TestDurations(new File(tmp.newFolder(), 'gradle-test-durations.xml'))
+        durations.record(['a.A': 100L])
+        (1..TestDurations.MAX_SNAPSHOTS).each { durations.snapshot("job#$it") }
+
+        when:
+        durations.record(['a.B': 200L])
+        durations.snapshot('job#new')
+
+        then: 'the oldest snapshot was dropped and is taken again'
+        durations.snapshot('job#2').size() == 1
+        durations.snapshot('job#1').size() == 2
+    }
+}
@@ -0,0 +1,111 @@
+package hudson.plugins.gradle
+
+import hudson.util.StreamTaskListener
+import org.junit.Rule
+import org.junit.rules.TemporaryFolder
+import spock.lang.Specification
+
+import java.security.MessageDigest
+import java.util.zip.ZipEntry
+import java.util.zip.ZipOutputStream
+
+class WrapperDistributionCacheTest extends Specification {
+    @Rule
+    TemporaryFolder tmp = new TemporaryFolder()
+
+    def gradleLogger = new GradleLogger(StreamTaskListener.fromStdout())
+
+    def 'uses the directory layout of the wrapper'() {
+        expect:
+        WrapperDistributionCache.urlHash('https://services.gradle.org/distributions/gradle-3.3-all.zip') == '55gk2rcmfc6p2dg9u9ohc3hw9'
+    }
+
+    def 'distribution is provisioned into each user home from the node cache'() {
+        given:
+        def zip = distribution('gradle-9.9-bin.zip')
+        def wrapperDir = wrapper(zip.toURI().toString())
+        def cacheDir = tmp.newFolder('cache')
+
+        when:
+        def first = WrapperDistributionCache.provision(wrapperDir, cacheDir, tmp.newFolder('home1'), null, gradleLogger)
+        zip.delete()
+        def second = WrapperDistributionCache.provision(wrapperDir, cacheDir, tmp.newFolder('home2'), null, gradleLogger)
+
+        then:
+        [first, second].every { File distDir ->
+            distDir.name == WrapperDistributionCache.urlHash(zip.toURI().toString()) &&
+                    distDir.parentFile.name == 'gradle-9.9-bin' &&
+                    new File(distDir, 'gradle-9.9-bin.zip.ok').isFile() &&
+                    new File(distDir, 'gradle-9.9/bin/gradle').text == 'echo gradle'
+        }
+    }
+
+    def 'distribution is downloaded from the mirror'() {
+        given:
+        def mirror = tmp.newFolder('mirror')
+        def zip = distribution('gradle-9.9-bin.zip')
+        zip.renameTo(new File(mirror, zip.name))
+        def wrapperDir = wrapper('https://unreachable.invalid/distributions/gradle-9.9-bin.zip')
+
+        when:
+        def distDir = WrapperDistributionCache.provision(wrapperDir, tmp.newFolder('cache'), tmp.newFolder('home'),
+                mirror.toURI().toString(), gradleLogger)
+
+        then:
+        new File(distDir, 'gradle-9.9/bin/gradle').isFile()
+    }
+
+    def 'distribution with wrong checksum is rejected'() {
+        given:
+        def zip = distribution('gradle-9.9-bin.zip')
+        def wrapperDir = wrapper(zip.toURI().toString(), '0' * 64)
+        def home = tmp.newFolder('home')
+
+        when:
+        WrapperDistributionCache.provision(wrapperDir, tmp.newFolder('cache'), home, null, gradleLogger)
+
+        then:
+        IOException e = thrown()
+        e.message.contains('Checksum')
+        !new File(home, 'wrapper/dists').exists()
+    }
+
+    def 'distribution with matching checksum is accepted'() {
+        given:
+        def zip = distribution('gradle-9.9-bin.zip')
+        def sha256 = MessageDigest.getInstance('SHA-256').digest(zip.bytes).encodeHex().toString().toUpperCase()
+        def wrapperDir = wrapper(zip.toURI().toString(), sha256)
+        def cacheDir = tmp.newFolder('cache')
+
+        when:
+        WrapperDistributionCache.provision(wrapperDir, cacheDir, tmp.newFolder('home'), null, gradleLogger)
+
+        then:
+        new File(cacheDir, sha256.toLowerCase()).isDirectory()
+    }
+
+    private File distribution(String name) {
+        def zip = new File(tmp.root, name)
+        zip.withOutputStream { out ->
+            def zipOut = new ZipOutputStream(out)
+            zipOut.putNextEntry(new ZipEntry('gradle-9.9/bin/gradle'))
+            zipOut.write('echo gradle'.bytes)
+            zipOut.closeEntry()
+            zipOut.close()
+        }
+        zip
+    }
+
+    private File wrapper(String distributionUrl, String sha256 = null) {
+        def wrapperDir = tmp.newFolder()
+        def properties = new File(wrapperDir, 'gradle/wrapper/gradle-wrapper.properties')
+        properties.parentFile.mkdirs()
+        def content = new Properties()
+        content.distributionUrl = distributionUrl
+        if (sha256) {
+            content.distributionSha256Sum = sha256
+        }
+        properties.withOutputStream { content.store(it, null) }
+        wrapperDir
+    }
+}